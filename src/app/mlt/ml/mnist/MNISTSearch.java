@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2018 Miquel Sas
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package app.mlt.ml.mnist;
+
+import java.io.IOException;
+import java.util.Locale;
+
+import com.mlt.desktop.TaskFrame;
+import com.mlt.ml.data.PatternSource;
+import com.mlt.ml.data.mnist.MNIST;
+import com.mlt.ml.function.activation.ActivationReLU;
+import com.mlt.ml.function.activation.ActivationSigmoid;
+import com.mlt.ml.function.optimizer.OptimizerAdam;
+import com.mlt.ml.network.Builder;
+import com.mlt.ml.network.Network;
+import com.mlt.ml.network.nodes.CrossEntropyNode.Mode;
+import com.mlt.ml.network.search.HyperSearch;
+import com.mlt.ml.network.search.SearchSpace;
+import com.mlt.ml.network.search.Trial;
+import com.mlt.util.Logs;
+import com.mlt.util.Resources;
+
+/**
+ * Hyper-parameter search of perceptrons with one hidden layer using the MNIST
+ * database.
+ *
+ * @author Miquel Sas
+ */
+public class MNISTSearch {
+
+	static {
+		Resources.addBaseTextResource("res/strings/StringsLibrary.xml");
+		Locale.setDefault(Locale.US);
+	}
+
+	/**
+	 * Start and launch the application.
+	 * 
+	 * @param args Startup arguments (unused).
+	 */
+	public static void main(String[] args) {
+
+		/* Packed sources read directly from the files. */
+		PatternSource srcTrain = null;
+		PatternSource srcTest = null;
+		try {
+			srcTrain = MNIST.getPackedSourceTrain();
+			srcTest = MNIST.getPackedSourceTest();
+		} catch (IOException exc) {
+			Logs.catching(exc);
+			System.exit(1);
+		}
+		srcTrain.setDescription("MNIST-Train");
+		srcTest.setDescription("MNIST-Test");
+
+		SearchSpace space = new SearchSpace();
+		space.addChoice("hidden", 64, 128, 256);
+		space.addChoice("activation", "SIGMOID", "RELU");
+		space.addRange("learning-rate", 1.0e-4, 1.0e-2, 3, true);
+
+		HyperSearch search = new HyperSearch(MNISTSearch::getNetwork);
+		search.setTitle("MNIST-Search");
+		search.setPatternSourceTraining(srcTrain);
+		search.setPatternSourceTest(srcTest);
+		search.addRandom(space, 27, 0);
+		search.setEpochs(9);
+		search.setPruning(HyperSearch.Pruning.HALVING, 1, 3);
+		search.setConfigurator((trial, trainer) -> {
+			trainer.setBatchSize(32);
+			trainer.setShuffle(true);
+			trainer.setScore(false);
+		});
+
+		TaskFrame frame = new TaskFrame();
+		frame.setTitle("MNIST Search");
+		frame.addTasks(search);
+		frame.show();
+	}
+
+	private static Network getNetwork(Trial trial) {
+		int hidden = trial.getInteger("hidden");
+		double learningRate = trial.getDouble("learning-rate");
+		Network network = new Network();
+		if (trial.getString("activation").equals("RELU")) {
+			network.addBranch(Builder.branchPerceptron(MNIST.INPUT_SIZE, hidden, new ActivationReLU()));
+		} else {
+			network.addBranch(Builder.branchPerceptron(MNIST.INPUT_SIZE, hidden, new ActivationSigmoid()));
+		}
+		network.addBranch(Builder.branchCrossEntropy(hidden, 10, Mode.SOFTMAX));
+		network.setName("MNIST-IN784-BP" + hidden + "-BP10");
+		network.setOptimizer(() -> new OptimizerAdam(learningRate, 0.9, 0.999));
+		return network;
+	}
+}
@@ -27,13 +27,12 @@ import java.util.Locale;
 import com.mlt.desktop.TaskFrame;
 import com.mlt.ml.data.PatternSource;
 import com.mlt.ml.data.mnist.MNIST;
-import com.mlt.ml.data.mnist.NumberImage;
 import com.mlt.ml.function.Activation;
 import com.mlt.ml.function.activation.ActivationSigmoid;
-import com.mlt.ml.function.activation.ActivationSoftMax;
 import com.mlt.ml.network.Builder;
 import com.mlt.ml.network.Network;
 import com.mlt.ml.network.Trainer;
+import com.mlt.ml.network.nodes.CrossEntropyNode.Mode;
 import com.mlt.task.Task;
 import com.mlt.util.Logs;
 import com.mlt.util.Resources;
@@ -60,19 +59,15 @@ public class MNISTTrainer {
 	 */
 	public static void main(String[] args) {
 
-		/* List of images. */
-		List<NumberImage> trainImages = null;
-		List<NumberImage> testImages = null;
+		/* Packed sources read directly from the files. */
 		try {
-			trainImages = MNIST.getImagesTrain();
-			testImages = MNIST.getImagesTest();
+			srcTrain = MNIST.getPackedSourceTrain();
+			srcTest = MNIST.getPackedSourceTest();
 		} catch (IOException exc) {
 			Logs.catching(exc);
 			System.exit(1);
 		}
-		srcTrain = MNIST.getSource(new ArrayList<>(trainImages));
 		srcTrain.setDescription("MNIST-Train");
-		srcTest = MNIST.getSource(new ArrayList<>(testImages));
 		srcTest.setDescription("MNIST-Test");
 
 		List<Task> tasks = new ArrayList<>();
@@ -101,9 +96,12 @@ public class MNISTTrainer {
 			name.append(sizes[i]);
 			int inputSize = (i == 0 ? MNIST.INPUT_SIZE : sizes[i - 1]);
 			int outputSize = sizes[i];
-			Activation activation =
-				(i < sizes.length - 1 ? new ActivationSigmoid() : new ActivationSoftMax());
-			network.addBranch(Builder.branchPerceptron(inputSize, outputSize, activation));
+			if (i < sizes.length - 1) {
+				Activation activation = new ActivationSigmoid();
+				network.addBranch(Builder.branchPerceptron(inputSize, outputSize, activation));
+			} else {
+				network.addBranch(Builder.branchCrossEntropy(inputSize, outputSize, Mode.SOFTMAX));
+			}
 		}
 		network.setName("MNIST-IN784-" + name.toString());
 
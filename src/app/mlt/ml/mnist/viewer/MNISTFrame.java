@@ -65,6 +65,7 @@ import com.mlt.ml.data.Pattern;
 import com.mlt.ml.data.PatternSource;
 import com.mlt.ml.data.mnist.MNIST;
 import com.mlt.ml.data.mnist.NumberImagePattern;
+import com.mlt.ml.network.Checkpoint;
 import com.mlt.ml.network.Network;
 import com.mlt.ml.network.Node;
 import com.mlt.ml.network.nodes.Filter2DNode;
@@ -312,11 +313,15 @@ public class MNISTFrame extends Frame {
 				statusBar.clearStatusBar();
 				statusBar.setLabel("NET", "Restoring the netwotk " + networkFile.getName());
 				network = new Network();
-				FileInputStream fi = new FileInputStream(networkFile);
-				BufferedInputStream bi = new BufferedInputStream(fi);
-				network.restore(bi);
-				bi.close();
-				fi.close();
+				if (Checkpoint.isCheckpoint(networkFile)) {
+					Checkpoint.restore(network, networkFile);
+				} else {
+					FileInputStream fi = new FileInputStream(networkFile);
+					BufferedInputStream bi = new BufferedInputStream(fi);
+					network.restore(bi);
+					bi.close();
+					fi.close();
+				}
 				Thread.sleep(500);
 				statusBar.removeLabel("NET");
 
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2018 Miquel Sas
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mlt.ml.data;
+
+import java.util.Random;
+
+/**
+ * Transforms the input values of training patterns on the fly, so that each
+ * epoch presents the network slightly different versions of the same patterns.
+ * Augmenters never modify the values they receive, they return a new vector.
+ *
+ * @author Miquel Sas
+ */
+public interface Augmenter {
+
+	/**
+	 * Return the augmented input values.
+	 * 
+	 * @param inputValues The input values, not modified.
+	 * @param random      The random generator.
+	 * @return The augmented input values.
+	 */
+	double[] augment(double[] inputValues, Random random);
+
+	/**
+	 * Return a pattern with the augmented input values and the same output values
+	 * and label.
+	 * 
+	 * @param pattern The source pattern.
+	 * @param random  The random generator.
+	 * @return The augmented pattern.
+	 */
+	default Pattern augment(Pattern pattern, Random random) {
+		double[] inputValues = augment(pattern.getInputValues(), random);
+		DefaultPattern augmented = new DefaultPattern(inputValues, pattern.getOutputValues());
+		augmented.setLabel(pattern.getLabel());
+		return augmented;
+	}
+}
@@ -0,0 +1,749 @@
+/*
+ * Copyright (C) 2018 Miquel Sas
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mlt.ml.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+import com.mlt.ml.function.Matcher;
+import com.mlt.ml.function.match.CategoryMatcher;
+
+/**
+ * A pattern source that stores the input and output values packed as floats,
+ * in two column blocks of contiguous rows, either in memory or in a memory
+ * mapped file, so that sources larger than the heap can be used.
+ * <p>
+ * Patterns returned by <em>get</em> are light views that decode the values on
+ * each call. Consumers that own their buffers can read the values without any
+ * allocation with <em>readInputValues</em> and <em>readOutputValues</em>.
+ * <p>
+ * Layout of the file, all values little-endian: a header with the magic number,
+ * the version, the number of patterns, the input and output sizes and the input
+ * and output precisions (ints), followed by the block of inputs and the block
+ * of outputs, each aligned to 8 bytes.
+ *
+ * @author Miquel Sas
+ */
+public class PackedPatternSource implements PatternSource {
+
+	/**
+	 * Enumerates the precisions of the packed values.
+	 */
+	public static enum Precision {
+		/** Single precision, 4 bytes per value. */
+		FLOAT32(4),
+		/** Half precision, 2 bytes per value. */
+		FLOAT16(2);
+
+		/** Number of bytes per value. */
+		private int bytes;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param bytes Number of bytes per value.
+		 */
+		private Precision(int bytes) {
+			this.bytes = bytes;
+		}
+
+		/**
+		 * Return the number of bytes per value.
+		 *
+		 * @return The number of bytes.
+		 */
+		public int getBytes() {
+			return bytes;
+		}
+	}
+
+	/**
+	 * A block of rows of packed values, split in segments of less than 1 GB.
+	 */
+	private static class Block {
+
+		/** Number of values per row. */
+		private int rowSize;
+		/** Number of rows per segment. */
+		private int segmentRows;
+		/** Precision. */
+		private Precision precision;
+		/** Segments as float buffers, if single precision. */
+		private FloatBuffer[] floats;
+		/** Segments as short buffers, if half precision. */
+		private ShortBuffer[] shorts;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param rows      Number of rows.
+		 * @param rowSize   Number of values per row.
+		 * @param precision Precision.
+		 */
+		private Block(int rows, int rowSize, Precision precision) {
+			this.rowSize = rowSize;
+			this.precision = precision;
+			long rowBytes = Math.max(1, (long) rowSize * precision.getBytes());
+			this.segmentRows = (int) Math.max(1, Math.min(rows, SEGMENT_BYTES / rowBytes));
+			int segments = (rows == 0 ? 0 : (rows - 1) / segmentRows + 1);
+			if (precision == Precision.FLOAT32) {
+				floats = new FloatBuffer[segments];
+			} else {
+				shorts = new ShortBuffer[segments];
+			}
+		}
+
+		/**
+		 * Return the number of bytes of the segment.
+		 *
+		 * @param segment The segment index.
+		 * @param rows    The total number of rows.
+		 * @return The number of bytes.
+		 */
+		private long getSegmentBytes(int segment, int rows) {
+			int segmentRows = Math.min(this.segmentRows, rows - segment * this.segmentRows);
+			return (long) segmentRows * rowSize * precision.getBytes();
+		}
+
+		/**
+		 * Return the number of segments.
+		 *
+		 * @return The number of segments.
+		 */
+		private int getSegments() {
+			return (floats != null ? floats.length : shorts.length);
+		}
+
+		/**
+		 * Read a row.
+		 *
+		 * @param row    The row.
+		 * @param values The vector where to decode the values.
+		 */
+		private void read(int row, double[] values) {
+			int segment = row / segmentRows;
+			int offset = (row % segmentRows) * rowSize;
+			if (floats != null) {
+				FloatBuffer buffer = floats[segment];
+				for (int i = 0; i < rowSize; i++) {
+					values[i] = buffer.get(offset + i);
+				}
+			} else {
+				ShortBuffer buffer = shorts[segment];
+				for (int i = 0; i < rowSize; i++) {
+					values[i] = HALF_TO_FLOAT[buffer.get(offset + i) & 0xffff];
+				}
+			}
+		}
+
+		/**
+		 * Set the byte buffer of a segment.
+		 *
+		 * @param segment The segment index.
+		 * @param buffer  The little-endian byte buffer.
+		 */
+		private void setSegment(int segment, ByteBuffer buffer) {
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			if (floats != null) {
+				floats[segment] = buffer.asFloatBuffer();
+			} else {
+				shorts[segment] = buffer.asShortBuffer();
+			}
+		}
+
+		/**
+		 * Write a row.
+		 *
+		 * @param row    The row.
+		 * @param values The values to encode.
+		 */
+		private void write(int row, double[] values) {
+			int segment = row / segmentRows;
+			int offset = (row % segmentRows) * rowSize;
+			if (floats != null) {
+				FloatBuffer buffer = floats[segment];
+				for (int i = 0; i < rowSize; i++) {
+					buffer.put(offset + i, (float) values[i]);
+				}
+			} else {
+				ShortBuffer buffer = shorts[segment];
+				for (int i = 0; i < rowSize; i++) {
+					buffer.put(offset + i, toHalf((float) values[i]));
+				}
+			}
+		}
+	}
+
+	/**
+	 * A light pattern that decodes its values from the source.
+	 */
+	private class PackedPattern extends Pattern {
+
+		/** Index of the pattern. */
+		private int index;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param index Index of the pattern.
+		 */
+		private PackedPattern(int index) {
+			super();
+			this.index = index;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public double[] getInputValues() {
+			double[] inputValues = new double[inputSize];
+			readInputValues(index, inputValues);
+			return inputValues;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public double[] getOutputValues() {
+			double[] outputValues = new double[outputSize];
+			readOutputValues(index, outputValues);
+			return outputValues;
+		}
+	}
+
+	/** Magic number, "MLTP". */
+	public static final int MAGIC = 0x4D4C5450;
+	/** Current version. */
+	public static final int VERSION = 1;
+
+	/** Size of the header. */
+	private static final int HEADER_SIZE = 32;
+	/** Maximum size of a segment. */
+	private static final long SEGMENT_BYTES = 1L << 30;
+	/** Size of the chunks written at once. */
+	private static final int CHUNK_BYTES = 1 << 20;
+
+	/** Table to decode half precision values. */
+	private static final float[] HALF_TO_FLOAT = new float[65536];
+
+	static {
+		for (int i = 0; i < HALF_TO_FLOAT.length; i++) {
+			HALF_TO_FLOAT[i] = fromHalf((short) i);
+		}
+	}
+
+	/**
+	 * Decode a half precision value.
+	 *
+	 * @param half The half precision bits.
+	 * @return The float value.
+	 */
+	private static float fromHalf(short half) {
+		int bits = half & 0xffff;
+		int sign = (bits & 0x8000) << 16;
+		int exponent = (bits >>> 10) & 0x1f;
+		int mantissa = bits & 0x3ff;
+		if (exponent == 0) {
+			/* Zero or subnormal. */
+			float value = mantissa * 0x1.0p-24f;
+			return (sign != 0 ? -value : value);
+		}
+		if (exponent == 31) {
+			/* Infinity or NaN. */
+			return Float.intBitsToFloat(sign | 0x7f800000 | (mantissa << 13));
+		}
+		return Float.intBitsToFloat(sign | ((exponent + 112) << 23) | (mantissa << 13));
+	}
+
+	/**
+	 * Encode a float as a half precision value, rounding to the nearest.
+	 *
+	 * @param value The float value.
+	 * @return The half precision bits.
+	 */
+	private static short toHalf(float value) {
+		int bits = Float.floatToIntBits(value);
+		int sign = (bits >>> 16) & 0x8000;
+		int absolute = bits & 0x7fffffff;
+		int rounded = absolute + 0x1000;
+		if (absolute >= 0x7f800000) {
+			/* Infinity or NaN. */
+			return (short) (sign | 0x7c00 | (absolute > 0x7f800000 ? 0x200 : 0));
+		}
+		if (rounded >= 0x47800000) {
+			/* Overflow, to infinity. */
+			return (short) (sign | 0x7c00);
+		}
+		if (rounded >= 0x38800000) {
+			/* Normal. */
+			return (short) (sign | ((rounded - 0x38000000) >>> 13));
+		}
+		if (absolute < 0x33000000) {
+			/* Underflow, to zero. */
+			return (short) sign;
+		}
+		/* Subnormal. */
+		int exponent = absolute >>> 23;
+		int mantissa = (absolute & 0x7fffff) | 0x800000;
+		return (short) (sign | ((mantissa + (0x800000 >>> (exponent - 102))) >>> (126 - exponent)));
+	}
+
+	/**
+	 * Create a packed source allocated in memory, with all values zero, to be
+	 * filled with <em>writeInputValues</em> and <em>writeOutputValues</em>.
+	 * Distinct patterns can be written concurrently, until the source is cloned.
+	 *
+	 * @param size            The number of patterns.
+	 * @param inputSize       The input size.
+	 * @param outputSize      The output size.
+	 * @param inputPrecision  The precision of input values.
+	 * @param outputPrecision The precision of output values.
+	 * @return The packed source.
+	 */
+	public static PackedPatternSource create(
+		int size,
+		int inputSize,
+		int outputSize,
+		Precision inputPrecision,
+		Precision outputPrecision) {
+		PackedPatternSource packed =
+			new PackedPatternSource(size, inputSize, outputSize, inputPrecision, outputPrecision);
+		allocate(packed.inputs, size);
+		allocate(packed.outputs, size);
+		packed.writable = true;
+		return packed;
+	}
+
+	/**
+	 * Open a packed source memory mapping the file.
+	 *
+	 * @param file The file.
+	 * @return The packed source.
+	 * @throws IOException If an IO error occurs or the file is not valid.
+	 */
+	public static PackedPatternSource open(File file) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+			FileChannel channel = raf.getChannel()) {
+
+			/* Header. */
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+			header.order(ByteOrder.LITTLE_ENDIAN);
+			if (header.getInt() != MAGIC) {
+				throw new IOException("Not a packed pattern file: " + file);
+			}
+			int version = header.getInt();
+			if (version > VERSION) {
+				throw new IOException("Unsupported packed pattern version: " + version);
+			}
+			int size = header.getInt();
+			int inputSize = header.getInt();
+			int outputSize = header.getInt();
+			Precision inputPrecision = Precision.values()[header.getInt()];
+			Precision outputPrecision = Precision.values()[header.getInt()];
+
+			PackedPatternSource source = new PackedPatternSource(
+				size,
+				inputSize,
+				outputSize,
+				inputPrecision,
+				outputPrecision);
+			long position = HEADER_SIZE;
+			position = map(channel, source.inputs, size, position);
+			position = map(channel, source.outputs, size, position);
+			if (position > channel.size()) {
+				throw new IOException("Truncated packed pattern file: " + file);
+			}
+			return source;
+		}
+	}
+
+	/**
+	 * Map the segments of a block.
+	 *
+	 * @param channel  The file channel.
+	 * @param block    The block.
+	 * @param rows     The number of rows.
+	 * @param position The position of the block.
+	 * @return The position after the block, aligned to 8 bytes.
+	 * @throws IOException If an IO error occurs.
+	 */
+	private static long map(FileChannel channel, Block block, int rows, long position)
+		throws IOException {
+		for (int segment = 0; segment < block.getSegments(); segment++) {
+			long bytes = block.getSegmentBytes(segment, rows);
+			block.setSegment(segment, channel.map(FileChannel.MapMode.READ_ONLY, position, bytes));
+			position += bytes;
+		}
+		return align(position);
+	}
+
+	/**
+	 * Pack a source in memory.
+	 *
+	 * @param source          The source to pack.
+	 * @param inputPrecision  The precision of input values.
+	 * @param outputPrecision The precision of output values.
+	 * @return The packed source.
+	 */
+	public static PackedPatternSource pack(
+		PatternSource source,
+		Precision inputPrecision,
+		Precision outputPrecision) {
+		PackedPatternSource packed = new PackedPatternSource(
+			source.size(),
+			getInputSize(source),
+			getOutputSize(source),
+			inputPrecision,
+			outputPrecision);
+		allocate(packed.inputs, source.size());
+		allocate(packed.outputs, source.size());
+		for (int i = 0; i < source.size(); i++) {
+			Pattern pattern = source.get(i);
+			packed.inputs.write(i, pattern.getInputValues());
+			packed.outputs.write(i, pattern.getOutputValues());
+		}
+		packed.setDescription(source.getDescription());
+		return packed;
+	}
+
+	/**
+	 * Allocate the segments of a block in memory.
+	 *
+	 * @param block The block.
+	 * @param rows  The number of rows.
+	 */
+	private static void allocate(Block block, int rows) {
+		for (int segment = 0; segment < block.getSegments(); segment++) {
+			block.setSegment(segment, ByteBuffer.allocate((int) block.getSegmentBytes(segment, rows)));
+		}
+	}
+
+	/**
+	 * Write a source to a packed file.
+	 *
+	 * @param source          The source to write.
+	 * @param file            The file.
+	 * @param inputPrecision  The precision of input values.
+	 * @param outputPrecision The precision of output values.
+	 * @throws IOException If an IO error occurs.
+	 */
+	public static void write(
+		PatternSource source,
+		File file,
+		Precision inputPrecision,
+		Precision outputPrecision) throws IOException {
+		int size = source.size();
+		int inputSize = getInputSize(source);
+		int outputSize = getOutputSize(source);
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			FileChannel channel = raf.getChannel()) {
+			channel.truncate(0);
+
+			/* Header. */
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC);
+			header.putInt(VERSION);
+			header.putInt(size);
+			header.putInt(inputSize);
+			header.putInt(outputSize);
+			header.putInt(inputPrecision.ordinal());
+			header.putInt(outputPrecision.ordinal());
+			header.clear();
+			writeFully(channel, header);
+
+			/* Blocks, streaming a segment size buffer at a time. */
+			write(channel, source, true, new Block(size, inputSize, inputPrecision));
+			write(channel, source, false, new Block(size, outputSize, outputPrecision));
+		}
+	}
+
+	/**
+	 * Write a block of values.
+	 *
+	 * @param channel The file channel.
+	 * @param source  The source.
+	 * @param input   A boolean that indicates to write input or output values.
+	 * @param block   The block that describes the layout.
+	 * @throws IOException If an IO error occurs.
+	 */
+	private static void write(FileChannel channel, PatternSource source, boolean input, Block block)
+		throws IOException {
+		int size = source.size();
+		int rowBytes = block.rowSize * block.precision.getBytes();
+		int chunkRows = Math.max(1, CHUNK_BYTES / Math.max(1, rowBytes));
+		Block chunk = new Block(chunkRows, block.rowSize, block.precision);
+		ByteBuffer buffer = ByteBuffer.allocateDirect(chunkRows * rowBytes);
+		chunk.setSegment(0, buffer);
+		for (int start = 0; start < size; start += chunkRows) {
+			int rows = Math.min(chunkRows, size - start);
+			for (int row = 0; row < rows; row++) {
+				Pattern pattern = source.get(start + row);
+				chunk.write(row, (input ? pattern.getInputValues() : pattern.getOutputValues()));
+			}
+			buffer.clear();
+			buffer.limit(rows * rowBytes);
+			writeFully(channel, buffer);
+		}
+		long position = channel.position();
+		writeFully(channel, ByteBuffer.allocate((int) (align(position) - position)));
+	}
+
+	/**
+	 * Align a position to 8 bytes.
+	 *
+	 * @param position The position.
+	 * @return The aligned position.
+	 */
+	private static long align(long position) {
+		return (position + 7) / 8 * 8;
+	}
+
+	/**
+	 * Return the input size of the source, from its first pattern.
+	 *
+	 * @param source The source.
+	 * @return The input size.
+	 */
+	private static int getInputSize(PatternSource source) {
+		return (source.isEmpty() ? 0 : source.get(0).getInputValues().length);
+	}
+
+	/**
+	 * Return the output size of the source, from its first pattern.
+	 *
+	 * @param source The source.
+	 * @return The output size.
+	 */
+	private static int getOutputSize(PatternSource source) {
+		return (source.isEmpty() ? 0 : source.get(0).getOutputValues().length);
+	}
+
+	/**
+	 * Write the remaining bytes of the buffer to the channel.
+	 *
+	 * @param channel The channel.
+	 * @param buffer  The buffer.
+	 * @throws IOException If an IO error occurs.
+	 */
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	/** Number of patterns. */
+	private int size;
+	/** Input size. */
+	private int inputSize;
+	/** Output size. */
+	private int outputSize;
+	/** Block of input values. */
+	private Block inputs;
+	/** Block of output values. */
+	private Block outputs;
+	/** The description. */
+	private String description;
+	/** Match function, default is match category. */
+	private Matcher matcher = new CategoryMatcher();
+	/** A boolean that indicates whether values can be written, until shared. */
+	private boolean writable = false;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param size            Number of patterns.
+	 * @param inputSize       Input size.
+	 * @param outputSize      Output size.
+	 * @param inputPrecision  Precision of input values.
+	 * @param outputPrecision Precision of output values.
+	 */
+	private PackedPatternSource(
+		int size,
+		int inputSize,
+		int outputSize,
+		Precision inputPrecision,
+		Precision outputPrecision) {
+		super();
+		this.size = size;
+		this.inputSize = inputSize;
+		this.outputSize = outputSize;
+		this.inputs = new Block(size, inputSize, inputPrecision);
+		this.outputs = new Block(size, outputSize, outputPrecision);
+	}
+
+	/**
+	 * Check that values can be written, the source was created in memory and not
+	 * yet cloned.
+	 */
+	private void checkWritable() {
+		if (!writable) {
+			throw new IllegalStateException("Packed values are read only once opened or shared");
+		}
+	}
+
+	/**
+	 * Release the packed values, the source becomes empty.
+	 */
+	@Override
+	public void clear() {
+		size = 0;
+		inputs = new Block(0, inputSize, inputs.precision);
+		outputs = new Block(0, outputSize, outputs.precision);
+	}
+
+	/**
+	 * Return a clone that shares the packed values. Once shared, the values can no
+	 * longer be written, neither through this source nor through the clone.
+	 */
+	@Override
+	public PatternSource clone() {
+		writable = false;
+		PackedPatternSource source = new PackedPatternSource(
+			size,
+			inputSize,
+			outputSize,
+			inputs.precision,
+			outputs.precision);
+		source.inputs = this.inputs;
+		source.outputs = this.outputs;
+		source.description = this.description;
+		source.matcher = this.matcher;
+		return source;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Pattern get(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+		return new PackedPattern(index);
+	}
+
+	/**
+	 * @return The description.
+	 */
+	@Override
+	public String getDescription() {
+		return description;
+	}
+
+	/**
+	 * Return the input size.
+	 *
+	 * @return The input size.
+	 */
+	public int getInputSize() {
+		return inputSize;
+	}
+
+	/**
+	 * @return The match function.
+	 */
+	@Override
+	public Matcher getMatch() {
+		return matcher;
+	}
+
+	/**
+	 * Return the output size.
+	 *
+	 * @return The output size.
+	 */
+	public int getOutputSize() {
+		return outputSize;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Read the input values of a pattern without allocating.
+	 *
+	 * @param index       The index of the pattern.
+	 * @param inputValues The vector where to decode the input values.
+	 */
+	public void readInputValues(int index, double[] inputValues) {
+		inputs.read(index, inputValues);
+	}
+
+	/**
+	 * Read the output values of a pattern without allocating.
+	 *
+	 * @param index        The index of the pattern.
+	 * @param outputValues The vector where to decode the output values.
+	 */
+	public void readOutputValues(int index, double[] outputValues) {
+		outputs.read(index, outputValues);
+	}
+
+	/**
+	 * Write the input values of a pattern of a source created in memory and not
+	 * yet cloned.
+	 *
+	 * @param index       The index of the pattern.
+	 * @param inputValues The input values.
+	 */
+	public void writeInputValues(int index, double[] inputValues) {
+		checkWritable();
+		inputs.write(index, inputValues);
+	}
+
+	/**
+	 * Write the output values of a pattern of a source created in memory and not
+	 * yet cloned.
+	 *
+	 * @param index        The index of the pattern.
+	 * @param outputValues The output values.
+	 */
+	public void writeOutputValues(int index, double[] outputValues) {
+		checkWritable();
+		outputs.write(index, outputValues);
+	}
+
+	/**
+	 * @param description The description.
+	 */
+	@Override
+	public void setDescription(String description) {
+		this.description = description;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int size() {
+		return size;
+	}
+}
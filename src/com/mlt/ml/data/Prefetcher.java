@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2018 Miquel Sas
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mlt.ml.data;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Prepares batches of patterns of a source on background producer threads, so
+ * that the threads that train the network do not wait for patterns that are
+ * costly to build, like lazily normalized images or patterns read from a
+ * database. Batches are submitted as ranges of an array of pattern indexes,
+ * queued in a bounded queue of pending batches, and taken in the order they
+ * were submitted. Producers build the input and output values of the patterns,
+ * and when an augmenter is set, they also apply it to the input values.
+ *
+ * @author Miquel Sas
+ */
+public class Prefetcher {
+
+	/**
+	 * A prepared batch, a range of positions in the array of indexes.
+	 */
+	public static class Batch {
+		/** Start position in the indexes. */
+		private int start;
+		/** Patterns by position minus start. */
+		private Pattern[] patterns;
+
+		/**
+		 * Constructor.
+		 * 
+		 * @param start The start position in the indexes.
+		 * @param count The number of patterns.
+		 */
+		private Batch(int start, int count) {
+			this.start = start;
+			this.patterns = new Pattern[count];
+		}
+
+		/**
+		 * @return The number of patterns.
+		 */
+		public int getCount() {
+			return patterns.length;
+		}
+
+		/**
+		 * Return the pattern at a position of the array of indexes.
+		 * 
+		 * @param position The position, from start to start plus count.
+		 * @return The pattern.
+		 */
+		public Pattern getPattern(int position) {
+			return patterns[position - start];
+		}
+
+		/**
+		 * @return The start position in the indexes.
+		 */
+		public int getStart() {
+			return start;
+		}
+	}
+
+	/** Thread sequence for names. */
+	private static final AtomicInteger sequence = new AtomicInteger();
+
+	/** Pattern source. */
+	private PatternSource source;
+	/** Optional augmenter. */
+	private Augmenter augmenter;
+	/** Bounded queue of pending batches, in submission order. */
+	private ArrayBlockingQueue<Future<Batch>> queue;
+	/** Producers, whose threads end when idle. */
+	private ThreadPoolExecutor producers;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param source  The pattern source.
+	 * @param depth   The maximum number of batches pending to take.
+	 * @param threads The number of producer threads.
+	 */
+	public Prefetcher(PatternSource source, int depth, int threads) {
+		if (depth < 1) {
+			throw new IllegalArgumentException("Invalid depth " + depth);
+		}
+		if (threads < 1) {
+			throw new IllegalArgumentException("Invalid number of threads " + threads);
+		}
+		this.source = source;
+		this.queue = new ArrayBlockingQueue<>(depth);
+		this.producers = new ThreadPoolExecutor(
+			threads,
+			threads,
+			30,
+			TimeUnit.SECONDS,
+			new LinkedBlockingQueue<>(),
+			runnable -> {
+				Thread thread = new Thread(runnable, "PREFETCH-" + sequence.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+		this.producers.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Cancel the pending batches, for instance when an epoch is interrupted.
+	 */
+	public void clear() {
+		Future<Batch> future;
+		while ((future = queue.poll()) != null) {
+			future.cancel(false);
+		}
+	}
+
+	/**
+	 * @return A boolean indicating whether the queue of pending batches is full.
+	 */
+	public boolean isFull() {
+		return queue.remainingCapacity() == 0;
+	}
+
+	/**
+	 * Prepare the batch.
+	 * 
+	 * @param indexes The indexes.
+	 * @param start   The start position.
+	 * @param count   The number of patterns.
+	 * @return The batch.
+	 */
+	private Batch prepare(int[] indexes, int start, int count) {
+		Batch batch = new Batch(start, count);
+		for (int i = 0; i < count; i++) {
+			Pattern pattern = source.get(indexes[start + i]);
+			if (augmenter != null) {
+				pattern = augmenter.augment(pattern, ThreadLocalRandom.current());
+			} else {
+				/* Build the values here, not lazily on the training thread. */
+				DefaultPattern prepared =
+					new DefaultPattern(pattern.getInputValues(), pattern.getOutputValues());
+				prepared.setLabel(pattern.getLabel());
+				pattern = prepared;
+			}
+			batch.patterns[i] = pattern;
+		}
+		return batch;
+	}
+
+	/**
+	 * @param augmenter The augmenter applied to the input values, or null.
+	 */
+	public void setAugmenter(Augmenter augmenter) {
+		this.augmenter = augmenter;
+	}
+
+	/**
+	 * Stop the producers, cancelling the pending batches.
+	 */
+	public void shutdown() {
+		clear();
+		producers.shutdownNow();
+	}
+
+	/**
+	 * Submit a range of positions of the indexes to prepare in the background. The
+	 * indexes of the range must not be modified until the batch is taken. Blocks
+	 * while the queue of pending batches is full.
+	 * 
+	 * @param indexes The indexes of the patterns.
+	 * @param start   The start position.
+	 * @param count   The number of patterns.
+	 * @throws InterruptedException If interrupted while waiting.
+	 */
+	public void submit(int[] indexes, int start, int count) throws InterruptedException {
+		queue.put(producers.submit(() -> prepare(indexes, start, count)));
+	}
+
+	/**
+	 * Take the next batch in submission order, waiting for it if it is not yet
+	 * prepared.
+	 * 
+	 * @return The batch.
+	 * @throws Exception If the producer failed or the wait was interrupted.
+	 */
+	public Batch take() throws Exception {
+		Future<Batch> future = queue.poll();
+		if (future == null) {
+			throw new IllegalStateException("No batch submitted");
+		}
+		return future.get();
+	}
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2018 Miquel Sas
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mlt.ml.data.augment;
+
+import java.util.Random;
+
+import com.mlt.ml.data.Augmenter;
+
+/**
+ * Applies a list of augmenters in sequence.
+ *
+ * @author Miquel Sas
+ */
+public class AugmenterChain implements Augmenter {
+
+	/** Augmenters. */
+	private Augmenter[] augmenters;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param augmenters The augmenters, applied in order.
+	 */
+	public AugmenterChain(Augmenter... augmenters) {
+		super();
+		this.augmenters = augmenters;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public double[] augment(double[] inputValues, Random random) {
+		double[] values = inputValues;
+		for (Augmenter augmenter : augmenters) {
+			values = augmenter.augment(values, random);
+		}
+		return values;
+	}
+}
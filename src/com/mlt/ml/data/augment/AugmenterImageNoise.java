@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2018 Miquel Sas
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mlt.ml.data.augment;
+
+import java.util.Random;
+
+import com.mlt.ml.data.Augmenter;
+
+/**
+ * Adds gaussian noise to the pixels of an image, clamped to the range of
+ * normalized values.
+ *
+ * @author Miquel Sas
+ */
+public class AugmenterImageNoise implements Augmenter {
+
+	/** Standard deviation of the noise. */
+	private double sigma;
+	/** Minimum value. */
+	private double minimum;
+	/** Maximum value. */
+	private double maximum;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param sigma   The standard deviation of the noise.
+	 * @param minimum The minimum normalized value.
+	 * @param maximum The maximum normalized value.
+	 */
+	public AugmenterImageNoise(double sigma, double minimum, double maximum) {
+		super();
+		if (sigma < 0) {
+			throw new IllegalArgumentException("Invalid sigma: " + sigma);
+		}
+		if (minimum >= maximum) {
+			throw new IllegalArgumentException("Invalid range: " + minimum + ", " + maximum);
+		}
+		this.sigma = sigma;
+		this.minimum = minimum;
+		this.maximum = maximum;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public double[] augment(double[] inputValues, Random random) {
+		double[] values = new double[inputValues.length];
+		for (int i = 0; i < values.length; i++) {
+			double value = inputValues[i] + sigma * random.nextGaussian();
+			values[i] = Math.max(minimum, Math.min(maximum, value));
+		}
+		return values;
+	}
+}
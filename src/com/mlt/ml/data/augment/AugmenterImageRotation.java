@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2018 Miquel Sas
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mlt.ml.data.augment;
+
+import java.util.Random;
+
+import com.mlt.ml.data.Augmenter;
+
+/**
+ * Rotates an image, stored by rows, a random angle around its center, with
+ * bilinear interpolation. Pixels that fall outside the source image take the
+ * background value.
+ *
+ * @author Miquel Sas
+ */
+public class AugmenterImageRotation implements Augmenter {
+
+	/** Number of rows. */
+	private int rows;
+	/** Number of columns. */
+	private int columns;
+	/** Maximum angle in degrees, in each direction. */
+	private double maxDegrees;
+	/** Background value. */
+	private double background;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param rows       The number of rows.
+	 * @param columns    The number of columns.
+	 * @param maxDegrees The maximum angle in degrees, in each direction.
+	 * @param background The background value.
+	 */
+	public AugmenterImageRotation(int rows, int columns, double maxDegrees, double background) {
+		super();
+		if (maxDegrees < 0 || maxDegrees > 180) {
+			throw new IllegalArgumentException("Invalid maximum angle: " + maxDegrees);
+		}
+		this.rows = rows;
+		this.columns = columns;
+		this.maxDegrees = maxDegrees;
+		this.background = background;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public double[] augment(double[] inputValues, Random random) {
+		if (inputValues.length != rows * columns) {
+			throw new IllegalArgumentException("Invalid image size: " + inputValues.length);
+		}
+		double angle = Math.toRadians((2 * random.nextDouble() - 1) * maxDegrees);
+		double cos = Math.cos(angle);
+		double sin = Math.sin(angle);
+		double centerRow = (rows - 1) / 2.0;
+		double centerColumn = (columns - 1) / 2.0;
+		double[] values = new double[inputValues.length];
+		for (int r = 0; r < rows; r++) {
+			double y = r - centerRow;
+			for (int c = 0; c < columns; c++) {
+				double x = c - centerColumn;
+				/* Inverse rotation of the destination pixel into the source. */
+				double sourceColumn = cos * x + sin * y + centerColumn;
+				double sourceRow = -sin * x + cos * y + centerRow;
+				values[r * columns + c] = interpolate(inputValues, sourceRow, sourceColumn);
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * Return the pixel value at a source position, interpolated from the four
+	 * surrounding pixels.
+	 * 
+	 * @param inputValues The source image.
+	 * @param row         The row.
+	 * @param column      The column.
+	 * @return The interpolated value.
+	 */
+	private double interpolate(double[] inputValues, double row, double column) {
+		int r0 = (int) Math.floor(row);
+		int c0 = (int) Math.floor(column);
+		double dr = row - r0;
+		double dc = column - c0;
+		double v00 = pixel(inputValues, r0, c0);
+		double v01 = pixel(inputValues, r0, c0 + 1);
+		double v10 = pixel(inputValues, r0 + 1, c0);
+		double v11 = pixel(inputValues, r0 + 1, c0 + 1);
+		double top = v00 + (v01 - v00) * dc;
+		double bottom = v10 + (v11 - v10) * dc;
+		return top + (bottom - top) * dr;
+	}
+
+	/**
+	 * Return the pixel value or the background if out of the image.
+	 * 
+	 * @param inputValues The source image.
+	 * @param row         The row.
+	 * @param column      The column.
+	 * @return The value.
+	 */
+	private double pixel(double[] inputValues, int row, int column) {
+		if (row < 0 || row >= rows || column < 0 || column >= columns) {
+			return background;
+		}
+		return inputValues[row * columns + column];
+	}
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2018 Miquel Sas
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mlt.ml.data.augment;
+
+import java.util.Random;
+
+import com.mlt.ml.data.Augmenter;
+
+/**
+ * Shifts an image, stored by rows, a random number of pixels in each direction,
+ * filling the uncovered pixels with the background value.
+ *
+ * @author Miquel Sas
+ */
+public class AugmenterImageShift implements Augmenter {
+
+	/** Number of rows. */
+	private int rows;
+	/** Number of columns. */
+	private int columns;
+	/** Maximum shift in pixels. */
+	private int maxShift;
+	/** Background value. */
+	private double background;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param rows       The number of rows.
+	 * @param columns    The number of columns.
+	 * @param maxShift   The maximum shift in pixels, in each direction.
+	 * @param background The background value.
+	 */
+	public AugmenterImageShift(int rows, int columns, int maxShift, double background) {
+		super();
+		if (maxShift < 0 || maxShift >= Math.min(rows, columns)) {
+			throw new IllegalArgumentException("Invalid maximum shift: " + maxShift);
+		}
+		this.rows = rows;
+		this.columns = columns;
+		this.maxShift = maxShift;
+		this.background = background;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public double[] augment(double[] inputValues, Random random) {
+		if (inputValues.length != rows * columns) {
+			throw new IllegalArgumentException("Invalid image size: " + inputValues.length);
+		}
+		int shiftRows = random.nextInt(2 * maxShift + 1) - maxShift;
+		int shiftColumns = random.nextInt(2 * maxShift + 1) - maxShift;
+		double[] values = new double[inputValues.length];
+		for (int r = 0; r < rows; r++) {
+			int sourceRow = r - shiftRows;
+			for (int c = 0; c < columns; c++) {
+				int sourceColumn = c - shiftColumns;
+				if (sourceRow < 0 || sourceRow >= rows || sourceColumn < 0 || sourceColumn >= columns) {
+					values[r * columns + c] = background;
+				} else {
+					values[r * columns + c] = inputValues[sourceRow * columns + sourceColumn];
+				}
+			}
+		}
+		return values;
+	}
+}
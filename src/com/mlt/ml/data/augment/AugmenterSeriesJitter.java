@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2018 Miquel Sas
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mlt.ml.data.augment;
+
+import java.util.Random;
+
+import com.mlt.ml.data.Augmenter;
+
+/**
+ * Jitter of a window of a time series, like prices: scales the whole window by a
+ * random factor around one and adds gaussian noise to each value.
+ *
+ * @author Miquel Sas
+ */
+public class AugmenterSeriesJitter implements Augmenter {
+
+	/** Standard deviation of the noise added to each value. */
+	private double sigma;
+	/** Standard deviation of the scale factor of the window. */
+	private double scaleSigma;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param sigma      The standard deviation of the noise added to each value.
+	 * @param scaleSigma The standard deviation of the scale factor of the window.
+	 */
+	public AugmenterSeriesJitter(double sigma, double scaleSigma) {
+		super();
+		if (sigma < 0) {
+			throw new IllegalArgumentException("Invalid sigma: " + sigma);
+		}
+		if (scaleSigma < 0) {
+			throw new IllegalArgumentException("Invalid scale sigma: " + scaleSigma);
+		}
+		this.sigma = sigma;
+		this.scaleSigma = scaleSigma;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public double[] augment(double[] inputValues, Random random) {
+		double scale = 1 + scaleSigma * random.nextGaussian();
+		double[] values = new double[inputValues.length];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = inputValues[i] * scale + sigma * random.nextGaussian();
+		}
+		return values;
+	}
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2018 Miquel Sas
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mlt.ml.data.augment;
+
+import java.util.Random;
+
+import com.mlt.ml.data.Augmenter;
+
+/**
+ * Time warp of a window of a time series, stored by steps with the values of
+ * all channels of a step together. The middle of the window is moved a random
+ * fraction of its half length, the steps on each side are stretched or
+ * compressed linearly so that the first and last steps stay in place, and the
+ * values are linearly interpolated.
+ *
+ * @author Miquel Sas
+ */
+public class AugmenterSeriesTimeWarp implements Augmenter {
+
+	/** Number of channels or values per step. */
+	private int channels;
+	/** Maximum fraction of displacement of the middle step. */
+	private double maxWarp;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param channels The number of channels or values per step.
+	 * @param maxWarp  The maximum fraction of displacement of the middle step,
+	 *                 less than one.
+	 */
+	public AugmenterSeriesTimeWarp(int channels, double maxWarp) {
+		super();
+		if (channels < 1) {
+			throw new IllegalArgumentException("Invalid number of channels: " + channels);
+		}
+		if (maxWarp < 0 || maxWarp >= 1) {
+			throw new IllegalArgumentException("Invalid maximum warp: " + maxWarp);
+		}
+		this.channels = channels;
+		this.maxWarp = maxWarp;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public double[] augment(double[] inputValues, Random random) {
+		if (inputValues.length % channels != 0) {
+			throw new IllegalArgumentException("Invalid window size: " + inputValues.length);
+		}
+		int steps = inputValues.length / channels;
+		double[] values = new double[inputValues.length];
+		if (steps < 3) {
+			System.arraycopy(inputValues, 0, values, 0, values.length);
+			return values;
+		}
+		double last = steps - 1;
+		double middle = last / 2;
+		double warped = middle * (1 + (2 * random.nextDouble() - 1) * maxWarp);
+		for (int t = 0; t < steps; t++) {
+			double source;
+			if (t <= middle) {
+				source = t * warped / middle;
+			} else {
+				source = warped + (t - middle) * (last - warped) / (last - middle);
+			}
+			int t0 = Math.min((int) source, steps - 2);
+			double dt = source - t0;
+			for (int c = 0; c < channels; c++) {
+				double v0 = inputValues[t0 * channels + c];
+				double v1 = inputValues[(t0 + 1) * channels + c];
+				values[t * channels + c] = v0 + (v1 - v0) * dt;
+			}
+		}
+		return values;
+	}
+}
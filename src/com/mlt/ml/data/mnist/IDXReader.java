@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2018 Miquel Sas
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.mlt.ml.data.mnist;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.mlt.ml.data.PackedPatternSource;
+import com.mlt.ml.data.PackedPatternSource.Precision;
+import com.mlt.ml.function.RangeFunction;
+
+/**
+ * Reads number images in MNIST DATABASE (IDX) format directly into a packed
+ * pattern source. Both files are memory mapped and their headers validated, and
+ * the images are decoded concurrently by ranges into a single block of floats,
+ * normalized as <em>NumberImagePattern</em> does, without creating an object
+ * per image.
+ * 
+ * @author Miquel Sas
+ */
+public class IDXReader {
+
+	/** Magic number of an IDX file of unsigned bytes with three dimensions. */
+	private static final int MAGIC_IMAGES = 0x00000803;
+	/** Magic number of an IDX file of unsigned bytes with one dimension. */
+	private static final int MAGIC_LABELS = 0x00000801;
+	/** Size of the header of the image file. */
+	private static final int HEADER_IMAGES = 16;
+	/** Size of the header of the label file. */
+	private static final int HEADER_LABELS = 8;
+	/** Number of categories. */
+	private static final int CATEGORIES = 10;
+
+	/** Image file. */
+	private File imageFile;
+	/** Label file. */
+	private File labelFile;
+
+	/**
+	 * Constructor assigning the files.
+	 * 
+	 * @param labelFile The label file.
+	 * @param imageFile The image file.
+	 */
+	public IDXReader(File labelFile, File imageFile) {
+		super();
+		this.labelFile = labelFile;
+		this.imageFile = imageFile;
+	}
+
+	/**
+	 * Decode a range of images and labels.
+	 * 
+	 * @param images    The mapped image file.
+	 * @param labels    The mapped label file.
+	 * @param source    The destination source.
+	 * @param imageSize The number of pixels of an image.
+	 * @param normalLow The normalized low value, 0 or -1 if bipolar.
+	 * @param outputLow The output low value, 0 or -1 if bipolar.
+	 * @param start     The first image.
+	 * @param end       The last image, included.
+	 */
+	private void decode(
+		ByteBuffer images,
+		ByteBuffer labels,
+		PackedPatternSource source,
+		int imageSize,
+		double normalLow,
+		double outputLow,
+		int start,
+		int end) {
+		ByteBuffer view = images.duplicate();
+		view.position(HEADER_IMAGES + start * imageSize);
+		byte[] bytes = new byte[imageSize];
+		double[] inputValues = new double[imageSize];
+		double[] outputValues = new double[CATEGORIES];
+		for (int i = start; i <= end; i++) {
+
+			/* Pixels are inverted, and normalized by the minimum and maximum. */
+			view.get(bytes);
+			int minimum = Integer.MAX_VALUE;
+			int maximum = Integer.MIN_VALUE;
+			for (int p = 0; p < imageSize; p++) {
+				int pixel = 255 - (bytes[p] & 0xff);
+				minimum = Math.min(minimum, pixel);
+				maximum = Math.max(maximum, pixel);
+			}
+			double scale = (maximum > minimum ? (1 - normalLow) / (maximum - minimum) : 0);
+			double shift = normalLow + (255 - minimum) * scale;
+			for (int p = 0; p < imageSize; p++) {
+				inputValues[p] = shift - (bytes[p] & 0xff) * scale;
+			}
+			source.writeInputValues(i, inputValues);
+
+			/* One hot output. */
+			int number = labels.get(HEADER_LABELS + i) & 0xff;
+			if (number >= CATEGORIES) {
+				throw new IllegalStateException("Invalid label " + number + " of image " + i);
+			}
+			for (int c = 0; c < CATEGORIES; c++) {
+				outputValues[c] = (c == number ? 1 : outputLow);
+			}
+			source.writeOutputValues(i, outputValues);
+		}
+	}
+
+	/**
+	 * Map a file read only.
+	 * 
+	 * @param file The file.
+	 * @return The mapped buffer, big-endian.
+	 * @throws IOException If an IO error occurs.
+	 */
+	private ByteBuffer map(File file) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+			FileChannel channel = raf.getChannel()) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("File too large: " + file);
+			}
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+	}
+
+	/**
+	 * Read the images into a packed source with single precision inputs.
+	 * 
+	 * @param bipolarInput  A boolean that indicates if input is bipolar.
+	 * @param bipolarOutput A boolean that indicates if output is bipolar.
+	 * @return The packed source.
+	 * @throws IOException If an IO error occurs or the files are not valid.
+	 */
+	public PackedPatternSource read(boolean bipolarInput, boolean bipolarOutput) throws IOException {
+
+		ByteBuffer images = map(imageFile);
+		ByteBuffer labels = map(labelFile);
+
+		/* Validate headers and sizes. */
+		if (images.limit() < HEADER_IMAGES || images.getInt(0) != MAGIC_IMAGES) {
+			throw new IOException("Not an IDX image file: " + imageFile);
+		}
+		if (labels.limit() < HEADER_LABELS || labels.getInt(0) != MAGIC_LABELS) {
+			throw new IOException("Not an IDX label file: " + labelFile);
+		}
+		int numImages = images.getInt(4);
+		int rows = images.getInt(8);
+		int cols = images.getInt(12);
+		int numLabels = labels.getInt(4);
+		if (numImages != numLabels) {
+			throw new IOException(
+				"The number of images " + numImages + " has to be equals to the number of labels " + numLabels);
+		}
+		if (numImages < 0 || rows <= 0 || cols <= 0) {
+			throw new IOException("Invalid dimensions of the image file: " + imageFile);
+		}
+		int imageSize = rows * cols;
+		if (images.limit() != HEADER_IMAGES + (long) numImages * imageSize) {
+			throw new IOException("Invalid size of the image file: " + imageFile);
+		}
+		if (labels.limit() != HEADER_LABELS + (long) numLabels) {
+			throw new IOException("Invalid size of the label file: " + labelFile);
+		}
+
+		/* Decode concurrently. */
+		PackedPatternSource source = PackedPatternSource.create(
+			numImages,
+			imageSize,
+			CATEGORIES,
+			Precision.FLOAT32,
+			Precision.FLOAT32);
+		double normalLow = (bipolarInput ? -1 : 0);
+		double outputLow = (bipolarOutput ? -1 : 0);
+		RangeFunction function = new RangeFunction(numImages, imageSize, (start, end) -> {
+			decode(images, labels, source, imageSize, normalLow, outputLow, start, end);
+		});
+		function.process();
+		return source;
+	}
+}
@@ -20,6 +20,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import com.mlt.ml.data.ListPatternSource;
+import com.mlt.ml.data.PackedPatternSource;
 import com.mlt.ml.data.Pattern;
 import com.mlt.ml.data.PatternSource;
 import com.mlt.util.Files;
@@ -82,6 +83,47 @@ public class MNIST {
 		return getImages(TRAIN_LABELS, TRAIN_IMAGES);
 	}
 
+	/**
+	 * Returns the packed pattern source read directly from the labels and images files, without creating the images.
+	 * 
+	 * @param labelsFileName The labels file name.
+	 * @param imagesFileName The images file name.
+	 * @param bipolarInput   A boolean that indicates if input is bipolar.
+	 * @param bipolarOutput  A boolean that indicates if output is bipolar.
+	 * @return The packed pattern source.
+	 * @throws IOException If such an error occurs.
+	 */
+	public static PackedPatternSource getPackedSource(
+		String labelsFileName,
+		String imagesFileName,
+		boolean bipolarInput,
+		boolean bipolarOutput) throws IOException {
+		File fileLabel = Files.getFileFromClassPathEntries(labelsFileName);
+		File fileImage = Files.getFileFromClassPathEntries(imagesFileName);
+		IDXReader reader = new IDXReader(fileLabel, fileImage);
+		return reader.read(bipolarInput, bipolarOutput);
+	}
+
+	/**
+	 * Returns the packed pattern source of test images.
+	 * 
+	 * @return The packed pattern source.
+	 * @throws IOException If such an error occurs.
+	 */
+	public static PackedPatternSource getPackedSourceTest() throws IOException {
+		return getPackedSource(TEST_LABELS, TEST_IMAGES, false, false);
+	}
+
+	/**
+	 * Returns the packed pattern source of train images.
+	 * 
+	 * @return The packed pattern source.
+	 * @throws IOException If such an error occurs.
+	 */
+	public static PackedPatternSource getPackedSourceTrain() throws IOException {
+		return getPackedSource(TRAIN_LABELS, TRAIN_IMAGES, false, false);
+	}
+
 	/**
 	 * Returns the list of patterns given the list of images.
 	 * 
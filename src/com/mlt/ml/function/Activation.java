@@ -79,7 +79,20 @@ public interface Activation {
 	 * @param triggers The trigger (weighted sum plus bias) values.
 	 * @return The activation outputs .
 	 */
-	double[] activations(double[] triggers);
+	default double[] activations(double[] triggers) {
+		double[] outputs = new double[triggers.length];
+		activations(triggers, outputs);
+		return outputs;
+	}
+
+	/**
+	 * Calculates the output values of the function given the trigger values,
+	 * without allocating. The outputs vector can be the triggers vector itself.
+	 * 
+	 * @param triggers The trigger (weighted sum plus bias) values.
+	 * @param outputs  The vector where the activation outputs are stored.
+	 */
+	void activations(double[] triggers, double[] outputs);
 
 	/**
 	 * Calculates the first derivatives of the function, given the outputs.
@@ -88,5 +101,19 @@ public interface Activation {
 	 *                    <i>activations</i>.
 	 * @return The derivatives.
 	 */
-	double[] derivatives(double[] outputs);
+	default double[] derivatives(double[] outputs) {
+		double[] derivatives = new double[outputs.length];
+		derivatives(outputs, derivatives);
+		return derivatives;
+	}
+
+	/**
+	 * Calculates the first derivatives of the function, given the outputs,
+	 * without allocating.
+	 * 
+	 * @param outputs     The outputs obtained applying the triggers to
+	 *                    <i>activations</i>.
+	 * @param derivatives The vector where the derivatives are stored.
+	 */
+	void derivatives(double[] outputs, double[] derivatives);
 }
@@ -29,4 +29,17 @@ public interface Collector<T> {
 	 * @return The result vector.
 	 */
 	T collect(Collection<T> objects);
+
+	/**
+	 * Apply the function to a collection of objects, storing the result in the
+	 * argument result object if the function supports it, thus avoiding to create
+	 * a new one. By default a new result object is created.
+	 * 
+	 * @param objects The collection of objects.
+	 * @param result  The object where the result should be stored.
+	 * @return The result object, either the argument result or a new one.
+	 */
+	default T collect(Collection<T> objects, T result) {
+		return collect(objects);
+	}
 }
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2018 Miquel Sas
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mlt.ml.function;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+/**
+ * Holder of the fork join pool used to execute the network math, by default a
+ * dedicated pool so that it does not compete with other tasks that use the
+ * common pool. Also holds the minimum work that makes a parallel execution pay
+ * its scheduling overhead.
+ *
+ * @author Miquel Sas
+ */
+public class ComputePool {
+
+	/**
+	 * Thread of the dedicated pool, named and daemon.
+	 */
+	static class Worker extends ForkJoinWorkerThread {
+		protected Worker(ForkJoinPool pool) {
+			super(pool);
+			setName("COMPUTE-" + getPoolIndex());
+			setDaemon(true);
+		}
+	}
+
+	/** The pool. */
+	private static ForkJoinPool pool;
+	/**
+	 * Minimum work, as a number of elementary operations like multiply-add, of a
+	 * task executed in parallel.
+	 */
+	private static int minimumWork = 16384;
+
+	/**
+	 * Return the pool, creating the dedicated pool if none has been set.
+	 * 
+	 * @return The pool.
+	 */
+	public static synchronized ForkJoinPool get() {
+		if (pool == null) {
+			int parallelism = Runtime.getRuntime().availableProcessors();
+			pool = new ForkJoinPool(parallelism, p -> new Worker(p), null, false);
+		}
+		return pool;
+	}
+
+	/**
+	 * Return the minimum work of a task executed in parallel.
+	 * 
+	 * @return The minimum work.
+	 */
+	public static int getMinimumWork() {
+		return minimumWork;
+	}
+
+	/**
+	 * Return the parallelism of the pool.
+	 * 
+	 * @return The parallelism.
+	 */
+	public static int getParallelism() {
+		return get().getParallelism();
+	}
+
+	/**
+	 * Set the pool to use, for instance the common pool or a pool with less
+	 * threads than available processors.
+	 * 
+	 * @param pool The pool.
+	 */
+	public static synchronized void set(ForkJoinPool pool) {
+		if (pool == null) {
+			throw new IllegalArgumentException("Pool is null");
+		}
+		ComputePool.pool = pool;
+	}
+
+	/**
+	 * Set the minimum work of a task executed in parallel.
+	 * 
+	 * @param minimumWork The minimum work.
+	 */
+	public static void setMinimumWork(int minimumWork) {
+		if (minimumWork < 1) {
+			throw new IllegalArgumentException("Invalid minimum work: " + minimumWork);
+		}
+		ComputePool.minimumWork = minimumWork;
+	}
+}
@@ -19,32 +19,65 @@ package com.mlt.ml.function;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ForkJoinPool;
 import java.util.function.Consumer;
 
 /**
  * Helper calculator to execute a consumer functions in parallel.
+ * <p>
+ * Indexes are grouped in ranges, as many as the estimated work allows given the
+ * minimum work of the compute pool, and each range is executed by a single
+ * task. If there is not work enough for two ranges, the function is executed
+ * sequentially.
  *
  * @author Miquel Sas
  */
 public class IndexFunction {
 	
-	/** List of callables. */
-	private List<IndexCall> functions;
+	/** List of callables, null if the function is executed sequentially. */
+	private List<RangeCall> functions;
 	/** Size. */
 	private int size;
+	/** Estimated work, number of elementary operations, per index. */
+	private int workPerIndex;
 	/** Function. */
 	private Consumer<Integer> function;
+	/** Parallel flag. */
+	private boolean parallel = true;
 
 	/**
+	 * Constructor without an estimation of the work, each index is considered
+	 * worth a parallel task.
+	 * 
 	 * @param size     The size or number of functions.
 	 * @param function The consumer function.
 	 */
 	public IndexFunction(int size, Consumer<Integer> function) {
+		this(size, ComputePool.getMinimumWork(), function);
+	}
+
+	/**
+	 * @param size         The size or number of functions.
+	 * @param workPerIndex The estimated work per index.
+	 * @param function     The consumer function.
+	 */
+	public IndexFunction(int size, int workPerIndex, Consumer<Integer> function) {
 		super();
 		this.size = size;
+		this.workPerIndex = workPerIndex;
 		this.function = function;
-		setParallel(true);
+		schedule();
+	}
+
+	/**
+	 * Process a range of indexes.
+	 * 
+	 * @param start The start index.
+	 * @param end   The end index.
+	 */
+	private void process(int start, int end) {
+		for (int index = start; index <= end; index++) {
+			function.accept(index);
+		}
 	}
 
 	/**
@@ -52,25 +85,48 @@ public class IndexFunction {
 	 */
 	public void process() {	
 		if (functions != null) {
-			ForkJoinPool.commonPool().invokeAll(functions);
+			ComputePool.get().invokeAll(functions);
 		} else {
-			for (int index = 0; index < size; index++) {
-				function.accept(index);
-			}
+			process(0, size - 1);
 		}
 	}
-	
+
 	/**
-	 * @param parallel A boolean.
+	 * Build the list of range calls, if the work is worth a parallel execution.
 	 */
-	public void setParallel(boolean parallel) {
+	private void schedule() {
 		functions = null;
-		if (!parallel) {
+		if (!parallel || size < 2) {
+			return;
+		}
+		long work = (long) size * (long) workPerIndex;
+		long tasks = work / ComputePool.getMinimumWork();
+		tasks = Math.min(tasks, Math.min(size, ComputePool.getParallelism()));
+		if (tasks < 2) {
 			return;
 		}
 		functions = new ArrayList<>();
-		for (int index = 0; index < size; index++) {
-			functions.add(new IndexCall(index, function));
+		List<Range> ranges = Range.getRanges(size, (int) tasks);
+		for (Range range : ranges) {
+			functions.add(new RangeCall(range, (start, end) -> process(start, end)));
+		}
+	}
+	
+	/**
+	 * @param parallel A boolean.
+	 */
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
+		schedule();
+	}
+
+	/**
+	 * @param workPerIndex The estimated work per index.
+	 */
+	public void setWorkPerIndex(int workPerIndex) {
+		if (this.workPerIndex != workPerIndex) {
+			this.workPerIndex = workPerIndex;
+			schedule();
 		}
 	}
 }
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2018 Miquel Sas
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mlt.ml.function;
+
+import com.mlt.util.Properties;
+
+/**
+ * Optimizer that updates in place a vector of parameters, for instance the
+ * weights of a node, given its gradients. An optimizer holds the state of one
+ * vector of parameters, thus each node has its own instance.
+ * <p>
+ * Gradients follow the convention of the network, they point to the direction
+ * that decreases the error, and parameters are updated adding the step. Ranges
+ * of the vector can be updated concurrently, after calling <em>step</em> once.
+ *
+ * @author Miquel Sas
+ */
+public interface Optimizer {
+
+	/**
+	 * Return an identification id of this optimizer.
+	 * 
+	 * @return The id.
+	 */
+	String getId();
+
+	/**
+	 * Initialize the state for a vector of parameters of the given size.
+	 * 
+	 * @param size The size of the vector of parameters.
+	 */
+	void initialize(int size);
+
+	/**
+	 * Restore the hyper-parameters and the state from the properties of the node.
+	 * 
+	 * @param properties The properties.
+	 */
+	void restore(Properties properties);
+
+	/**
+	 * Save the hyper-parameters and the state to the properties of the node.
+	 * 
+	 * @param properties The properties.
+	 */
+	void save(Properties properties);
+
+	/**
+	 * Set the scale applied to the learning rate, driven by the learning rate
+	 * schedules of the trainer. It is not saved.
+	 * 
+	 * @param scale The scale, one by default.
+	 */
+	void setLearningRateScale(double scale);
+
+	/**
+	 * Advance one step, before updating the ranges of the vector of parameters.
+	 */
+	void step();
+
+	/**
+	 * Update a range of the parameters given their gradients.
+	 * 
+	 * @param parameters The vector of parameters.
+	 * @param gradients  The vector of gradients.
+	 * @param offset     The offset of the range.
+	 * @param length     The length of the range.
+	 */
+	void update(double[] parameters, double[] gradients, int offset, int length);
+
+	/**
+	 * Update the kept parameters of a sparse row given their gradients. The state
+	 * is indexed by the position in the columns, thus the optimizer is initialized
+	 * with the number of kept parameters.
+	 * 
+	 * @param parameters The vector of parameters.
+	 * @param gradients  The vector of gradients.
+	 * @param offset     The offset of the row.
+	 * @param columns    The columns of the kept parameters, by rows.
+	 * @param start      The start position in the columns.
+	 * @param end        The end position in the columns, exclusive.
+	 */
+	void update(double[] parameters, double[] gradients, int offset, int[] columns, int start, int end);
+}
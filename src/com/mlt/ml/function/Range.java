@@ -28,23 +28,25 @@ import java.util.List;
 public class Range {
 
 	/**
+	 * Return a list of ranges of balanced sizes that cover the indexes, as many as
+	 * the module if there are enough indexes.
+	 * 
 	 * @param count  The number of indexes.
 	 * @param module The module to fraction count (available processors)
 	 * @return The list of ranges.
 	 */
 	public static List<Range> getRanges(int count, int module) {
 		List<Range> ranges = new ArrayList<>();
-		int indexes = (count > module ? count / module : 1);
+		int parts = Math.min(count, Math.max(module, 1));
+		if (parts <= 0) {
+			return ranges;
+		}
+		int indexes = count / parts;
+		int remainder = count % parts;
 		int start = 0;
-		while (true) {
-			int end = start + indexes - 1;
-			if (end >= count) {
-				end = count - 1;
-			}
+		for (int part = 0; part < parts; part++) {
+			int end = start + indexes - 1 + (part < remainder ? 1 : 0);
 			ranges.add(new Range(start, end));
-			if (end == count - 1) {
-				break;
-			}
 			start = end + 1;
 		}
 		return ranges;
@@ -19,32 +19,55 @@ package com.mlt.ml.function;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ForkJoinPool;
 import java.util.function.BiConsumer;
 
 /**
  * Helper calculator to execute a bi-consumer(int,int) functions in parallel.
+ * <p>
+ * The execution is cost-aware: given the estimated work per index, the number
+ * of ranges is limited so that each range has at least the minimum work of the
+ * compute pool, and if there is not work enough for two ranges the function is
+ * executed sequentially with a single call.
  *
  * @author Miquel Sas
  */
 public class RangeFunction {
 	
-	/** List of callables. */
+	/** List of callables, null if the function is executed sequentially. */
 	private List<RangeCall> functions;
 	/** Size. */
 	private int size;
+	/** Estimated work, number of elementary operations, per index. */
+	private int workPerIndex;
 	/** Function. */
 	private BiConsumer<Integer, Integer> function;
+	/** Parallel flag. */
+	private boolean parallel = true;
 
 	/**
+	 * Constructor without an estimation of the work, each index is considered
+	 * worth a parallel task.
+	 * 
 	 * @param size     The size or number of functions.
 	 * @param function The consumer function.
 	 */
 	public RangeFunction(int size, BiConsumer<Integer, Integer> function) {
+		this(size, ComputePool.getMinimumWork(), function);
+	}
+
+	/**
+	 * @param size         The size or number of functions.
+	 * @param workPerIndex The estimated work per index, for instance the input size
+	 *                     when each index is an output calculated as a weighted
+	 *                     sum of the inputs.
+	 * @param function     The consumer function.
+	 */
+	public RangeFunction(int size, int workPerIndex, BiConsumer<Integer, Integer> function) {
 		super();
 		this.size = size;
+		this.workPerIndex = workPerIndex;
 		this.function = function;
-		setParallel(true);
+		schedule();
 	}
 
 	/**
@@ -52,27 +75,51 @@ public class RangeFunction {
 	 */
 	public void process() {	
 		if (functions != null) {
-			ForkJoinPool.commonPool().invokeAll(functions);
-		} else {
-			for (int index = 0; index < size; index++) {
-				function.accept(index, index);
-			}
+			ComputePool.get().invokeAll(functions);
+		} else if (size > 0) {
+			function.accept(0, size - 1);
 		}
 	}
-	
+
 	/**
-	 * @param parallel A boolean.
+	 * Build the list of range calls, if the work is worth a parallel execution.
 	 */
-	public void setParallel(boolean parallel) {
+	private void schedule() {
 		functions = null;
-		if (!parallel) {
+		if (!parallel || size < 2) {
+			return;
+		}
+		long work = (long) size * (long) workPerIndex;
+		long tasks = work / ComputePool.getMinimumWork();
+		tasks = Math.min(tasks, Math.min(size, ComputePool.getParallelism()));
+		if (tasks < 2) {
 			return;
 		}
 		functions = new ArrayList<>();
-		int module = Runtime.getRuntime().availableProcessors();
-		List<Range> ranges = Range.getRanges(size, module);
+		List<Range> ranges = Range.getRanges(size, (int) tasks);
 		for (Range range : ranges) {
 			functions.add(new RangeCall(range, function));
 		}
 	}
+
+	/**
+	 * @param parallel A boolean.
+	 */
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
+		schedule();
+	}
+
+	/**
+	 * Set the estimated work per index, when it depends on the data processed, for
+	 * instance on the size of a batch.
+	 * 
+	 * @param workPerIndex The estimated work per index.
+	 */
+	public void setWorkPerIndex(int workPerIndex) {
+		if (this.workPerIndex != workPerIndex) {
+			this.workPerIndex = workPerIndex;
+			schedule();
+		}
+	}
 }
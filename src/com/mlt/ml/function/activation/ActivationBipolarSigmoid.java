@@ -45,28 +45,28 @@ public class ActivationBipolarSigmoid implements Activation {
 	 * {@inheritDoc}
 	 */
 	@Override
-	public double[] activations(double[] triggers) {
-		double[] outputs = new double[triggers.length];
+	public void activations(double[] triggers, double[] outputs) {
+		if (FastMath.isEnabled()) {
+			FastMath.bipolarSigmoid(triggers, outputs, sigma);
+			return;
+		}
 		double exp = 0;
 		for (int i = 0; i < triggers.length; i++) {
 			exp = Math.exp(-(sigma*triggers[i]));
 			outputs[i] = (1 - exp) / (1 + exp);
 		}
-		return outputs;
 	}
 
 	/**
 	 * {@inheritDoc}
 	 */
 	@Override
-	public double[] derivatives(double[] outputs) {
-		double[] derivatives = new double[outputs.length];
+	public void derivatives(double[] outputs, double[] derivatives) {
 		double out = 0;
 		double sig = sigma / 2;
 		for (int i = 0; i < outputs.length; i++) {
 			out = outputs[i];
 			derivatives[i] = sig * (1 + out) * (1 - out);
 		}
-		return derivatives;
 	}
 }
@@ -50,25 +50,21 @@ public class ActivationReLU implements Activation {
 	 * {@inheritDoc}
 	 */
 	@Override
-	public double[] activations(double[] triggers) {
-		double[] outputs = new double[triggers.length];
+	public void activations(double[] triggers, double[] outputs) {
 		for (int i = 0; i < triggers.length; i++) {
 			double trigger = triggers[i];
 			double output = (trigger <= 0 ? alpha * trigger : trigger);
 			outputs[i] = output;
 		}
-		return outputs;
 	}
 
 	/**
 	 * {@inheritDoc}
 	 */
 	@Override
-	public double[] derivatives(double[] outputs) {
-		double[] derivatives = new double[outputs.length];
+	public void derivatives(double[] outputs, double[] derivatives) {
 		for (int i = 0; i < outputs.length; i++) {
 			derivatives[i] = (alpha == 0.0 ? 0.0 : 1.0);
 		}
-		return derivatives;
 	}
 }
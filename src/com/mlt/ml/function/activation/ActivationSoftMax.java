@@ -61,11 +61,21 @@ public class ActivationSoftMax implements Activation {
 	 * {@inheritDoc}
 	 */
 	@Override
-	public double[] activations(double[] triggers) {
-		double[] outputs = new double[triggers.length];
+	public void activations(double[] triggers, double[] outputs) {
+		if (FastMath.isEnabled()) {
+			FastMath.softmax(triggers, outputs);
+			return;
+		}
+		/* Shift by the maximum so that exponentials do not overflow. */
+		double max = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < triggers.length; i++) {
+			if (triggers[i] > max) {
+				max = triggers[i];
+			}
+		}
 		double div = 0;
 		for (int i = 0; i < triggers.length; i++) {
-			double p = bound(Math.exp(triggers[i]));
+			double p = bound(Math.exp(triggers[i] - max));
 			outputs[i] = p;
 			div += p;
 		}
@@ -74,19 +84,16 @@ public class ActivationSoftMax implements Activation {
 				outputs[i] /= div;
 			}
 		}
-		return outputs;
 	}
 
 	/**
 	 * {@inheritDoc}
 	 */
 	@Override
-	public double[] derivatives(double[] outputs) {
-		double[] derivatives = new double[outputs.length];
+	public void derivatives(double[] outputs, double[] derivatives) {
 		for (int i = 0; i < outputs.length; i++) {
 			derivatives[i] = 1.0;
 		}
-		return derivatives;
 	}
 
 }
@@ -47,8 +47,11 @@ public class ActivationTANH implements Activation {
 	 * {@inheritDoc}
 	 */
 	@Override
-	public double[] activations(double[] triggers) {
-		double[] outputs = new double[triggers.length];
+	public void activations(double[] triggers, double[] outputs) {
+		if (FastMath.isEnabled()) {
+			FastMath.tanh(triggers, outputs, 1.0);
+			return;
+		}
 		double epos = 0;
 		double eneg = 0;
 		for (int i = 0; i < triggers.length; i++) {
@@ -56,18 +59,15 @@ public class ActivationTANH implements Activation {
 			eneg = Math.exp(-triggers[i]);
 			outputs[i] = (epos - eneg) / (epos + eneg);
 		}
-		return outputs;
 	}
 
 	/**
 	 * {@inheritDoc}
 	 */
 	@Override
-	public double[] derivatives(double[] outputs) {
-		double[] derivatives = new double[outputs.length];
+	public void derivatives(double[] outputs, double[] derivatives) {
 		for (int i = 0; i < outputs.length; i++) {
 			derivatives[i] = (1.0 + outputs[i]) * (1 - outputs[i]);
 		}
-		return derivatives;
 	}
 }
@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2018 Miquel Sas
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mlt.ml.function.activation;
+
+/**
+ * Fast kernels of activation functions. The exponential is computed reducing
+ * the argument to <em>x = k*ln2 + r</em>, with <em>|r| &le; ln2/2</em>,
+ * evaluating a polynomial of <em>e<sup>r</sup></em> and scaling it by
+ * <em>2<sup>k</sup></em> building the exponent bits, with a relative error
+ * below 1e-14. Kernels process vectors by blocks of four independent elements
+ * so that the polynomials of a block are evaluated in parallel by the
+ * processor pipeline.
+ * <p>
+ * Activations use these kernels when enabled, with <em>setEnabled</em> or the
+ * system property <em>mlt.fastmath</em> set to <em>true</em>, and the scalar
+ * code with <em>Math.exp</em> otherwise, the default. Whether the kernels are
+ * faster depends on the JVM, that may already have an intrinsic
+ * <em>Math.exp</em>, so enable them only if <em>TestFastMath</em> shows a gain.
+ * Derivatives are computed from the outputs without exponentials, thus they
+ * have no fast kernels.
+ *
+ * @author Miquel Sas
+ */
+public class FastMath {
+
+	/** log2(e). */
+	private static final double LOG2E = 1.4426950408889634;
+	/** High part of ln(2), exact when multiplied by small integers. */
+	private static final double LN2_HI = 0.6931471803691238;
+	/** Low part of ln(2). */
+	private static final double LN2_LO = 1.9082149292705877e-10;
+	/** Maximum argument handled by the polynomial. */
+	private static final double MAX_ARG = 709.0;
+	/** Minimum argument handled by the polynomial. */
+	private static final double MIN_ARG = -708.0;
+
+	/** Coefficients of the polynomial, 1/n! */
+	private static final double C2 = 1.0 / 2;
+	private static final double C3 = 1.0 / 6;
+	private static final double C4 = 1.0 / 24;
+	private static final double C5 = 1.0 / 120;
+	private static final double C6 = 1.0 / 720;
+	private static final double C7 = 1.0 / 5040;
+	private static final double C8 = 1.0 / 40320;
+	private static final double C9 = 1.0 / 362880;
+	private static final double C10 = 1.0 / 3628800;
+	private static final double C11 = 1.0 / 39916800;
+
+	/** Enabled flag, volatile since it can be set while other threads train. */
+	private static volatile boolean enabled =
+		Boolean.parseBoolean(System.getProperty("mlt.fastmath", "false"));
+
+	/**
+	 * Apply the bipolar sigmoid, that is <em>tanh(sigma*x/2)</em>.
+	 *
+	 * @param triggers The triggers.
+	 * @param outputs  The outputs, can be the triggers vector.
+	 * @param sigma    The steepness.
+	 */
+	public static void bipolarSigmoid(double[] triggers, double[] outputs, double sigma) {
+		tanh(triggers, outputs, sigma / 2);
+	}
+
+	/**
+	 * Return the exponential of the argument.
+	 *
+	 * @param x The argument.
+	 * @return The exponential.
+	 */
+	public static double exp(double x) {
+		if (x > MAX_ARG || x < MIN_ARG) {
+			return Math.exp(x);
+		}
+		long k = (long) (x * LOG2E + (x < 0 ? -0.5 : 0.5));
+		double r = x - k * LN2_HI - k * LN2_LO;
+		double p = C10 + r * C11;
+		p = C9 + r * p;
+		p = C8 + r * p;
+		p = C7 + r * p;
+		p = C6 + r * p;
+		p = C5 + r * p;
+		p = C4 + r * p;
+		p = C3 + r * p;
+		p = C2 + r * p;
+		p = 1.0 + r * p;
+		p = 1.0 + r * p;
+		return p * Double.longBitsToDouble((k + 1023) << 52);
+	}
+
+	/**
+	 * @return A boolean indicating whether activations use the fast kernels.
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @param enabled A boolean indicating whether activations use the fast
+	 *                kernels.
+	 */
+	public static void setEnabled(boolean enabled) {
+		FastMath.enabled = enabled;
+	}
+
+	/**
+	 * Apply the sigmoid.
+	 *
+	 * @param triggers The triggers.
+	 * @param outputs  The outputs, can be the triggers vector.
+	 * @param sigma    The steepness.
+	 */
+	public static void sigmoid(double[] triggers, double[] outputs, double sigma) {
+		int length = triggers.length;
+		int i = 0;
+		for (; i <= length - 4; i += 4) {
+			double e0 = exp(-sigma * triggers[i]);
+			double e1 = exp(-sigma * triggers[i + 1]);
+			double e2 = exp(-sigma * triggers[i + 2]);
+			double e3 = exp(-sigma * triggers[i + 3]);
+			outputs[i] = 1 / (1 + e0);
+			outputs[i + 1] = 1 / (1 + e1);
+			outputs[i + 2] = 1 / (1 + e2);
+			outputs[i + 3] = 1 / (1 + e3);
+		}
+		for (; i < length; i++) {
+			outputs[i] = 1 / (1 + exp(-sigma * triggers[i]));
+		}
+	}
+
+	/**
+	 * Apply the soft-max, shifting the triggers by their maximum.
+	 *
+	 * @param triggers The triggers.
+	 * @param outputs  The outputs, can be the triggers vector.
+	 */
+	public static void softmax(double[] triggers, double[] outputs) {
+		int length = triggers.length;
+		double max = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < length; i++) {
+			if (triggers[i] > max) {
+				max = triggers[i];
+			}
+		}
+		double sum0 = 0;
+		double sum1 = 0;
+		double sum2 = 0;
+		double sum3 = 0;
+		int i = 0;
+		for (; i <= length - 4; i += 4) {
+			double e0 = exp(triggers[i] - max);
+			double e1 = exp(triggers[i + 1] - max);
+			double e2 = exp(triggers[i + 2] - max);
+			double e3 = exp(triggers[i + 3] - max);
+			outputs[i] = e0;
+			outputs[i + 1] = e1;
+			outputs[i + 2] = e2;
+			outputs[i + 3] = e3;
+			sum0 += e0;
+			sum1 += e1;
+			sum2 += e2;
+			sum3 += e3;
+		}
+		for (; i < length; i++) {
+			double e = exp(triggers[i] - max);
+			outputs[i] = e;
+			sum0 += e;
+		}
+		double scale = 1.0 / (sum0 + sum1 + sum2 + sum3);
+		for (i = 0; i < length; i++) {
+			outputs[i] *= scale;
+		}
+	}
+
+	/**
+	 * Apply the hyperbolic tangent of the scaled triggers, computed as
+	 * <em>(1-e)/(1+e)</em> with <em>e = exp(-2|x|)</em> so that it never
+	 * overflows.
+	 *
+	 * @param triggers The triggers.
+	 * @param outputs  The outputs, can be the triggers vector.
+	 * @param scale    The scale of the triggers.
+	 */
+	public static void tanh(double[] triggers, double[] outputs, double scale) {
+		int length = triggers.length;
+		int i = 0;
+		for (; i <= length - 4; i += 4) {
+			double x0 = scale * triggers[i];
+			double x1 = scale * triggers[i + 1];
+			double x2 = scale * triggers[i + 2];
+			double x3 = scale * triggers[i + 3];
+			double e0 = exp(-2 * Math.abs(x0));
+			double e1 = exp(-2 * Math.abs(x1));
+			double e2 = exp(-2 * Math.abs(x2));
+			double e3 = exp(-2 * Math.abs(x3));
+			outputs[i] = Math.copySign((1 - e0) / (1 + e0), x0);
+			outputs[i + 1] = Math.copySign((1 - e1) / (1 + e1), x1);
+			outputs[i + 2] = Math.copySign((1 - e2) / (1 + e2), x2);
+			outputs[i + 3] = Math.copySign((1 - e3) / (1 + e3), x3);
+		}
+		for (; i < length; i++) {
+			double x = scale * triggers[i];
+			double e = exp(-2 * Math.abs(x));
+			outputs[i] = Math.copySign((1 - e) / (1 + e), x);
+		}
+	}
+}
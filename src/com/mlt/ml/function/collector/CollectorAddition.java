@@ -45,4 +45,22 @@ public class CollectorAddition implements Collector<double[]> {
 		return result;
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public double[] collect(Collection<double[]> vectors, double[] result) {
+		if (vectors.isEmpty()) {
+			throw new IllegalArgumentException("Empty vectors.");
+		}
+		Vector.fill(result, 0);
+		for (double[] vector : vectors) {
+			if (vector.length != result.length) {
+				throw new IllegalArgumentException("Not all vectors have the same size.");
+			}
+			Vector.axpy(1.0, vector, 0, result, 0, result.length);
+		}
+		return result;
+	}
+
 }
@@ -17,6 +17,7 @@ package com.mlt.ml.function.collector;
 import java.util.Collection;
 
 import com.mlt.ml.function.Collector;
+import com.mlt.util.Vector;
 
 /**
  * Centroid collector function.
@@ -52,4 +53,17 @@ public class CollectorCentroid implements Collector<double[]> {
 		return centroid;
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public double[] collect(Collection<double[]> vectors, double[] centroid) {
+		double divisor = vectors.size();
+		Vector.fill(centroid, 0);
+		for (double[] vector : vectors) {
+			Vector.axpy(1.0 / divisor, vector, 0, centroid, 0, centroid.length);
+		}
+		return centroid;
+	}
+
 }
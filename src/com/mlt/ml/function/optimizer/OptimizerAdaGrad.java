@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2018 Miquel Sas
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mlt.ml.function.optimizer;
+
+import com.mlt.ml.function.Optimizer;
+import com.mlt.util.Properties;
+
+/**
+ * AdaGrad optimizer, that scales the learning rate of each parameter by the
+ * inverse square root of the sum of its squared gradients.
+ *
+ * @author Miquel Sas
+ */
+public class OptimizerAdaGrad implements Optimizer {
+
+	/** Learning rate. */
+	private double learningRate = 0.01;
+	/** Scale of the learning rate, set by the learning rate schedules. */
+	private double scale = 1.0;
+	/** Small value to avoid divisions by zero. */
+	private double epsilon = 1.0e-8;
+	/** Sums of squared gradients. */
+	private double[] squares;
+
+	/**
+	 * Constructor.
+	 */
+	public OptimizerAdaGrad() {
+		super();
+	}
+
+	/**
+	 * @param learningRate The learning rate.
+	 */
+	public OptimizerAdaGrad(double learningRate) {
+		super();
+		this.learningRate = learningRate;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String getId() {
+		return "ADAGRAD";
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void initialize(int size) {
+		squares = new double[size];
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void restore(Properties properties) {
+		learningRate = properties.getDouble("optimizer-learning-rate");
+		epsilon = properties.getDouble("optimizer-epsilon");
+		squares = properties.getDouble1A("optimizer-squares");
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void save(Properties properties) {
+		properties.setDouble("optimizer-learning-rate", learningRate);
+		properties.setDouble("optimizer-epsilon", epsilon);
+		properties.setDouble1A("optimizer-squares", squares);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void setLearningRateScale(double scale) {
+		this.scale = scale;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void step() {}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void update(double[] parameters, double[] gradients, int offset, int length) {
+		for (int i = offset; i < offset + length; i++) {
+			double gradient = gradients[i];
+			squares[i] += gradient * gradient;
+			parameters[i] += scale * learningRate * gradient / (Math.sqrt(squares[i]) + epsilon);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void update(double[] parameters, double[] gradients, int offset, int[] columns, int start, int end) {
+		for (int k = start; k < end; k++) {
+			int i = offset + columns[k];
+			double gradient = gradients[i];
+			squares[k] += gradient * gradient;
+			parameters[i] += scale * learningRate * gradient / (Math.sqrt(squares[k]) + epsilon);
+		}
+	}
+}
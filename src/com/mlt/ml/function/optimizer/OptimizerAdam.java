@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2018 Miquel Sas
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mlt.ml.function.optimizer;
+
+import com.mlt.ml.function.Optimizer;
+import com.mlt.util.Properties;
+
+/**
+ * Adam optimizer, that keeps exponential averages of the gradients and of the
+ * squared gradients, and corrects their initial bias folding the corrections
+ * into the learning rate of each step.
+ *
+ * @author Miquel Sas
+ */
+public class OptimizerAdam implements Optimizer {
+
+	/** Learning rate. */
+	private double learningRate = 0.001;
+	/** Scale of the learning rate, set by the learning rate schedules. */
+	private double scale = 1.0;
+	/** Decay of the average of gradients. */
+	private double beta1 = 0.9;
+	/** Decay of the average of squared gradients. */
+	private double beta2 = 0.999;
+	/** Small value to avoid divisions by zero. */
+	private double epsilon = 1.0e-8;
+	/** Averages of gradients. */
+	private double[] moments;
+	/** Averages of squared gradients. */
+	private double[] squares;
+	/** Number of steps. */
+	private long steps;
+	/** Learning rate of the current step, with the bias corrections. */
+	private double stepRate;
+
+	/**
+	 * Constructor.
+	 */
+	public OptimizerAdam() {
+		super();
+	}
+
+	/**
+	 * @param learningRate The learning rate.
+	 * @param beta1        The decay of the average of gradients.
+	 * @param beta2        The decay of the average of squared gradients.
+	 */
+	public OptimizerAdam(double learningRate, double beta1, double beta2) {
+		super();
+		if (beta1 < 0 || beta1 >= 1) {
+			throw new IllegalArgumentException("Invalid beta1: " + beta1);
+		}
+		if (beta2 < 0 || beta2 >= 1) {
+			throw new IllegalArgumentException("Invalid beta2: " + beta2);
+		}
+		this.learningRate = learningRate;
+		this.beta1 = beta1;
+		this.beta2 = beta2;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String getId() {
+		return "ADAM";
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void initialize(int size) {
+		moments = new double[size];
+		squares = new double[size];
+		steps = 0;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void restore(Properties properties) {
+		learningRate = properties.getDouble("optimizer-learning-rate");
+		beta1 = properties.getDouble("optimizer-beta1");
+		beta2 = properties.getDouble("optimizer-beta2");
+		epsilon = properties.getDouble("optimizer-epsilon");
+		moments = properties.getDouble1A("optimizer-moments");
+		squares = properties.getDouble1A("optimizer-squares");
+		steps = properties.getLong("optimizer-steps");
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void save(Properties properties) {
+		properties.setDouble("optimizer-learning-rate", learningRate);
+		properties.setDouble("optimizer-beta1", beta1);
+		properties.setDouble("optimizer-beta2", beta2);
+		properties.setDouble("optimizer-epsilon", epsilon);
+		properties.setDouble1A("optimizer-moments", moments);
+		properties.setDouble1A("optimizer-squares", squares);
+		properties.setLong("optimizer-steps", steps);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void setLearningRateScale(double scale) {
+		this.scale = scale;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void step() {
+		steps++;
+		double correction1 = 1 - Math.pow(beta1, steps);
+		double correction2 = 1 - Math.pow(beta2, steps);
+		stepRate = scale * learningRate * Math.sqrt(correction2) / correction1;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void update(double[] parameters, double[] gradients, int offset, int length) {
+		for (int i = offset; i < offset + length; i++) {
+			double gradient = gradients[i];
+			double moment = beta1 * moments[i] + (1 - beta1) * gradient;
+			double square = beta2 * squares[i] + (1 - beta2) * gradient * gradient;
+			moments[i] = moment;
+			squares[i] = square;
+			parameters[i] += stepRate * moment / (Math.sqrt(square) + epsilon);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void update(double[] parameters, double[] gradients, int offset, int[] columns, int start, int end) {
+		for (int k = start; k < end; k++) {
+			int i = offset + columns[k];
+			double gradient = gradients[i];
+			double moment = beta1 * moments[k] + (1 - beta1) * gradient;
+			double square = beta2 * squares[k] + (1 - beta2) * gradient * gradient;
+			moments[k] = moment;
+			squares[k] = square;
+			parameters[i] += stepRate * moment / (Math.sqrt(square) + epsilon);
+		}
+	}
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2018 Miquel Sas
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mlt.ml.function.optimizer;
+
+import com.mlt.ml.function.Optimizer;
+import com.mlt.util.Properties;
+
+/**
+ * Nesterov accelerated gradient, in the formulation that evaluates the
+ * gradients at the current parameters: the velocity accumulates the steps and
+ * the parameters move by the momentum of the updated velocity plus the current
+ * step.
+ *
+ * @author Miquel Sas
+ */
+public class OptimizerNesterov implements Optimizer {
+
+	/** Learning rate. */
+	private double learningRate = 0.01;
+	/** Scale of the learning rate, set by the learning rate schedules. */
+	private double scale = 1.0;
+	/** Momentum. */
+	private double momentum = 0.9;
+	/** Velocities. */
+	private double[] velocities;
+
+	/**
+	 * Constructor.
+	 */
+	public OptimizerNesterov() {
+		super();
+	}
+
+	/**
+	 * @param learningRate The learning rate.
+	 * @param momentum     The momentum.
+	 */
+	public OptimizerNesterov(double learningRate, double momentum) {
+		super();
+		if (momentum < 0 || momentum >= 1) {
+			throw new IllegalArgumentException("Invalid momentum: " + momentum);
+		}
+		this.learningRate = learningRate;
+		this.momentum = momentum;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String getId() {
+		return "NESTEROV";
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void initialize(int size) {
+		velocities = new double[size];
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void restore(Properties properties) {
+		learningRate = properties.getDouble("optimizer-learning-rate");
+		momentum = properties.getDouble("optimizer-momentum");
+		velocities = properties.getDouble1A("optimizer-velocities");
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void save(Properties properties) {
+		properties.setDouble("optimizer-learning-rate", learningRate);
+		properties.setDouble("optimizer-momentum", momentum);
+		properties.setDouble1A("optimizer-velocities", velocities);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void setLearningRateScale(double scale) {
+		this.scale = scale;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void step() {}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void update(double[] parameters, double[] gradients, int offset, int length) {
+		for (int i = offset; i < offset + length; i++) {
+			double step = scale * learningRate * gradients[i];
+			double velocity = momentum * velocities[i] + step;
+			velocities[i] = velocity;
+			parameters[i] += momentum * velocity + step;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void update(double[] parameters, double[] gradients, int offset, int[] columns, int start, int end) {
+		for (int k = start; k < end; k++) {
+			int i = offset + columns[k];
+			double step = scale * learningRate * gradients[i];
+			double velocity = momentum * velocities[k] + step;
+			velocities[k] = velocity;
+			parameters[i] += momentum * velocity + step;
+		}
+	}
+}
@@ -26,6 +26,9 @@ import com.mlt.ml.function.Activation;
 import com.mlt.ml.network.nodes.ActivationNode;
 import com.mlt.ml.network.nodes.AdditionNode;
 import com.mlt.ml.network.nodes.BiasNode;
+import com.mlt.ml.network.nodes.CrossEntropyNode;
+import com.mlt.ml.network.nodes.Filter2DNode;
+import com.mlt.ml.network.nodes.Pool2DNode;
 import com.mlt.ml.network.nodes.WeightsNode;
 import com.mlt.ml.network.nodes.WeightsNode.GradientSoftener;
 
@@ -37,6 +40,105 @@ import com.mlt.ml.network.nodes.WeightsNode.GradientSoftener;
  * @author Miquel Sas
  */
 public class Builder {
+	/**
+	 * Return a list of nodes, ordered from input to output, wired as a convolution
+	 * branch: a bank of learnable filters with padding, the activation and a max
+	 * pool of each filter output.
+	 * 
+	 * @param inputRows     Input rows.
+	 * @param inputColumns  Input columns.
+	 * @param inputChannels Input channels.
+	 * @param filters       Number of filters.
+	 * @param filterRows    Filter rows.
+	 * @param filterColumns Filter columns.
+	 * @param poolRows      Pool rows.
+	 * @param poolColumns   Pool columns.
+	 * @param activation    Activation.
+	 * @return The list of nodes as branch.
+	 */
+	public static List<Node> branchConvolution(
+		int inputRows,
+		int inputColumns,
+		int inputChannels,
+		int filters,
+		int filterRows,
+		int filterColumns,
+		int poolRows,
+		int poolColumns,
+		Activation activation) {
+
+		List<Node> nodes = new ArrayList<>();
+
+		Edge inputEdge = new Edge(inputChannels * inputRows * inputColumns);
+		Filter2DNode filterNode = new Filter2DNode(
+			inputRows,
+			inputColumns,
+			inputChannels,
+			filters,
+			filterRows,
+			filterColumns,
+			true,
+			0.0);
+		filterNode.addInputEdge(inputEdge);
+		nodes.add(filterNode);
+
+		int size = filterNode.getOutputSize();
+		ActivationNode activationNode = new ActivationNode(size, activation);
+		connect(size, filterNode, activationNode);
+		nodes.add(activationNode);
+
+		Pool2DNode poolNode = new Pool2DNode(inputRows, inputColumns, filters, poolRows, poolColumns);
+		connect(size, activationNode, poolNode);
+		Edge outputEdge = new Edge(poolNode.getOutputSize());
+		poolNode.addOutputEdge(outputEdge);
+		nodes.add(poolNode);
+
+		nodes.forEach(node -> node.initialize());
+		return nodes;
+	}
+
+	/**
+	 * Return a list of nodes, ordered from input to output, wired as a perceptron
+	 * output layer that fuses the soft-max or the sigmoid with the cross-entropy
+	 * loss. It must be the last branch of the network.
+	 * 
+	 * @param inputSize  Input size.
+	 * @param outputSize Output size.
+	 * @param mode       The fused activation.
+	 * @return The list of nodes as branch.
+	 */
+	public static List<Node> branchCrossEntropy(
+		int inputSize,
+		int outputSize,
+		CrossEntropyNode.Mode mode) {
+
+		List<Node> nodes = new ArrayList<>();
+
+		Edge inputEdge = new Edge(inputSize);
+		WeightsNode weightsNode = new WeightsNode(inputSize, outputSize);
+		weightsNode.setGradientSoftener(GradientSoftener.NONE);
+		weightsNode.setMomentumStrategyFixed(0.0);
+		weightsNode.addInputEdge(inputEdge);
+		nodes.add(weightsNode);
+
+		BiasNode biasNode = new BiasNode(outputSize);
+		nodes.add(biasNode);
+
+		AdditionNode additionNode = new AdditionNode(outputSize);
+		connect(outputSize, biasNode, additionNode);
+		connect(outputSize, weightsNode, additionNode);
+		nodes.add(additionNode);
+
+		CrossEntropyNode crossEntropyNode = new CrossEntropyNode(outputSize, mode);
+		connect(outputSize, additionNode, crossEntropyNode);
+		Edge outputEdge = new Edge(outputSize);
+		crossEntropyNode.addOutputEdge(outputEdge);
+		nodes.add(crossEntropyNode);
+
+		nodes.forEach(node -> node.initialize());
+		return nodes;
+	}
+
 	/**
 	 * Return a list of nodes, ordered from input to output, wired as a perceptron
 	 * branch or layer.
@@ -0,0 +1,484 @@
+/*
+ * Copyright (C) 2018 Miquel Sas
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mlt.ml.network;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Binary checkpoint of a network. The structure of the network is saved with
+ * the usual node properties, except vectors and matrices, that are referenced
+ * by index and stored as raw little-endian blocks of doubles or floats, so that
+ * they can be loaded with bulk reads of the file channel.
+ * <p>
+ * Layout of the file, all values little-endian:
+ * <ul>
+ * <li>Header: magic (int), version (int), number of tensors (int), length of
+ * the structure (int).</li>
+ * <li>Index: per tensor, the offset in the file (long), the number of elements
+ * (int) and the type (int), 0 for doubles and 1 for floats.</li>
+ * <li>Structure: the network saved with tensor references.</li>
+ * <li>Tensors: blocks of doubles or floats, aligned to 8 bytes.</li>
+ * </ul>
+ * Version 1 files, whose index entries have no type and all tensors are
+ * doubles, are still read.
+ *
+ * @author Miquel Sas
+ */
+public class Checkpoint {
+
+	/**
+	 * Output stream that collects the tensors of the properties, a copy of them,
+	 * while the structure is written.
+	 */
+	static class TensorOutputStream extends ByteArrayOutputStream {
+
+		/** List of tensors, double or float vectors. */
+		private List<Object> tensors = new ArrayList<>();
+
+		/**
+		 * Add a copy of the tensor and return its index.
+		 *
+		 * @param tensor The tensor.
+		 * @return The index.
+		 */
+		int addTensor(double[] tensor) {
+			tensors.add(Arrays.copyOf(tensor, tensor.length));
+			return tensors.size() - 1;
+		}
+
+		/**
+		 * Add a copy of the float tensor and return its index.
+		 *
+		 * @param tensor The tensor.
+		 * @return The index.
+		 */
+		int addTensor(float[] tensor) {
+			tensors.add(Arrays.copyOf(tensor, tensor.length));
+			return tensors.size() - 1;
+		}
+	}
+
+	/**
+	 * Input stream of the structure that reads the tensors from the file
+	 * channel.
+	 */
+	static class TensorInputStream extends ByteArrayInputStream {
+
+		/** File channel. */
+		private FileChannel channel;
+		/** Buffer of chunks read from the channel. */
+		private ByteBuffer chunk;
+		/** Offsets of tensors. */
+		private long[] offsets;
+		/** Lengths of tensors. */
+		private int[] lengths;
+		/** Types of tensors. */
+		private int[] types;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param structure The structure bytes.
+		 * @param channel   The file channel.
+		 * @param offsets   Offsets of tensors.
+		 * @param lengths   Lengths of tensors.
+		 * @param types     Types of tensors.
+		 */
+		TensorInputStream(
+			byte[] structure,
+			FileChannel channel,
+			long[] offsets,
+			int[] lengths,
+			int[] types) {
+			super(structure);
+			this.channel = channel;
+			this.chunk = ByteBuffer.allocateDirect(CHUNK_SIZE * 8).order(ByteOrder.LITTLE_ENDIAN);
+			this.offsets = offsets;
+			this.lengths = lengths;
+			this.types = types;
+		}
+
+		/**
+		 * Check the tensor index.
+		 *
+		 * @param index The index.
+		 * @throws IOException If the index is not valid.
+		 */
+		private void checkIndex(int index) throws IOException {
+			if (index < 0 || index >= offsets.length) {
+				throw new IOException("Invalid tensor index: " + index);
+			}
+		}
+
+		/**
+		 * Return the tensor with the given index as a float vector, narrowed if it
+		 * was stored as doubles.
+		 *
+		 * @param index The index.
+		 * @return The tensor.
+		 * @throws IOException If the index is not valid.
+		 */
+		float[] getFloatTensor(int index) throws IOException {
+			checkIndex(index);
+			float[] tensor = new float[lengths[index]];
+			int size = (types[index] == TYPE_FLOAT ? 4 : 8);
+			int chunkLength = chunk.capacity() / size;
+			for (int i = 0; i < tensor.length; i += chunkLength) {
+				int length = Math.min(chunkLength, tensor.length - i);
+				read(offsets[index] + (long) i * size, length * size);
+				if (size == 4) {
+					chunk.asFloatBuffer().get(tensor, i, length);
+				} else {
+					DoubleBuffer doubles = chunk.asDoubleBuffer();
+					for (int j = 0; j < length; j++) {
+						tensor[i + j] = (float) doubles.get(j);
+					}
+				}
+			}
+			return tensor;
+		}
+
+		/**
+		 * Return the tensor with the given index, widened if it was stored as floats.
+		 *
+		 * @param index The index.
+		 * @return The tensor.
+		 * @throws IOException If the index is not valid.
+		 */
+		double[] getTensor(int index) throws IOException {
+			checkIndex(index);
+			double[] tensor = new double[lengths[index]];
+			int size = (types[index] == TYPE_FLOAT ? 4 : 8);
+			int chunkLength = chunk.capacity() / size;
+			for (int i = 0; i < tensor.length; i += chunkLength) {
+				int length = Math.min(chunkLength, tensor.length - i);
+				read(offsets[index] + (long) i * size, length * size);
+				if (size == 8) {
+					chunk.asDoubleBuffer().get(tensor, i, length);
+				} else {
+					FloatBuffer floats = chunk.asFloatBuffer();
+					for (int j = 0; j < length; j++) {
+						tensor[i + j] = floats.get(j);
+					}
+				}
+			}
+			return tensor;
+		}
+
+		/**
+		 * Read bytes of the channel into the chunk, that is left ready to be read.
+		 *
+		 * @param position The position in the file.
+		 * @param length   The number of bytes.
+		 * @throws IOException If an IO error occurs or the file is truncated.
+		 */
+		private void read(long position, int length) throws IOException {
+			chunk.clear();
+			chunk.limit(length);
+			readFully(channel, chunk, position);
+			chunk.flip();
+		}
+	}
+
+	/** Magic number, "MLTC". */
+	public static final int MAGIC = 0x4D4C5443;
+	/** Current version. */
+	public static final int VERSION = 2;
+
+	/** Type of tensors of doubles. */
+	private static final int TYPE_DOUBLE = 0;
+	/** Type of tensors of floats. */
+	private static final int TYPE_FLOAT = 1;
+
+	/** Size of the header. */
+	private static final int HEADER_SIZE = 16;
+	/** Size of an entry of the index. */
+	private static final int ENTRY_SIZE = 16;
+	/** Number of doubles written per chunk. */
+	private static final int CHUNK_SIZE = 8192;
+
+	/** Executor of asynchronous saves, a single thread to keep them in order. */
+	private static ExecutorService executor;
+
+	/**
+	 * Return the executor of asynchronous saves.
+	 *
+	 * @return The executor.
+	 */
+	private static synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			executor = Executors.newSingleThreadExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "CHECKPOINT");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		return executor;
+	}
+
+	/**
+	 * Check whether the file is a checkpoint, by its magic number.
+	 *
+	 * @param file The file.
+	 * @return A boolean.
+	 * @throws IOException If an IO error occurs.
+	 */
+	public static boolean isCheckpoint(File file) throws IOException {
+		if (!file.exists() || file.length() < HEADER_SIZE) {
+			return false;
+		}
+		try (InputStream is = new FileInputStream(file)) {
+			byte[] bytes = new byte[4];
+			if (is.read(bytes) != 4) {
+				return false;
+			}
+			return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).getInt() == MAGIC;
+		}
+	}
+
+	/**
+	 * Restore the network from a checkpoint file, reading the tensors from the file
+	 * channel, that is closed on return.
+	 *
+	 * @param network The network to restore.
+	 * @param file    The file.
+	 * @throws IOException If an IO error occurs or the file is not a valid
+	 *                     checkpoint.
+	 */
+	public static void restore(Network network, File file) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+			FileChannel channel = raf.getChannel()) {
+			/* Header. */
+			ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			readFully(channel, buffer, 0);
+			buffer.flip();
+			if (buffer.getInt() != MAGIC) {
+				throw new IOException("Not a network checkpoint: " + file);
+			}
+			int version = buffer.getInt();
+			if (version > VERSION) {
+				throw new IOException("Unsupported checkpoint version: " + version);
+			}
+			int count = buffer.getInt();
+			int length = buffer.getInt();
+			int entrySize = (version == 1 ? 12 : ENTRY_SIZE);
+			buffer = ByteBuffer.allocate(count * entrySize + length).order(ByteOrder.LITTLE_ENDIAN);
+			readFully(channel, buffer, HEADER_SIZE);
+			buffer.flip();
+
+			/* Index. */
+			long[] offsets = new long[count];
+			int[] lengths = new int[count];
+			int[] types = new int[count];
+			for (int i = 0; i < count; i++) {
+				offsets[i] = buffer.getLong();
+				lengths[i] = buffer.getInt();
+				types[i] = (version == 1 ? TYPE_DOUBLE : buffer.getInt());
+			}
+
+			/* Structure. */
+			byte[] structure = new byte[length];
+			buffer.get(structure);
+			network.restore(new TensorInputStream(structure, channel, offsets, lengths, types));
+		}
+	}
+
+	/**
+	 * Read from the channel at the position until the buffer is full.
+	 *
+	 * @param channel  The channel.
+	 * @param buffer   The buffer.
+	 * @param position The position in the file.
+	 * @throws IOException If an IO error occurs or the file is truncated.
+	 */
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+		throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position);
+			if (read < 0) {
+				throw new IOException("Truncated checkpoint");
+			}
+			position += read;
+		}
+	}
+
+	/**
+	 * Save the network to a checkpoint file. The file is first written with a
+	 * temporary name and then moved, so that a failure does not corrupt a
+	 * previous checkpoint.
+	 *
+	 * @param network The network.
+	 * @param file    The file.
+	 * @throws IOException If an IO error occurs.
+	 */
+	public static void save(Network network, File file) throws IOException {
+		write(snapshot(network), file);
+	}
+
+	/**
+	 * Save the network to a checkpoint file in a background thread. The snapshot
+	 * of the network is taken before returning, so the network can continue to be
+	 * trained while the file is written. Saves are written in order.
+	 *
+	 * @param network The network.
+	 * @param file    The file.
+	 * @return The future to wait for the save to finish.
+	 * @throws IOException If an IO error occurs taking the snapshot.
+	 */
+	public static Future<Void> saveAsync(Network network, File file) throws IOException {
+		TensorOutputStream snapshot = snapshot(network);
+		return getExecutor().submit(() -> {
+			write(snapshot, file);
+			return null;
+		});
+	}
+
+	/**
+	 * Take a snapshot of the network: the structure and a copy of the tensors.
+	 *
+	 * @param network The network.
+	 * @return The stream with the snapshot.
+	 * @throws IOException If an IO error occurs.
+	 */
+	private static TensorOutputStream snapshot(Network network) throws IOException {
+		TensorOutputStream os = new TensorOutputStream();
+		network.save(os);
+		return os;
+	}
+
+	/**
+	 * Write a snapshot to a file.
+	 *
+	 * @param snapshot The snapshot.
+	 * @param file     The file.
+	 * @throws IOException If an IO error occurs.
+	 */
+	private static void write(TensorOutputStream snapshot, File file) throws IOException {
+		List<Object> tensors = snapshot.tensors;
+		byte[] structure = snapshot.toByteArray();
+
+		/* Header and index. */
+		int count = tensors.size();
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + count * ENTRY_SIZE);
+		header.order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(MAGIC);
+		header.putInt(VERSION);
+		header.putInt(count);
+		header.putInt(structure.length);
+		long offset = HEADER_SIZE + count * ENTRY_SIZE + structure.length;
+		int padding = (int) ((8 - offset % 8) % 8);
+		offset += padding;
+		for (Object tensor : tensors) {
+			header.putLong(offset);
+			if (tensor instanceof float[]) {
+				int length = ((float[]) tensor).length;
+				header.putInt(length);
+				header.putInt(TYPE_FLOAT);
+				offset += (long) (length + length % 2) * 4;
+			} else {
+				int length = ((double[]) tensor).length;
+				header.putInt(length);
+				header.putInt(TYPE_DOUBLE);
+				offset += (long) length * 8;
+			}
+		}
+		header.flip();
+
+		File temporary = new File(file.getParentFile(), file.getName() + ".save");
+		try (RandomAccessFile raf = new RandomAccessFile(temporary, "rw");
+			FileChannel channel = raf.getChannel()) {
+			channel.truncate(0);
+			writeFully(channel, header);
+			writeFully(channel, ByteBuffer.wrap(structure));
+			writeFully(channel, ByteBuffer.allocate(padding));
+
+			/* Tensors by chunks, float tensors padded to 8 bytes. */
+			ByteBuffer chunk = ByteBuffer.allocateDirect(CHUNK_SIZE * 8);
+			chunk.order(ByteOrder.LITTLE_ENDIAN);
+			DoubleBuffer doubles = chunk.asDoubleBuffer();
+			FloatBuffer floats = chunk.asFloatBuffer();
+			for (Object value : tensors) {
+				if (value instanceof float[]) {
+					float[] tensor = (float[]) value;
+					for (int i = 0; i < tensor.length; i += CHUNK_SIZE * 2) {
+						int length = Math.min(CHUNK_SIZE * 2, tensor.length - i);
+						floats.clear();
+						floats.put(tensor, i, length);
+						chunk.clear();
+						chunk.limit(length * 4);
+						writeFully(channel, chunk);
+					}
+					writeFully(channel, ByteBuffer.allocate((tensor.length % 2) * 4));
+					continue;
+				}
+				double[] tensor = (double[]) value;
+				for (int i = 0; i < tensor.length; i += CHUNK_SIZE) {
+					int length = Math.min(CHUNK_SIZE, tensor.length - i);
+					doubles.clear();
+					doubles.put(tensor, i, length);
+					chunk.clear();
+					chunk.limit(length * 8);
+					writeFully(channel, chunk);
+				}
+			}
+			channel.force(true);
+		}
+		try {
+			Files.move(
+				temporary.toPath(),
+				file.toPath(),
+				StandardCopyOption.ATOMIC_MOVE,
+				StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException exc) {
+			Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Write the remaining bytes of the buffer to the channel.
+	 *
+	 * @param channel The channel.
+	 * @param buffer  The buffer.
+	 * @throws IOException If an IO error occurs.
+	 */
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+}
@@ -37,15 +37,33 @@ import com.mlt.util.Queue;
  * node is an output edge. An edge with both an input and an output node is a
  * transfer edge.
  * <p>
- * Note that recurrent edges do not transfer data (deltas) backward. Although
- * not necessary, it could have sense in a one pulse network graph, that is, a
- * network with a history size of one, it looses any sense in a batch process, a
- * network with a history size greater than one.
+ * Note that recurrent edges do not transfer data (deltas) backward, except with
+ * truncated back propagation through time. Although not necessary, it could
+ * have sense in a one pulse network graph, that is, a network with a history
+ * size of one, it looses any sense in a batch process, a network with a history
+ * size greater than one.
  * <p>
  * The data transferred through an edge is a <em>double[]</em>. Other
  * implementations, like ML.NET or DL4J, enhance using multiple dimension
  * arrays. We use a vector for simplicity, because 2D or 3D arrays can be simply
  * mapped to a 1D array.
+ * <p>
+ * In batch mode, a batch of data (double[][]), one row per pattern, is pushed
+ * forward and backward instead, and no history is kept.
+ * <p>
+ * When buffer pooling is active, the vectors removed from the queues when
+ * unfolding are kept in a pool and reused by subsequent pushes, so that a
+ * steady-state training does not allocate. Vectors retrieved from the edge
+ * are then only valid until the edge is unfolded.
+ * <p>
+ * With truncated back propagation through time, the forward queue is a ring
+ * with a fixed capacity, the oldest vector being reused by the next push, and
+ * the backward pass walks the forward history with a cursor instead of removing
+ * it, so that the steps overlapped by the next window are kept. Recurrent edges
+ * then carry deltas back through time: the deltas pushed while processing a
+ * step are kept for the previous step, that produced the values, and the
+ * values are read one step back, since each step read the values pushed by the
+ * previous one.
  *
  * @author Miquel Sas
  */
@@ -64,10 +82,32 @@ public class Edge {
 	/** Deque to maintain the forward queue (values). */
 	private Queue<double[]> forwardQueue = new ArrayQueue<>();
 
+	/** Capacity of the forward queue, zero if unbounded. */
+	private int capacity = 0;
+	/** Index of the forward data returned, counted from the most recent. */
+	private int cursor = 0;
+
+	/** Pool of reusable vectors, null if buffer pooling is not active. */
+	private Queue<double[]> pool;
+	/** Vector of zeros returned by empty queues when buffer pooling is active. */
+	private double[] zeros;
+
+	/** Batch of backward data (deltas), one row per pattern. */
+	private double[][] backwardBatch;
+	/** Batch of forward data (values), one row per pattern. */
+	private double[][] forwardBatch;
+
 	/**
 	 * A boolean that indicates whether the edge starts a recurrent path.
 	 */
 	private boolean recurrent = false;
+	/**
+	 * A boolean that indicates whether a recurrent edge carries deltas back
+	 * through time, set with truncated back propagation.
+	 */
+	private boolean throughTime = false;
+	/** Number of deltas of a recurrent edge consumed by the current step. */
+	private int consumed = 0;
 
 	/**
 	 * Constructor.
@@ -98,6 +138,37 @@ public class Edge {
 		this.recurrent = recurrent;
 	}
 
+	/**
+	 * Clear the forward and backward batches.
+	 */
+	void clearBatch() {
+		forwardBatch = null;
+		backwardBatch = null;
+	}
+
+	/**
+	 * Return the batch of backward data. If no backward batch has been pushed, a
+	 * batch of zero deltas with as many rows as the forward batch is returned.
+	 * 
+	 * @return The batch of backward data, one row of deltas per pattern.
+	 */
+	public double[][] getBackwardBatch() {
+		if (backwardBatch == null) {
+			int rows = (forwardBatch == null ? 0 : forwardBatch.length);
+			return new double[rows][size];
+		}
+		return backwardBatch;
+	}
+
+	/**
+	 * Check whether deltas have been pushed backward and not yet consumed.
+	 * 
+	 * @return A boolean.
+	 */
+	public boolean hasBackwardData() {
+		return !backwardQueue.isEmpty();
+	}
+
 	/**
 	 * Return the backward data.
 	 * 
@@ -105,11 +176,23 @@ public class Edge {
 	 */
 	public double[] getBackwardData() {
 		if (backwardQueue.isEmpty()) {
-			return new double[size];
+			return getZeros();
 		}
 		return backwardQueue.getFirst();
 	}
 
+	/**
+	 * Return a vector where to push data, either from the pool or new.
+	 * 
+	 * @return The vector.
+	 */
+	private double[] getBuffer() {
+		if (pool != null && !pool.isEmpty()) {
+			return pool.removeLast();
+		}
+		return new double[size];
+	}
+
 	/**
 	 * Return the current size of the backward queue.
 	 * 
@@ -119,16 +202,25 @@ public class Edge {
 		return backwardQueue.size();
 	}
 
+	/**
+	 * Return the batch of forward data.
+	 * 
+	 * @return The batch of forward data, one row of values per pattern.
+	 */
+	public double[][] getForwardBatch() {
+		return forwardBatch;
+	}
+
 	/**
 	 * Return the forward data.
 	 * 
 	 * @return The forward data, normally called values.
 	 */
 	public double[] getForwardData() {
-		if (forwardQueue.isEmpty()) {
-			return new double[size];
+		if (cursor >= forwardQueue.size()) {
+			return getZeros();
 		}
-		return forwardQueue.getFirst();
+		return forwardQueue.getFirst(cursor);
 	}
 
 	/**
@@ -193,6 +285,22 @@ public class Edge {
 		return size;
 	}
 
+	/**
+	 * Return a vector of zeros, cached if buffer pooling is active. The vector must
+	 * not be modified.
+	 * 
+	 * @return The vector of zeros.
+	 */
+	private double[] getZeros() {
+		if (pool == null) {
+			return new double[size];
+		}
+		if (zeros == null) {
+			zeros = new double[size];
+		}
+		return zeros;
+	}
+
 	/**
 	 * Return an id that uniquely identifies this edge.
 	 * 
@@ -216,8 +324,22 @@ public class Edge {
 	 * Initialize by clearing the queues.
 	 */
 	public void initialize() {
-		forwardQueue.clear();
-		backwardQueue.clear();
+		cursor = 0;
+		while (!forwardQueue.isEmpty()) {
+			recycle(forwardQueue.removeFirst());
+		}
+		while (!backwardQueue.isEmpty()) {
+			recycle(backwardQueue.removeFirst());
+		}
+	}
+
+	/**
+	 * Check whether buffer pooling is active.
+	 * 
+	 * @return A boolean.
+	 */
+	public boolean isBufferPooling() {
+		return (pool != null);
 	}
 
 	/**
@@ -238,6 +360,15 @@ public class Edge {
 		return recurrent;
 	}
 
+	/**
+	 * Check whether the edge is recurrent and carries deltas back through time.
+	 * 
+	 * @return A boolean.
+	 */
+	public boolean isThroughTime() {
+		return recurrent && throughTime;
+	}
+
 	/**
 	 * Check whether this is an input edge, the input node is null.
 	 * 
@@ -266,11 +397,26 @@ public class Edge {
 		if (outputDeltas.length != size) {
 			throw new IllegalArgumentException("Invalid output deltas size");
 		}
-		double[] deltas = new double[size];
+		double[] deltas = getBuffer();
 		System.arraycopy(outputDeltas, 0, deltas, 0, size);
 		backwardQueue.addFirst(deltas);
 	}
 
+	/**
+	 * Push a batch of backward values (deltas). The batch is not copied, and the
+	 * pushing node should not modify it afterwards.
+	 * 
+	 * @param outputDeltas The batch of output deltas, one row per pattern.
+	 */
+	public void pushBackwardBatch(double[][] outputDeltas) {
+		for (int i = 0; i < outputDeltas.length; i++) {
+			if (outputDeltas[i].length != size) {
+				throw new IllegalArgumentException("Invalid output deltas size");
+			}
+		}
+		backwardBatch = outputDeltas;
+	}
+
 	/**
 	 * Push forward values, adding them at the begining of the forward queue.
 	 * 
@@ -280,11 +426,79 @@ public class Edge {
 		if (inputValues.length != size) {
 			throw new IllegalArgumentException("Invalid input values size");
 		}
-		double[] values = new double[size];
+		double[] values;
+		if (capacity > 0 && forwardQueue.size() >= capacity) {
+			values = forwardQueue.removeLast();
+		} else {
+			values = getBuffer();
+		}
 		System.arraycopy(inputValues, 0, values, 0, size);
 		forwardQueue.addFirst(values);
 	}
 
+	/**
+	 * Push a batch of forward values. The batch is not copied, and the pushing
+	 * node should not modify it afterwards.
+	 * 
+	 * @param inputValues The batch of input values, one row per pattern.
+	 */
+	public void pushForwardBatch(double[][] inputValues) {
+		for (int i = 0; i < inputValues.length; i++) {
+			if (inputValues[i].length != size) {
+				throw new IllegalArgumentException("Invalid input values size");
+			}
+		}
+		forwardBatch = inputValues;
+	}
+
+	/**
+	 * Return a vector no longer queued to the pool, if buffer pooling is active.
+	 * 
+	 * @param buffer The vector.
+	 */
+	private void recycle(double[] buffer) {
+		if (pool != null) {
+			pool.addLast(buffer);
+		}
+	}
+
+	/**
+	 * Set whether vectors removed from the queues should be pooled and reused.
+	 * 
+	 * @param bufferPooling A boolean.
+	 */
+	public void setBufferPooling(boolean bufferPooling) {
+		if (bufferPooling && pool == null) {
+			pool = new ArrayQueue<>();
+		}
+		if (!bufferPooling) {
+			pool = null;
+			zeros = null;
+		}
+	}
+
+	/**
+	 * Set the capacity of the forward queue. When the queue is full, the oldest
+	 * vector is removed and reused by the next push.
+	 * 
+	 * @param capacity The capacity, zero for an unbounded queue.
+	 */
+	void setCapacity(int capacity) {
+		this.capacity = capacity;
+		while (capacity > 0 && forwardQueue.size() > capacity) {
+			recycle(forwardQueue.removeLast());
+		}
+	}
+
+	/**
+	 * Start a truncated backward pass. Recurrent edges that carry deltas back
+	 * through time read the values one step back.
+	 */
+	void rewind() {
+		cursor = (isThroughTime() ? 1 : 0);
+		consumed = 0;
+	}
+
 	/**
 	 * Set the input node.
 	 * 
@@ -331,15 +545,62 @@ public class Edge {
 		return b.toString();
 	}
 
+	/**
+	 * Set truncated back propagation. The forward queue becomes a ring with the
+	 * capacity of the window, one more for recurrent edges that read their values
+	 * one step back, and recurrent edges carry deltas back through time.
+	 * 
+	 * @param window The window, zero if not truncated.
+	 */
+	void setTruncation(int window) {
+		throughTime = (window > 0);
+		setCapacity(window > 0 && recurrent ? window + 1 : window);
+	}
+
+	/**
+	 * Step back one time step in a truncated backward pass, removing the current
+	 * first deltas and moving the cursor to the previous values, that are kept.
+	 * Recurrent edges that carry deltas through time remove instead the deltas
+	 * consumed by this step, and keep those pushed by it for the previous step.
+	 */
+	void step() {
+		if (isThroughTime()) {
+			for (int i = 0; i < consumed && !backwardQueue.isEmpty(); i++) {
+				recycle(backwardQueue.removeLast());
+			}
+			consumed = backwardQueue.size();
+		} else if (!backwardQueue.isEmpty()) {
+			recycle(backwardQueue.removeFirst());
+		}
+		cursor++;
+	}
+
+	/**
+	 * End a truncated backward pass, discarding the remaining deltas and keeping
+	 * only the most recent values.
+	 * 
+	 * @param keep The number of most recent values to keep.
+	 */
+	void truncate(int keep) {
+		cursor = 0;
+		consumed = 0;
+		while (!backwardQueue.isEmpty()) {
+			recycle(backwardQueue.removeFirst());
+		}
+		while (forwardQueue.size() > keep) {
+			recycle(forwardQueue.removeLast());
+		}
+	}
+
 	/**
 	 * Unfold the edge by removing the current first deltas and values.
 	 */
 	void unfold() {
 		if (!backwardQueue.isEmpty()) {
-			backwardQueue.removeFirst();
+			recycle(backwardQueue.removeFirst());
 		}
 		if (!forwardQueue.isEmpty()) {
-			forwardQueue.removeFirst();
+			recycle(forwardQueue.removeFirst());
 		}
 	}
 }
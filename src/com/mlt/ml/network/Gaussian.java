@@ -17,143 +17,240 @@
 
 package com.mlt.ml.network;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.Random;
-
-import com.mlt.util.IO;
-import com.mlt.util.Logs;
+import java.io.RandomAccessFile;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.util.SplittableRandom;
 
 /**
- * Helper used to generate Gaussian values to initialize weights, either by
- * using a Random generator or a stored file of gaussians in order to initialize
- * wieghts always with the same value and thus be able to compare performances
- * on the same basis.
+ * Helper used to generate Gaussian values to initialize weights. Values are
+ * generated in memory with the ziggurat method over a seeded splittable
+ * generator, thus a given seed always initializes weights with the same values
+ * and performances can be compared on the same basis.
+ * <p>
+ * To replay exactly runs initialized with the old file of gaussians, a replay
+ * file can be set, that is memory mapped and read from the start by each
+ * deterministic generator.
  *
  * @author Miquel Sas
  */
 public class Gaussian {
 
-	private String filePath = "res/network/";
-	private String fileName = "guassians.dat";
-	private boolean generated;
-	private Random random;
+	/** Seed of deterministic generators. */
+	public static final long DEFAULT_SEED = 0x5DEECE66DL;
 
-	private int index = -1;
-	private int size = 10000000;
-	private BufferedInputStream in;
+	/** Number of layers of the ziggurat. */
+	private static final int LAYERS = 128;
+	/** Start of the tail, the right edge of the base layer. */
+	private static final double R = 3.442619855899;
+	/** Area of each layer. */
+	private static final double V = 9.91256303526217e-3;
+	/** Scale of 31 bits integers. */
+	private static final double M = 2147483648.0;
 
-	/**
-	 * @param generated A boolean that indicates whether gaussian values will be
-	 *                  generated once, retrieved from a file, or new randomly
-	 *                  generated.
-	 */
-	public Gaussian(boolean generated) {
-		this.generated = generated;
+	/** Integer bounds below which a value is accepted directly, per layer. */
+	private static final int[] KN = new int[LAYERS];
+	/** Width of each layer, scaled to 31 bits integers. */
+	private static final double[] WN = new double[LAYERS];
+	/** Density function at the edge of each layer. */
+	private static final double[] FN = new double[LAYERS];
 
-		try {
-			start();
-		} catch (IOException exc) {
-			Logs.catching(exc);
+	static {
+		double dn = R;
+		double tn = dn;
+		double q = V / Math.exp(-0.5 * dn * dn);
+		KN[0] = (int) ((dn / q) * M);
+		KN[1] = 0;
+		WN[0] = q / M;
+		WN[LAYERS - 1] = dn / M;
+		FN[0] = 1.0;
+		FN[LAYERS - 1] = Math.exp(-0.5 * dn * dn);
+		for (int i = LAYERS - 2; i >= 1; i--) {
+			dn = Math.sqrt(-2.0 * Math.log(V / dn + Math.exp(-0.5 * dn * dn)));
+			KN[i + 1] = (int) ((dn / tn) * M);
+			tn = dn;
+			FN[i] = Math.exp(-0.5 * dn * dn);
+			WN[i] = dn / M;
 		}
 	}
-	
-	public void end() {
-		if (in != null) {
-			try {
-				in.close();
-				in = null;
-			} catch (IOException exc) {
-				Logs.catching(exc);
+
+	/** Mapped replay file, shared by deterministic generators, or null. */
+	private static DoubleBuffer replayBuffer;
+
+	/**
+	 * Set the file of gaussians to replay by deterministic generators, a file of
+	 * big-endian doubles like the one formerly generated in
+	 * <em>res/network/guassians.dat</em>. A null file restores the in-memory
+	 * generation.
+	 * 
+	 * @param file The file or null.
+	 * @throws IOException If an IO error occurs mapping the file.
+	 */
+	public static synchronized void setReplay(File file) throws IOException {
+		if (file == null) {
+			replayBuffer = null;
+			return;
+		}
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+			FileChannel channel = raf.getChannel()) {
+			long size = Math.min(channel.size(), (long) Integer.MAX_VALUE / Double.BYTES * Double.BYTES);
+			if (size < Double.BYTES) {
+				throw new IOException("Empty file of gaussians: " + file);
 			}
+			replayBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size).asDoubleBuffer();
 		}
-		index = -1;
 	}
 
-	@Override
-	protected void finalize() throws Throwable {
-		end();
+	/**
+	 * Return a new view of the replay buffer, positioned at the start, or null.
+	 * 
+	 * @return The view or null.
+	 */
+	private static synchronized DoubleBuffer getReplay() {
+		return (replayBuffer == null ? null : replayBuffer.duplicate());
+	}
+
+	/** Splittable random generator, null in replay mode. */
+	private SplittableRandom random;
+	/** Replay buffer, null if not in replay mode. */
+	private DoubleBuffer replay;
+
+	/**
+	 * Constructor of a generator with a random seed.
+	 */
+	public Gaussian() {
+		this(new SplittableRandom());
 	}
 
 	/**
-	 * Generates the gaussian file.
+	 * Constructor.
+	 * 
+	 * @param generated A boolean that indicates whether gaussian values will be
+	 *                  deterministic, generated with the default seed or replayed
+	 *                  if a replay file has been set, or randomly generated.
 	 */
-	private void generate() throws IOException {
-		if (!getFile().exists()) {
-			Random random = new Random();
-			BufferedOutputStream bo = new BufferedOutputStream(new FileOutputStream(getFile()));
-			for (int i = 0; i < size; i++) {
-				double w = 0;
-				while (true) {
-					w = random.nextGaussian();
-					if (w != 0) {
-						break;
-					}
-				}
-				IO.writeDouble(bo, w);
+	public Gaussian(boolean generated) {
+		super();
+		if (generated) {
+			replay = getReplay();
+			if (replay == null) {
+				random = new SplittableRandom(DEFAULT_SEED);
 			}
-			bo.close();
+		} else {
+			random = new SplittableRandom();
 		}
 	}
 
 	/**
-	 * @return The file.
+	 * Constructor of a deterministic generator.
+	 * 
+	 * @param seed The seed.
+	 */
+	public Gaussian(long seed) {
+		this(new SplittableRandom(seed));
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param random The splittable generator.
+	 */
+	private Gaussian(SplittableRandom random) {
+		super();
+		this.random = random;
+	}
+
+	/**
+	 * End using the generator, releasing the replay buffer if any.
 	 */
-	private File getFile() {
-		return new File(filePath, fileName);
+	public void end() {
+		replay = null;
 	}
 
 	/**
+	 * Return the next gaussian value.
+	 * 
 	 * @return Next gaussian value.
 	 */
 	public double nextGaussian() {
-		if (generated) {
-			try {
-				return nextGaussianFixed();
-			} catch (Exception exc) {
-				Logs.catching(exc);
+		if (replay != null) {
+			if (!replay.hasRemaining()) {
+				replay.rewind();
 			}
+			return replay.get();
+		}
+		if (random == null) {
+			throw new IllegalStateException("Generator ended");
+		}
+		/*
+		 * Ziggurat: the low 32 bits give the signed candidate and the high bits the
+		 * layer, so that both are independent.
+		 */
+		long bits = random.nextLong();
+		int hz = (int) bits;
+		int iz = (int) (bits >>> 32) & (LAYERS - 1);
+		if (Math.abs((long) hz) < KN[iz]) {
+			return hz * WN[iz];
 		}
-		return nextGaussianRandom();
+		return nextGaussianSlow(hz, iz);
 	}
 
 	/**
-	 * @return The next gaussian read from the file.
+	 * Slow path of the ziggurat, for candidates out of the rectangle of the layer.
+	 * 
+	 * @param hz The candidate.
+	 * @param iz The layer.
+	 * @return The gaussian value.
 	 */
-	private double nextGaussianFixed() throws Exception {
-
-		if (in == null) {
-			in = new BufferedInputStream(new FileInputStream(getFile()));
-		}
-
-		index++;
-		if (index == size) {
-			index = 0;
-			in.close();
-			in = new BufferedInputStream(new FileInputStream(getFile()));
+	private double nextGaussianSlow(int hz, int iz) {
+		while (true) {
+			double x = hz * WN[iz];
+			if (iz == 0) {
+				/* Tail. */
+				double y;
+				do {
+					x = -Math.log(nextUniform()) / R;
+					y = -Math.log(nextUniform());
+				} while (y + y < x * x);
+				return (hz > 0 ? R + x : -R - x);
+			}
+			if (FN[iz] + nextUniform() * (FN[iz - 1] - FN[iz]) < Math.exp(-0.5 * x * x)) {
+				return x;
+			}
+			long bits = random.nextLong();
+			hz = (int) bits;
+			iz = (int) (bits >>> 32) & (LAYERS - 1);
+			if (Math.abs((long) hz) < KN[iz]) {
+				return hz * WN[iz];
+			}
 		}
-
-		return IO.readDouble(in);
 	}
 
 	/**
-	 * @return The next gaussian generated with using Random.
+	 * Return a uniform value in the open interval (0, 1).
+	 * 
+	 * @return The uniform value.
 	 */
-	private double nextGaussianRandom() {
-		if (random == null) {
-			random = new Random();
-		}
-		return random.nextGaussian();
+	private double nextUniform() {
+		double u;
+		do {
+			u = random.nextDouble();
+		} while (u == 0);
+		return u;
 	}
 
-	private void start() throws IOException {
-		if (!generated) {
-			return;
+	/**
+	 * Split a new generator, statistically independent of this one and
+	 * deterministic if this one is, for instance to initialize in parallel.
+	 * 
+	 * @return The new generator.
+	 */
+	public Gaussian split() {
+		if (random == null) {
+			throw new IllegalStateException("Replay generators can not be split");
 		}
-		generate();
+		return new Gaussian(random.split());
 	}
 }
@@ -0,0 +1,529 @@
+/*
+ * Copyright (C) 2018 Miquel Sas
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mlt.ml.network;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.mlt.ml.data.Pattern;
+import com.mlt.ml.data.PatternSource;
+import com.mlt.ml.function.Activation;
+import com.mlt.ml.function.IndexFunction;
+import com.mlt.ml.network.nodes.ActivationNode;
+import com.mlt.ml.network.nodes.AdditionNode;
+import com.mlt.ml.network.nodes.BiasNode;
+import com.mlt.ml.network.nodes.CrossEntropyNode;
+import com.mlt.ml.network.nodes.WeightsNode;
+import com.mlt.util.Vector;
+
+/**
+ * A read-only view of a network compiled for inference. The graph is compiled
+ * once into a flat plan, a list of kernels executed in forward order over the
+ * slots of an arena of pre-allocated vectors, without touching the edges nor
+ * any node internal state. Chains of a weights and a bias node added and
+ * optionally activated, the layers built by the builder, are fused into a
+ * single kernel that writes directly in its slot, visiting only the kept
+ * weights of pruned weights nodes. Other nodes are executed by a
+ * kernel that calls their <em>calculate</em> method.
+ * <p>
+ * Each thread has its own arena, thus an inference is thread-safe and can
+ * evaluate batches of patterns concurrently on the compute pool.
+ *
+ * @author Miquel Sas
+ */
+public class Inference {
+
+	/**
+	 * A kernel of the plan, that computes the values of a slot of the arena from
+	 * the values of other slots.
+	 */
+	static interface Kernel {
+		/**
+		 * Execute the kernel.
+		 *
+		 * @param arena The arena of slots.
+		 */
+		void execute(double[][] arena);
+	}
+
+	/**
+	 * Kernel that calculates a node, storing its new output vector in the slot.
+	 */
+	static class NodeKernel implements Kernel {
+
+		/** The node. */
+		Node node;
+		/** The slots of the input values, in the order of input edges. */
+		int[] inputSlots;
+		/** The output slot. */
+		int outputSlot;
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void execute(double[][] arena) {
+			List<double[]> inputValues = new ArrayList<>(inputSlots.length);
+			for (int i = 0; i < inputSlots.length; i++) {
+				inputValues.add(arena[inputSlots[i]]);
+			}
+			arena[outputSlot] = node.calculate(inputValues);
+		}
+	}
+
+	/**
+	 * Fused kernel of a weights node and a bias node added and optionally
+	 * activated, that computes the layer in place in its output slot.
+	 */
+	static class LayerKernel implements Kernel {
+
+		/** Flat row-major weights, or the kept weights by rows if pruned. */
+		double[] weights;
+		/** Sparse row pointers of pruned weights, null if dense. */
+		int[] rowPointers;
+		/** Sparse columns of pruned weights. */
+		int[] columns;
+		/** Biases. */
+		double[] biases;
+		/** Optional activation, applied in place. */
+		Activation activation;
+		/** Optional fused soft-max or sigmoid output mode. */
+		CrossEntropyNode.Mode mode;
+		/** Input size. */
+		int inputSize;
+		/** Output size. */
+		int outputSize;
+		/** The input slot. */
+		int inputSlot;
+		/** The output slot. */
+		int outputSlot;
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void execute(double[][] arena) {
+			double[] input = arena[inputSlot];
+			double[] output = arena[outputSlot];
+			System.arraycopy(biases, 0, output, 0, outputSize);
+			for (int in = 0; in < inputSize; in++) {
+				double value = input[in];
+				if (value == 0) {
+					continue;
+				}
+				if (rowPointers != null) {
+					for (int k = rowPointers[in]; k < rowPointers[in + 1]; k++) {
+						output[columns[k]] += value * weights[k];
+					}
+					continue;
+				}
+				Vector.axpy(value, weights, in * outputSize, output, 0, outputSize);
+			}
+			activate(output);
+		}
+
+		/**
+		 * Apply the optional activation or output mode in place.
+		 *
+		 * @param output The output values.
+		 */
+		void activate(double[] output) {
+			if (activation != null) {
+				activation.activations(output, output);
+			}
+			if (mode == CrossEntropyNode.Mode.SOFTMAX) {
+				CrossEntropyNode.softmax(output, output);
+			}
+			if (mode == CrossEntropyNode.Mode.SIGMOID) {
+				CrossEntropyNode.sigmoid(output, output);
+			}
+		}
+	}
+
+	/** The list of kernels in execution order. */
+	private List<Kernel> kernels;
+	/** Sizes of the slots of the arena, slot zero for the input values. */
+	private int[] slotSizes;
+	/** Arena of each thread. */
+	private ThreadLocal<double[][]> arena;
+	/** The slot of the network output values. */
+	private int outputSlot;
+	/** Network input size. */
+	private int inputSize;
+	/** Network output size. */
+	private int outputSize;
+	/** Estimated work per pattern. */
+	private int workPerPattern;
+
+	/**
+	 * Constructor, that compiles the plan. Slot zero holds the network input values
+	 * and slot <em>i+1</em> the output values of node <em>i</em>, that are the
+	 * same for all its output edges. The nodes of a fused chain are executed by
+	 * one kernel at the position of the last node of the chain, that owns the
+	 * output slot.
+	 *
+	 * @param network The network, that must not be modified afterwards.
+	 */
+	Inference(Network network) {
+		super();
+		if (network.isRecurrent()) {
+			throw new IllegalStateException("Inference does not admit recurrent edges");
+		}
+		List<Node> nodes = new ArrayList<>(network.getNodes());
+		inputSize = network.getInputSize();
+		outputSize = network.getOutputSize();
+
+		Map<Node, Integer> slots = new HashMap<>();
+		for (int i = 0; i < nodes.size(); i++) {
+			slots.put(nodes.get(i), i + 1);
+		}
+		slotSizes = new int[nodes.size() + 1];
+		slotSizes[0] = inputSize;
+
+		/* Fused chains by their last node, and nodes covered by a chain. */
+		Map<Node, LayerKernel> layers = new HashMap<>();
+		Set<Node> covered = new HashSet<>();
+		for (int i = 0; i < nodes.size(); i++) {
+			if (nodes.get(i) instanceof AdditionNode) {
+				compileLayer((AdditionNode) nodes.get(i), slots, layers, covered);
+			}
+		}
+
+		kernels = new ArrayList<>();
+		long work = 0;
+		for (int i = 0; i < nodes.size(); i++) {
+			Node node = nodes.get(i);
+			slotSizes[i + 1] = node.getOutputSize();
+			List<double[]> parameters = node.getParameters();
+			for (int j = 0; j < parameters.size(); j++) {
+				work += parameters.get(j).length;
+			}
+			work += node.getOutputSize();
+			if (layers.containsKey(node)) {
+				kernels.add(layers.get(node));
+				continue;
+			}
+			if (covered.contains(node)) {
+				continue;
+			}
+			NodeKernel kernel = new NodeKernel();
+			kernel.node = node;
+			List<Edge> inputEdges = node.getInputEdges();
+			kernel.inputSlots = new int[inputEdges.size()];
+			for (int j = 0; j < inputEdges.size(); j++) {
+				kernel.inputSlots[j] = getSlot(slots, inputEdges.get(j));
+			}
+			kernel.outputSlot = i + 1;
+			kernels.add(kernel);
+		}
+		outputSlot = getSlot(slots, network.getOutputEdge());
+		workPerPattern = (int) Math.min(work, Integer.MAX_VALUE);
+		arena = ThreadLocal.withInitial(() -> newArena());
+		checkPlan();
+	}
+
+	/**
+	 * Constructor of an inference with the same slots and other kernels, for
+	 * instance quantized.
+	 *
+	 * @param inference The source inference.
+	 * @param kernels   The list of kernels.
+	 */
+	Inference(Inference inference, List<Kernel> kernels) {
+		super();
+		this.kernels = kernels;
+		slotSizes = inference.slotSizes;
+		outputSlot = inference.outputSlot;
+		inputSize = inference.inputSize;
+		outputSize = inference.outputSize;
+		workPerPattern = inference.workPerPattern;
+		arena = ThreadLocal.withInitial(() -> newArena());
+	}
+
+	/**
+	 * Calculate the network output values.
+	 *
+	 * @param inputValues The input values.
+	 * @return A new vector with the output values.
+	 */
+	public double[] calculate(double[] inputValues) {
+		if (inputValues.length != inputSize) {
+			throw new IllegalArgumentException("Invalid input size");
+		}
+		double[][] values = arena.get();
+		values[0] = inputValues;
+		for (int i = 0; i < kernels.size(); i++) {
+			kernels.get(i).execute(values);
+		}
+		values[0] = null;
+		return Arrays.copyOf(values[outputSlot], values[outputSlot].length);
+	}
+
+	/**
+	 * Calculate the network output values of a batch of patterns, concurrently
+	 * when the work is worth it.
+	 *
+	 * @param inputValues The batch of input values, one row per pattern.
+	 * @return The batch of output values.
+	 */
+	public double[][] calculate(double[][] inputValues) {
+		double[][] outputValues = new double[inputValues.length][];
+		IndexFunction function = new IndexFunction(
+			inputValues.length,
+			workPerPattern,
+			index -> outputValues[index] = calculate(inputValues[index]));
+		function.process();
+		return outputValues;
+	}
+
+	/**
+	 * Calculate the metrics of a pattern source, evaluating the patterns by
+	 * batches.
+	 *
+	 * @param label     The metrics label.
+	 * @param source    The pattern source.
+	 * @param batchSize The number of patterns evaluated concurrently.
+	 * @return The metrics.
+	 */
+	public Metrics calculateMetrics(String label, PatternSource source, int batchSize) {
+		Metrics metrics = new Metrics(label, outputSize, source.size());
+		for (int start = 0; start < source.size(); start += batchSize) {
+			List<Pattern> patterns = getPatterns(source, start, batchSize);
+			computeMetrics(metrics, patterns, calculate(getInputValues(patterns)));
+		}
+		return metrics;
+	}
+
+	/**
+	 * Check the plan executing it once on a vector of zero inputs, so that a node
+	 * that can not be calculated, or that calculates a vector of a wrong size,
+	 * fails when the plan is built and not on the first pattern.
+	 * 
+	 * @throws IllegalStateException If any node kernel fails.
+	 */
+	private void checkPlan() {
+		double[][] values = newArena();
+		values[0] = new double[inputSize];
+		for (int i = 0; i < kernels.size(); i++) {
+			Kernel kernel = kernels.get(i);
+			if (!(kernel instanceof NodeKernel)) {
+				kernel.execute(values);
+				continue;
+			}
+			NodeKernel nodeKernel = (NodeKernel) kernel;
+			String name = nodeKernel.node.getName();
+			try {
+				kernel.execute(values);
+			} catch (RuntimeException exc) {
+				throw new IllegalStateException("Node " + name + " can not be calculated", exc);
+			}
+			if (values[nodeKernel.outputSlot] == null
+				|| values[nodeKernel.outputSlot].length != slotSizes[nodeKernel.outputSlot]) {
+				throw new IllegalStateException("Node " + name + " calculates an invalid size");
+			}
+		}
+	}
+
+	/**
+	 * Compile the fused layer that ends with the addition node, if its inputs are
+	 * a weights and a bias node that only feed it. The activation or cross-entropy
+	 * node that follows the addition, when it is its only output, is also fused.
+	 *
+	 * @param addition The addition node.
+	 * @param slots    The map of nodes and slots.
+	 * @param layers   The map of fused kernels by the last node of the chain.
+	 * @param covered  The set of nodes covered by a chain.
+	 */
+	private void compileLayer(
+		AdditionNode addition,
+		Map<Node, Integer> slots,
+		Map<Node, LayerKernel> layers,
+		Set<Node> covered) {
+
+		List<Edge> inputEdges = addition.getInputEdges();
+		if (inputEdges.size() != 2) {
+			return;
+		}
+		WeightsNode weightsNode = null;
+		BiasNode biasNode = null;
+		for (Edge edge : inputEdges) {
+			Node node = edge.getInputNode();
+			if (node == null || node.getOutputEdges().size() != 1) {
+				return;
+			}
+			if (node instanceof WeightsNode) {
+				weightsNode = (WeightsNode) node;
+			}
+			if (node instanceof BiasNode) {
+				biasNode = (BiasNode) node;
+			}
+		}
+		if (weightsNode == null || biasNode == null) {
+			return;
+		}
+
+		LayerKernel kernel = new LayerKernel();
+		kernel.weights = weightsNode.getParameters().get(0);
+		kernel.biases = biasNode.getParameters().get(0);
+		kernel.inputSize = weightsNode.getInputSize();
+		kernel.outputSize = weightsNode.getOutputSize();
+		kernel.rowPointers = weightsNode.getSparseRowPointers();
+		kernel.columns = weightsNode.getSparseColumns();
+		if (kernel.rowPointers != null) {
+			double[] values = new double[kernel.columns.length];
+			for (int in = 0; in < kernel.inputSize; in++) {
+				int row = in * kernel.outputSize;
+				for (int k = kernel.rowPointers[in]; k < kernel.rowPointers[in + 1]; k++) {
+					values[k] = kernel.weights[row + kernel.columns[k]];
+				}
+			}
+			kernel.weights = values;
+		}
+		kernel.inputSlot = getSlot(slots, weightsNode.getInputEdges().get(0));
+		covered.add(weightsNode);
+		covered.add(biasNode);
+
+		Node last = addition;
+		List<Edge> outputEdges = addition.getOutputEdges();
+		if (outputEdges.size() == 1) {
+			Node next = outputEdges.get(0).getOutputNode();
+			if (next instanceof ActivationNode) {
+				kernel.activation = ((ActivationNode) next).getActivation();
+				last = next;
+			}
+			if (next instanceof CrossEntropyNode) {
+				kernel.mode = ((CrossEntropyNode) next).getMode();
+				last = next;
+			}
+		}
+		if (last != addition) {
+			covered.add(addition);
+		}
+		kernel.outputSlot = slots.get(last);
+		layers.put(last, kernel);
+	}
+
+	/**
+	 * Compute the metrics of a batch of patterns, sequentially and in order so that
+	 * the result is the same as a pattern by pattern evaluation.
+	 *
+	 * @param metrics      The metrics.
+	 * @param patterns     The list of patterns.
+	 * @param outputValues The network output values.
+	 */
+	void computeMetrics(Metrics metrics, List<Pattern> patterns, double[][] outputValues) {
+		for (int i = 0; i < patterns.size(); i++) {
+			metrics.compute(patterns.get(i).getOutputValues(), outputValues[i]);
+		}
+	}
+
+	/**
+	 * Return the batch of input values of the list of patterns.
+	 *
+	 * @param patterns The list of patterns.
+	 * @return The batch of input values.
+	 */
+	double[][] getInputValues(List<Pattern> patterns) {
+		double[][] inputValues = new double[patterns.size()][];
+		for (int i = 0; i < patterns.size(); i++) {
+			inputValues[i] = patterns.get(i).getInputValues();
+		}
+		return inputValues;
+	}
+
+	/**
+	 * Return the list of kernels of the plan.
+	 *
+	 * @return The list of kernels.
+	 */
+	List<Kernel> getKernels() {
+		return kernels;
+	}
+
+	/**
+	 * Return the network input size.
+	 *
+	 * @return The input size.
+	 */
+	public int getInputSize() {
+		return inputSize;
+	}
+
+	/**
+	 * Return the network output size.
+	 *
+	 * @return The output size.
+	 */
+	public int getOutputSize() {
+		return outputSize;
+	}
+
+	/**
+	 * Return the list of patterns of a batch.
+	 *
+	 * @param source    The pattern source.
+	 * @param start     The start index.
+	 * @param batchSize The batch size.
+	 * @return The list of patterns.
+	 */
+	List<Pattern> getPatterns(PatternSource source, int start, int batchSize) {
+		int end = Math.min(start + batchSize, source.size());
+		List<Pattern> patterns = new ArrayList<>(end - start);
+		for (int i = start; i < end; i++) {
+			patterns.add(source.get(i));
+		}
+		return patterns;
+	}
+
+	/**
+	 * Return a new arena with the vectors of the slots allocated, except the input
+	 * slot.
+	 *
+	 * @return The arena.
+	 */
+	double[][] newArena() {
+		double[][] vectors = new double[slotSizes.length][];
+		for (int i = 1; i < slotSizes.length; i++) {
+			vectors[i] = new double[slotSizes[i]];
+		}
+		return vectors;
+	}
+
+	/**
+	 * Return the slot that holds the values that flow through the edge.
+	 *
+	 * @param slots The map of nodes and slots.
+	 * @param edge  The edge.
+	 * @return The slot.
+	 */
+	private int getSlot(Map<Node, Integer> slots, Edge edge) {
+		if (edge.getInputNode() == null) {
+			return 0;
+		}
+		Integer slot = slots.get(edge.getInputNode());
+		if (slot == null) {
+			throw new IllegalStateException("Edge input node not in the network");
+		}
+		return slot;
+	}
+}
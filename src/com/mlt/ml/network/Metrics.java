@@ -21,14 +21,13 @@ import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.function.Function;
 
 import com.mlt.ml.function.Matcher;
 import com.mlt.ml.function.match.CategoryMatcher;
 import com.mlt.util.Numbers;
 import com.mlt.util.Strings;
-import com.mlt.util.Vector;
 
 /**
  * Metrics used to eval the performance of a network configuration.
@@ -38,285 +37,465 @@ import com.mlt.util.Vector;
 public class Metrics implements Comparable<Metrics> {
 
 	/**
-	 * Manager of the teai and test history of metrics.
+	 * Running average of the metrics values, updated with one entry at a time.
+	 * The last values are kept in a ring of primitives, so that the simple and the
+	 * weighted moving averages are updated without iterating the period, and the
+	 * exponential moving average just needs the previous average.
+	 */
+	private static class Average {
+		/** Average type, SMA, WMA or EMA. */
+		private String type;
+		/** Period. */
+		private int period;
+		/** Ring of the last values, period rows of VALUES columns. */
+		private double[] ring;
+		/** Plain sums of the values in the ring. */
+		private double[] sums;
+		/** Weighted sums of the values in the ring, the last with weight period. */
+		private double[] weighted;
+		/** Exponential averages. */
+		private double[] ema;
+		/** Number of values added. */
+		private int count;
+		/** Next index in the ring. */
+		private int index;
+
+		/**
+		 * Constructor.
+		 * 
+		 * @param type   Average type.
+		 * @param period Period.
+		 */
+		private Average(String type, int period) {
+			this.type = type;
+			this.period = period;
+			ring = new double[period * VALUES];
+			sums = new double[VALUES];
+			weighted = new double[VALUES];
+			ema = new double[VALUES];
+		}
+
+		/**
+		 * Add the values and return the current averages.
+		 * 
+		 * @param values The values.
+		 * @return The averages.
+		 */
+		private double[] add(double[] values) {
+			int length = Math.min(count, period);
+			int offset = index * VALUES;
+			double alpha = 2.0 / (period + 1);
+			for (int i = 0; i < VALUES; i++) {
+				double value = values[i];
+				if (length == period) {
+					/* The oldest value leaves the window, the rest lose one weight. */
+					double oldest = ring[offset + i];
+					weighted[i] += period * value - sums[i];
+					sums[i] += value - oldest;
+				} else {
+					weighted[i] += (length + 1) * value;
+					sums[i] += value;
+				}
+				ring[offset + i] = value;
+				ema[i] = (count == 0 ? value : ema[i] + alpha * (value - ema[i]));
+			}
+			count++;
+			index = (index + 1) % period;
+			if (index == 0) {
+				refresh();
+			}
+
+			length = Math.min(count, period);
+			double[] averages = new double[VALUES];
+			for (int i = 0; i < VALUES; i++) {
+				if (type.equals("SMA")) {
+					averages[i] = sums[i] / length;
+				}
+				if (type.equals("WMA")) {
+					averages[i] = weighted[i] / (length * (length + 1) / 2.0);
+				}
+				if (type.equals("EMA")) {
+					averages[i] = ema[i];
+				}
+			}
+			return averages;
+		}
+
+		/**
+		 * Clear the state.
+		 */
+		private void clear() {
+			Arrays.fill(ring, 0);
+			Arrays.fill(sums, 0);
+			Arrays.fill(weighted, 0);
+			Arrays.fill(ema, 0);
+			count = 0;
+			index = 0;
+		}
+
+		/**
+		 * Recompute the sums from the ring when it has wrapped, to avoid the drift of
+		 * the running sums. The oldest value is at the start of the ring.
+		 */
+		private void refresh() {
+			for (int i = 0; i < VALUES; i++) {
+				double sum = 0;
+				double sumWeighted = 0;
+				for (int j = 0; j < period; j++) {
+					double value = ring[j * VALUES + i];
+					sum += value;
+					sumWeighted += (j + 1) * value;
+				}
+				sums[i] = sum;
+				weighted[i] = sumWeighted;
+			}
+		}
+	}
+
+	/**
+	 * History of metrics values stored in primitive arrays.
+	 */
+	private static class History {
+		/** Labels. */
+		private String[] labels = new String[64];
+		/** Average absolute errors. */
+		private double[] errAvg = new double[64];
+		/** Average absolute error variations. */
+		private double[] errVar = new double[64];
+		/** Average absolute error standard deviations. */
+		private double[] errStd = new double[64];
+		/** Performances. */
+		private double[] perf = new double[64];
+		/** Performance variations. */
+		private double[] perfVar = new double[64];
+		/** Size. */
+		private int size;
+
+		/**
+		 * Add an entry, calculating the variations vs the previous one.
+		 * 
+		 * @param label  Label.
+		 * @param values Values, error average, error standard deviation and
+		 *               performance.
+		 */
+		private void add(String label, double[] values) {
+			if (size == labels.length) {
+				int capacity = size * 2;
+				labels = Arrays.copyOf(labels, capacity);
+				errAvg = Arrays.copyOf(errAvg, capacity);
+				errVar = Arrays.copyOf(errVar, capacity);
+				errStd = Arrays.copyOf(errStd, capacity);
+				perf = Arrays.copyOf(perf, capacity);
+				perfVar = Arrays.copyOf(perfVar, capacity);
+			}
+			labels[size] = label;
+			errAvg[size] = values[0];
+			errStd[size] = values[1];
+			perf[size] = values[2];
+			errVar[size] = 0;
+			perfVar[size] = 0;
+			if (size > 0) {
+				if (errAvg[size - 1] != 0) {
+					errVar[size] = (errAvg[size] / errAvg[size - 1]) - 1;
+				}
+				if (perf[size - 1] != 0) {
+					perfVar[size] = (perf[size] / perf[size - 1]) - 1;
+				}
+			}
+			size++;
+		}
+
+		/**
+		 * Clear the history.
+		 */
+		private void clear() {
+			Arrays.fill(labels, 0, size, null);
+			size = 0;
+		}
+
+		/**
+		 * Return the history as a list of metrics.
+		 * 
+		 * @param period The period for averages, zero for raw metrics.
+		 * @return The list of metrics.
+		 */
+		private List<Metrics> getMetrics(int period) {
+			List<Metrics> metricsList = new ArrayList<>(size);
+			for (int i = 0; i < size; i++) {
+				Metrics metrics = new Metrics();
+				metrics.label = labels[i];
+				metrics.period = period;
+				metrics.errAvg = errAvg[i];
+				metrics.errVar = errVar[i];
+				metrics.errStd = errStd[i];
+				metrics.perf = perf[i];
+				metrics.perfVar = perfVar[i];
+				metricsList.add(metrics);
+			}
+			return metricsList;
+		}
+	}
+
+	/**
+	 * Manager of the train and test history of metrics. Averages are updated
+	 * incrementally and the summary rows are formatted once, when the metrics are
+	 * added, so that the cost per epoch does not grow with the history.
 	 */
 	public static class Manager {
+		/** Summary column titles. */
+		private static final String[] TITLES = new String[] {
+			"Err raw", "Var raw", "Err avg", "Var avg", "Prf raw", "Var raw", "Prf avg", "Var avg"
+		};
+
 		/** Raw history of train metrics. */
-		private List<Metrics> trainHistoryRaw = new ArrayList<>();
+		private History trainHistoryRaw = new History();
 		/** Raw history of test metrics. */
-		private List<Metrics> testHistoryRaw = new ArrayList<>();
+		private History testHistoryRaw = new History();
 		/** Average history of train metrics. */
-		private List<Metrics> trainHistoryAvg = new ArrayList<>();
+		private History trainHistoryAvg = new History();
 		/** Average history of test metrics. */
-		private List<Metrics> testHistoryAvg = new ArrayList<>();
+		private History testHistoryAvg = new History();
+		/** Running average of train metrics. */
+		private Average trainAverage;
+		/** Running average of test metrics. */
+		private Average testAverage;
+		/** Formatted values of the summary rows. */
+		private List<String> rows = new ArrayList<>();
+		/** Maximum length of the labels. */
+		private int labelLength;
 		/** Decimals to report values. */
 		private int decimals = 6;
 		/** Default average type. */
 		private String averageType = "SMA";
-		/** Funcion to compute the average period, ther argument is the history size. */
-		private Function<Integer, Integer> averagePeriod = (size) -> Math.max(5, size / 4);
+		/** Average period. */
+		private int averagePeriod = 10;
 
 		/**
 		 * Default constructor.
 		 */
 		public Manager() {
-			super();
+			this(6, "SMA", 10);
 		}
 
 		/**
 		 * @param decimals    Decimals to report values.
-		 * @param averageType Average type.
+		 * @param averageType Average type, SMA, WMA or EMA.
 		 */
 		public Manager(int decimals, String averageType) {
+			this(decimals, averageType, 10);
+		}
+
+		/**
+		 * @param decimals      Decimals to report values.
+		 * @param averageType   Average type, SMA, WMA or EMA.
+		 * @param averagePeriod Average period.
+		 */
+		public Manager(int decimals, String averageType, int averagePeriod) {
 			super();
-			if (!Strings.in(averageType, "SMA", "WMA")) {
-				throw new IllegalArgumentException();
+			if (!Strings.in(averageType, "SMA", "WMA", "EMA")) {
+				throw new IllegalArgumentException("Invalid average type: " + averageType);
+			}
+			if (averagePeriod < 1) {
+				throw new IllegalArgumentException("Invalid average period: " + averagePeriod);
 			}
 			this.decimals = decimals;
 			this.averageType = averageType;
+			this.averagePeriod = averagePeriod;
+			trainAverage = new Average(averageType, averagePeriod);
+			testAverage = new Average(averageType, averagePeriod);
 		}
 
 		/**
-		 * Add train and test metrics to the history.
+		 * Add train and test metrics to the history, updating the averages and
+		 * formatting the summary row.
 		 * 
 		 * @param trainMetrics Train metrics.
 		 * @param testMetrics  Test metrics.
 		 */
 		public void add(Metrics trainMetrics, Metrics testMetrics) {
-			trainHistoryRaw.add(trainMetrics);
-			testHistoryRaw.add(testMetrics);
+			double[] trainValues = trainMetrics.valuesAveraged();
+			double[] testValues = testMetrics.valuesAveraged();
+			trainHistoryRaw.add(trainMetrics.label, trainValues);
+			testHistoryRaw.add(testMetrics.label, testValues);
+			trainHistoryAvg.add(averageType, trainAverage.add(trainValues));
+			testHistoryAvg.add(averageType, testAverage.add(testValues));
+			labelLength = Math.max(labelLength, Strings.length(trainMetrics.label));
+			rows.add(formatRow(trainHistoryRaw.size - 1));
 		}
 
 		/**
-		 * Calculate metrics averages.
+		 * Clear the history.
 		 */
-		public void calculateAverages() {
-
-			int size = trainHistoryRaw.size();
-			int period = averagePeriod.apply(size);
-
+		public void clear() {
+			trainHistoryRaw.clear();
+			testHistoryRaw.clear();
 			trainHistoryAvg.clear();
 			testHistoryAvg.clear();
+			trainAverage.clear();
+			testAverage.clear();
+			rows.clear();
+			labelLength = 0;
+		}
 
-			for (int i = 0; i < size; i++) {
-				int index = Math.max(0, i - period + 1);
-
-				List<double[]> rawValuesTrain = new ArrayList<>();
-				for (int j = index; j <= i; j++) {
-					rawValuesTrain.add(trainHistoryRaw.get(j).valuesRaw());
-				}
-				List<double[]> rawValuesTest = new ArrayList<>();
-				for (int j = index; j <= i; j++) {
-					rawValuesTest.add(testHistoryRaw.get(j).valuesRaw());
-				}
+		/**
+		 * Format the values of a row of the summary.
+		 * 
+		 * @param index The index of the row.
+		 * @return The formatted values.
+		 */
+		private String formatRow(int index) {
+			int padColumn = getPadColumn();
+			StringBuilder b = new StringBuilder();
+			formatValues(b, trainHistoryRaw, trainHistoryAvg, index, padColumn);
+			b.append(Strings.repeat(" ", SEP_BLOCK));
+			formatValues(b, testHistoryRaw, testHistoryAvg, index, padColumn);
+			return b.toString();
+		}
 
-				double[] rawAvgTrain = null;
-				double[] rawAvgTest = null;
-				if (averageType.equals("SMA")) {
-					rawAvgTrain = Vector.averageSMA(rawValuesTrain);
-					rawAvgTest = Vector.averageSMA(rawValuesTest);
-				}
-				if (averageType.equals("WMA")) {
-					rawAvgTrain = Vector.averageWMA(rawValuesTrain);
-					rawAvgTest = Vector.averageWMA(rawValuesTest);
+		/**
+		 * Format the values of a block, train or test, of a row of the summary.
+		 * 
+		 * @param b         The builder.
+		 * @param raw       The raw history.
+		 * @param avg       The average history.
+		 * @param index     The index of the row.
+		 * @param padColumn The column width.
+		 */
+		private void formatValues(StringBuilder b, History raw, History avg, int index, int padColumn) {
+			double[] values = new double[] {
+				raw.errAvg[index], raw.errVar[index], avg.errAvg[index], avg.errVar[index],
+				raw.perf[index], raw.perfVar[index], avg.perf[index], avg.perfVar[index]
+			};
+			for (int i = 0; i < values.length; i++) {
+				if (i > 0) {
+					b.append(Strings.repeat(" ", SEP_COLUMN));
 				}
-
-				Metrics avgTrain = new Metrics();
-				avgTrain.label = averageType;
-				avgTrain.period = period;
-				avgTrain.errAvg = rawAvgTrain[0];
-				avgTrain.errVar = rawAvgTrain[1];
-				avgTrain.errStd = rawAvgTrain[2];
-				avgTrain.perf = rawAvgTrain[3];
-				avgTrain.perfVar = rawAvgTrain[4];
-				trainHistoryAvg.add(avgTrain);
-
-				Metrics avgTest = new Metrics();
-				avgTest.label = averageType;
-				avgTest.period = period;
-				avgTest.errAvg = rawAvgTest[0];
-				avgTest.errVar = rawAvgTest[1];
-				avgTest.errStd = rawAvgTest[2];
-				avgTest.perf = rawAvgTest[3];
-				avgTest.perfVar = rawAvgTest[4];
-				testHistoryAvg.add(avgTest);
+				b.append(Strings.leftPad(Numbers.getBigDecimal(values[i], decimals), padColumn));
 			}
 		}
 
 		/**
-		 * Clear the history.
+		 * @return The column width.
 		 */
-		public void clear() {
-			trainHistoryRaw.clear();
-			testHistoryRaw.clear();
+		private int getPadColumn() {
+			int padColumn = decimals + 3;
+			for (String title : TITLES) {
+				padColumn = Math.max(padColumn, title.length());
+			}
+			return padColumn;
 		}
 
 		/**
 		 * @return The average test history, for any analytical purposes.
 		 */
 		public List<Metrics> getTestHistoryAvg() {
-			return testHistoryAvg;
+			return testHistoryAvg.getMetrics(averagePeriod);
 		}
 
 		/**
 		 * @return The raw test history, for any analytical purposes.
 		 */
 		public List<Metrics> getTestHistoryRaw() {
-			return testHistoryRaw;
+			return testHistoryRaw.getMetrics(0);
 		}
 
 		/**
 		 * @return The average train history, for any analytical purposes.
 		 */
 		public List<Metrics> getTrainHistoryAvg() {
-			return trainHistoryAvg;
+			return trainHistoryAvg.getMetrics(averagePeriod);
 		}
 
 		/**
 		 * @return The raw train history, for any analytical purposes.
 		 */
 		public List<Metrics> getTrainHistoryRaw() {
-			return trainHistoryRaw;
+			return trainHistoryRaw.getMetrics(0);
 		}
 
+		/**
+		 * @return The number of entries in the history.
+		 */
+		public int size() {
+			return rows.size();
+		}
+
+		/**
+		 * @return The summary of the full history.
+		 */
 		public String summary() {
+			return summary(rows.size());
+		}
 
-			calculateAverages();
+		/**
+		 * Return the summary of the last rows of the history, with a cost that only
+		 * depends on the number of rows.
+		 * 
+		 * @param lastRows The number of last rows to report.
+		 * @return The summary.
+		 */
+		public String summary(int lastRows) {
 
 			StringWriter s = new StringWriter();
 			PrintWriter p = new PrintWriter(s);
 
-			List<String> titles = new ArrayList<>();
-			titles.add("Err raw");
-			titles.add("Var raw");
-			titles.add("Err avg");
-			titles.add("Var avg");
-			titles.add("Prf raw");
-			titles.add("Var raw");
-			titles.add("Prf avg");
-			titles.add("Var avg");
-
-			int columns = titles.size();
-			int size = trainHistoryRaw.size();
-			int padNumber = decimals + 3;
-			int padColumn = 0;
-			for (String title : titles) {
-				padColumn = Math.max(padColumn, Math.max(padNumber, title.length()));
-			}
-
+			int columns = TITLES.length;
+			int size = rows.size();
+			int padColumn = getPadColumn();
 			int padIndex = Numbers.getDigits(size);
-			int padLabel = 0;
-			for (Metrics metrics : trainHistoryRaw) {
-				padLabel = Math.max(padLabel, Strings.length(metrics.label));
-			}
-			padLabel++;
-			int sepPrefix = 2;
-			int sepColumn = 1;
-			int sepBlock = 2;
-			int padMetrics = padColumn * columns + sepColumn * (columns - 1);
+			int padLabel = labelLength + 1;
+			int padMetrics = padColumn * columns + SEP_COLUMN * (columns - 1);
+			String prefix = Strings.repeat(" ", padIndex + padLabel + SEP_PREFIX);
 
 			/* Headers. */
 
-			p.print(Strings.repeat(" ", padIndex + padLabel + sepPrefix));
+			p.print(prefix);
 			p.print(Strings.centerPad("Training", padMetrics, " "));
-			p.print(Strings.repeat(" ", sepBlock));
+			p.print(Strings.repeat(" ", SEP_BLOCK));
 			p.print(Strings.centerPad("Test", padMetrics, " "));
 			p.println();
 
-			p.print(Strings.repeat(" ", padIndex + padLabel + sepPrefix));
+			p.print(prefix);
 			p.print(Strings.repeat("-", padMetrics));
-			p.print(Strings.repeat(" ", sepBlock));
+			p.print(Strings.repeat(" ", SEP_BLOCK));
 			p.print(Strings.repeat("-", padMetrics));
 			p.println();
 
-			p.print(Strings.repeat(" ", padIndex + padLabel + sepPrefix));
-			for (int i = 0; i < titles.size(); i++) {
-				String title = titles.get(i);
-				if (i > 0) {
-					p.print(Strings.repeat(" ", sepColumn));
+			p.print(prefix);
+			for (int b = 0; b < 2; b++) {
+				if (b > 0) {
+					p.print(Strings.repeat(" ", SEP_BLOCK));
 				}
-				p.print(Strings.leftPad(title, padColumn, " "));
-			}
-			p.print(Strings.repeat(" ", sepBlock));
-			for (int i = 0; i < titles.size(); i++) {
-				String title = titles.get(i);
-				if (i > 0) {
-					p.print(Strings.repeat(" ", sepColumn));
+				for (int i = 0; i < columns; i++) {
+					if (i > 0) {
+						p.print(Strings.repeat(" ", SEP_COLUMN));
+					}
+					p.print(Strings.leftPad(TITLES[i], padColumn, " "));
 				}
-				p.print(Strings.leftPad(title, padColumn, " "));
 			}
 			p.println();
-			
-			p.print(Strings.repeat(" ", padIndex + padLabel + sepPrefix));
-			for (int i = 0; i < titles.size(); i++) {
-				if (i > 0) {
-					p.print(Strings.repeat(" ", sepColumn));
+
+			p.print(prefix);
+			for (int b = 0; b < 2; b++) {
+				if (b > 0) {
+					p.print(Strings.repeat(" ", SEP_BLOCK));
 				}
-				p.print(Strings.repeat("-", padColumn));
-			}
-			p.print(Strings.repeat(" ", sepBlock));
-			for (int i = 0; i < titles.size(); i++) {
-				if (i > 0) {
-					p.print(Strings.repeat(" ", sepColumn));
+				for (int i = 0; i < columns; i++) {
+					if (i > 0) {
+						p.print(Strings.repeat(" ", SEP_COLUMN));
+					}
+					p.print(Strings.repeat("-", padColumn));
 				}
-				p.print(Strings.repeat("-", padColumn));
 			}
 			p.println();
-			
+
 			/* Values. */
 
-			for (int m = 0; m < size; m++) {
-				
-				Metrics trainRaw = trainHistoryRaw.get(m);
-				Metrics testRaw = testHistoryRaw.get(m);
-				Metrics trainAvg = trainHistoryAvg.get(m);
-				Metrics testAvg = testHistoryAvg.get(m);
-				
-				if (m > 0) {
-					trainRaw.variance(trainHistoryRaw.get(m - 1));
-					testRaw.variance(testHistoryRaw.get(m - 1));
-					trainAvg.variance(trainHistoryAvg.get(m - 1));
-					testAvg.variance(testHistoryAvg.get(m - 1));
-				}
-				
-				List<BigDecimal> valuesTrain = new ArrayList<>();
-				valuesTrain.add(Numbers.getBigDecimal(trainRaw.errAvg, decimals));
-				valuesTrain.add(Numbers.getBigDecimal(trainRaw.errVar, decimals));
-				valuesTrain.add(Numbers.getBigDecimal(trainAvg.errAvg, decimals));
-				valuesTrain.add(Numbers.getBigDecimal(trainAvg.errVar, decimals));
-				valuesTrain.add(Numbers.getBigDecimal(trainRaw.perf, decimals));
-				valuesTrain.add(Numbers.getBigDecimal(trainRaw.perfVar, decimals));
-				valuesTrain.add(Numbers.getBigDecimal(trainAvg.perf, decimals));
-				valuesTrain.add(Numbers.getBigDecimal(trainAvg.perfVar, decimals));
-				
-				List<BigDecimal> valuesTest = new ArrayList<>();
-				valuesTest.add(Numbers.getBigDecimal(testRaw.errAvg, decimals));
-				valuesTest.add(Numbers.getBigDecimal(testRaw.errVar, decimals));
-				valuesTest.add(Numbers.getBigDecimal(testAvg.errAvg, decimals));
-				valuesTest.add(Numbers.getBigDecimal(testAvg.errVar, decimals));
-				valuesTest.add(Numbers.getBigDecimal(testRaw.perf, decimals));
-				valuesTest.add(Numbers.getBigDecimal(testRaw.perfVar, decimals));
-				valuesTest.add(Numbers.getBigDecimal(testAvg.perf, decimals));
-				valuesTest.add(Numbers.getBigDecimal(testAvg.perfVar, decimals));
-				
+			for (int m = Math.max(0, size - lastRows); m < size; m++) {
 				p.print(Strings.leftPad(m, padIndex));
-				p.print(Strings.leftPad(trainRaw.label, padLabel));
-				p.print(Strings.repeat(" ", sepPrefix));
-				for (int i = 0; i < valuesTrain.size(); i++) {
-					Number v = valuesTrain.get(i);
-					if (i > 0) {
-						p.print(Strings.repeat(" ", sepColumn));
-					}
-					p.print(Strings.leftPad(v, padColumn));
-				}
-				p.print(Strings.repeat(" ", sepBlock));
-				for (int i = 0; i < valuesTest.size(); i++) {
-					Number v = valuesTest.get(i);
-					if (i > 0) {
-						p.print(Strings.repeat(" ", sepColumn));
-					}
-					p.print(Strings.leftPad(v, padColumn));
-				}
+				p.print(Strings.leftPad(trainHistoryRaw.labels[m], padLabel));
+				p.print(Strings.repeat(" ", SEP_PREFIX));
+				p.print(rows.get(m));
 				p.println();
 			}
 
@@ -325,6 +504,15 @@ public class Metrics implements Comparable<Metrics> {
 		}
 	}
 
+	/** Number of averaged values: error average, error deviation, performance. */
+	private static final int VALUES = 3;
+	/** Summary separator after the row prefix. */
+	private static final int SEP_PREFIX = 2;
+	/** Summary separator between columns. */
+	private static final int SEP_COLUMN = 1;
+	/** Summary separator between train and test blocks. */
+	private static final int SEP_BLOCK = 2;
+
 	/** Label. */
 	private String label;
 	/** Average period. */
@@ -342,8 +530,13 @@ public class Metrics implements Comparable<Metrics> {
 	/** Performance variation vs previous. */
 	private double perfVar;
 
-	/** M-Squared vector. */
+	/** Accumulated absolute errors. */
 	private double[] error;
+	/**
+	 * Confusion matrix, the row is the category of the pattern output and the
+	 * column the category of the network output, null if the length is one.
+	 */
+	private int[][] confusion;
 
 	/** Match function, default is match category. */
 	private Matcher matcher = new CategoryMatcher();
@@ -375,6 +568,9 @@ public class Metrics implements Comparable<Metrics> {
 
 		matches = 0;
 		error = new double[length];
+		if (length > 1) {
+			confusion = new int[length][length];
+		}
 		calls = 0;
 
 		errAvg = 0;
@@ -385,6 +581,22 @@ public class Metrics implements Comparable<Metrics> {
 		perfVar = 0;
 	}
 
+	/**
+	 * Return the category of a vector, the index of its maximum value.
+	 * 
+	 * @param values The vector.
+	 * @return The category.
+	 */
+	private static int category(double[] values) {
+		int index = 0;
+		for (int i = 1; i < values.length; i++) {
+			if (values[i] > values[index]) {
+				index = i;
+			}
+		}
+		return index;
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -409,24 +621,21 @@ public class Metrics implements Comparable<Metrics> {
 		if (matcher.match(patternOutput, networkOutput)) {
 			matches++;
 		}
-		calls++;
-		if (calls < size) {
-			double[] errorTmp = Vector.copy(error);
-			for (int i = 0; i < length; i++) {
-				errorTmp[i] /= ((double) calls);
-			}
-			errAvg = Vector.mean(errorTmp);
-			errStd = Vector.stddev(errorTmp, errAvg);
-			perf = ((double) matches) / ((double) calls);
-		}
-		if (calls == size) {
-			for (int i = 0; i < length; i++) {
-				error[i] /= ((double) size);
-			}
-			errAvg = Vector.mean(error);
-			errStd = Vector.stddev(error, errAvg);
-			perf = ((double) matches) / ((double) size);
+		if (confusion != null) {
+			confusion[category(patternOutput)][category(networkOutput)]++;
 		}
+		calls++;
+		update();
+	}
+
+	/**
+	 * Return the confusion matrix, the row being the category of the pattern
+	 * output and the column the category of the network output.
+	 * 
+	 * @return The confusion matrix, null if the length of the vectors is one.
+	 */
+	public int[][] getConfusion() {
+		return confusion;
 	}
 
 	/**
@@ -478,12 +687,40 @@ public class Metrics implements Comparable<Metrics> {
 		return period;
 	}
 
+	/**
+	 * Merge metrics computed with another range of patterns, for instance by a
+	 * replica of the network, accumulating errors, matches and confusion.
+	 * 
+	 * @param m The metrics to merge.
+	 */
+	public void merge(Metrics m) {
+		if (m.length != length) {
+			throw new IllegalArgumentException("Invalid metrics length");
+		}
+		for (int i = 0; i < length; i++) {
+			error[i] += m.error[i];
+		}
+		if (confusion != null) {
+			for (int i = 0; i < length; i++) {
+				for (int j = 0; j < length; j++) {
+					confusion[i][j] += m.confusion[i][j];
+				}
+			}
+		}
+		matches += m.matches;
+		calls += m.calls;
+		update();
+	}
+
 	/**
 	 * Reset.
 	 */
 	public void reset() {
 		matches = 0;
 		error = new double[length];
+		if (confusion != null) {
+			confusion = new int[length][length];
+		}
 		calls = 0;
 
 		errAvg = 0;
@@ -502,11 +739,37 @@ public class Metrics implements Comparable<Metrics> {
 	}
 
 	/**
-	 * @return The array of raw values.
+	 * Update the error average and standard deviation, and the performance, with
+	 * the values accumulated so far.
+	 */
+	private void update() {
+		if (calls == 0) {
+			return;
+		}
+		double sum = 0;
+		for (int i = 0; i < length; i++) {
+			sum += error[i];
+		}
+		errAvg = sum / calls / length;
+		double variance = 0;
+		if (length > 1) {
+			for (int i = 0; i < length; i++) {
+				double difference = error[i] / calls - errAvg;
+				variance += (difference * difference);
+			}
+			variance /= (length - 1);
+		}
+		errStd = Math.sqrt(variance);
+		perf = ((double) matches) / ((double) calls);
+	}
+
+	/**
+	 * @return The array of values that are averaged: error average, error
+	 *         standard deviation and performance.
 	 */
-	private double[] valuesRaw() {
+	private double[] valuesAveraged() {
 		return new double[] {
-			errAvg, errVar, errStd, perf, perfVar
+			errAvg, errStd, perf
 		};
 	}
 
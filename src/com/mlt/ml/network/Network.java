@@ -27,8 +27,10 @@ import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
 
+import com.mlt.ml.function.ComputePool;
+import com.mlt.ml.function.Optimizer;
 import com.mlt.util.IO;
 import com.mlt.util.Logs;
 
@@ -53,7 +55,7 @@ public class Network {
 		 * Do execute.
 		 */
 		public void execute() {
-			ForkJoinPool.commonPool().invokeAll(functions);
+			ComputePool.get().invokeAll(functions);
 		}
 
 		/**
@@ -145,6 +147,18 @@ public class Network {
 		}
 	}
 
+	/**
+	 * Enumerates the precisions of the saved parameters. Single precision only
+	 * halves the size of the weights in saves and checkpoints: parameters are
+	 * always held, computed and updated in double precision.
+	 */
+	public static enum Precision {
+		/** Double precision, the default. */
+		DOUBLE,
+		/** Weights saved in single precision. */
+		SINGLE
+	}
+
 	/** Internal computational graph. */
 	private Graph graph = new Graph();
 	/** History size. */
@@ -168,6 +182,17 @@ public class Network {
 	private String name;
 	/** Parallel flag. */
 	private boolean parallel = true;
+	/** Buffer pooling flag. */
+	private boolean bufferPooling = false;
+	/** Output values returned when buffer pooling is active. */
+	private double[] outputValues;
+
+	/** Truncated back propagation window, zero to back propagate the history. */
+	private int truncationWindow = 0;
+	/** Truncated back propagation stride. */
+	private int truncationStride = 0;
+	/** Stateful flag, recurrent values are kept across truncated windows. */
+	private boolean stateful = false;
 
 	/**
 	 * Constructor.
@@ -213,6 +238,8 @@ public class Network {
 		forwardConcurrents = graph.getForwardConcurrents();
 		nodes = graph.getNodes();
 		edges = graph.getEdges();
+		edges.forEach(edge -> edge.setBufferPooling(bufferPooling));
+		edges.forEach(edge -> edge.setTruncation(truncationWindow));
 	}
 
 	/**
@@ -242,6 +269,14 @@ public class Network {
 	public void backward(double[] outputDeltas) {
 		outputEdge.pushBackward(outputDeltas);
 
+		/* Truncated, back propagate the window every stride steps. */
+		if (truncationWindow > 0) {
+			if (outputEdge.getBackwardQueueSize() >= truncationStride) {
+				unfoldTruncated();
+			}
+			return;
+		}
+
 		/* Filled up to the history size do unfold. */
 		if (outputEdge.getBackwardQueueSize() < historySize) return;
 
@@ -249,6 +284,23 @@ public class Network {
 		unfold();
 	}
 
+	/**
+	 * Backward pass of a batch of patterns. Pushes the batch of output deltas or
+	 * errors, one row per pattern, and processes all nodes backward, so that
+	 * parameters are updated once per batch.
+	 * 
+	 * @param outputDeltas The batch of output deltas.
+	 */
+	public void backwardBatch(double[][] outputDeltas) {
+		outputEdge.pushBackwardBatch(outputDeltas);
+		for (int i = nodes.size() - 1; i >= 0; i--) {
+			nodes.get(i).backwardBatch();
+		}
+		for (int i = 0; i < edges.size(); i++) {
+			edges.get(i).clearBatch();
+		}
+	}
+
 	/**
 	 * Calculate forwarding the input values.
 	 * 
@@ -269,6 +321,40 @@ public class Network {
 		return forward(inputValues, true);
 	}
 
+	/**
+	 * Forward pass of a batch of patterns in a learning process. Each node
+	 * processes the whole batch at once, for instance weights nodes perform a
+	 * matrix-matrix product. Batches do not keep any history, thus the network can
+	 * not have recurrent edges nor a history size greater than one.
+	 * 
+	 * @param inputValues The batch of input values, one row per pattern.
+	 * @return The batch of network output values.
+	 */
+	public double[][] forwardBatch(double[][] inputValues) {
+		if (historySize > 1) {
+			throw new IllegalStateException("Batches require a history size of one");
+		}
+		if (isRecurrent()) {
+			throw new IllegalStateException("Batches do not admit recurrent edges");
+		}
+		inputEdge.pushForwardBatch(inputValues);
+		for (int i = 0; i < nodes.size(); i++) {
+			nodes.get(i).forwardBatch(inputValues.length);
+		}
+		return outputEdge.getForwardBatch();
+	}
+
+	/**
+	 * Compile a read-only and thread-safe view of a snapshot of this network, that
+	 * evaluates patterns concurrently without using the edges. Further training of
+	 * this network does not affect the inference.
+	 * 
+	 * @return The inference.
+	 */
+	public Inference compileForInference() {
+		return new Inference(clone());
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -309,6 +395,13 @@ public class Network {
 		}
 
 		double[] outputValues = getOutputValues();
+		if (bufferPooling) {
+			if (this.outputValues == null || this.outputValues.length != outputValues.length) {
+				this.outputValues = new double[outputValues.length];
+			}
+			System.arraycopy(outputValues, 0, this.outputValues, 0, outputValues.length);
+			outputValues = this.outputValues;
+		}
 		if (!keepHistory) {
 			while (!inputEdge.isEmpty()) {
 				edges.forEach(edge -> edge.unfold());
@@ -417,6 +510,20 @@ public class Network {
 		return outputEdge.getForwardData();
 	}
 
+	/**
+	 * Return the list of parameter vectors of all the nodes, in the order of the
+	 * nodes. The vectors are returned by reference.
+	 * 
+	 * @return The list of parameter vectors.
+	 */
+	public List<double[]> getParameters() {
+		List<double[]> parameters = new ArrayList<>();
+		for (int i = 0; i < nodes.size(); i++) {
+			parameters.addAll(nodes.get(i).getParameters());
+		}
+		return parameters;
+	}
+
 	/**
 	 * Initialize the network nodes.
 	 */
@@ -425,6 +532,77 @@ public class Network {
 		nodes.forEach(node -> node.initialize());
 	}
 
+	/**
+	 * Check whether the network keeps the recurrent values across truncated
+	 * windows.
+	 * 
+	 * @return A boolean.
+	 */
+	public boolean isStateful() {
+		return stateful;
+	}
+
+	/**
+	 * Check whether the network has recurrent edges.
+	 * 
+	 * @return A boolean.
+	 */
+	public boolean isRecurrent() {
+		for (int i = 0; i < edges.size(); i++) {
+			if (edges.get(i).isRecurrent()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Prune the parameters with the smallest magnitude of all the nodes that
+	 * support it, for instance weights nodes, that then evaluate with sparse
+	 * kernels. The network can be fine tuned afterwards, and pruned again with a
+	 * greater fraction.
+	 * <p>
+	 * Pruning a large fraction at once loses accuracy that fine tuning may not
+	 * recover, use the gradual schedule instead.
+	 * 
+	 * @param fraction The fraction of parameters pruned per node, between 0 and 1.
+	 */
+	public void prune(double fraction) {
+		for (int i = 0; i < nodes.size(); i++) {
+			nodes.get(i).prune(fraction);
+		}
+	}
+
+	/**
+	 * Prune gradually up to the fraction in a number of steps, fine tuning after
+	 * each one. The fraction of each step follows a cubic schedule, that prunes
+	 * fast at the beginning, while many redundant parameters remain, and slowly
+	 * towards the end.
+	 * 
+	 * @param fraction The final fraction of parameters pruned per node.
+	 * @param steps    The number of pruning steps.
+	 * @param fineTune The fine tuning run after each step, for instance some
+	 *                 epochs of training.
+	 */
+	public void prune(double fraction, int steps, Runnable fineTune) {
+		if (steps < 1) {
+			throw new IllegalArgumentException("Invalid pruning steps: " + steps);
+		}
+		for (int step = 1; step <= steps; step++) {
+			double remaining = 1.0 - ((double) step / steps);
+			prune(fraction * (1.0 - remaining * remaining * remaining));
+			fineTune.run();
+		}
+	}
+
+	/**
+	 * Reset the state, clearing the history of values and deltas of all edges, for
+	 * instance at the start of a new sequence in stateful mode.
+	 */
+	public void resetState() {
+		edges.forEach(edge -> edge.initialize());
+	}
+
 	/**
 	 * Restore from an input stream the network data.
 	 * 
@@ -443,6 +621,8 @@ public class Network {
 		forwardConcurrents = graph.getForwardConcurrents();
 		nodes = graph.getNodes();
 		edges = graph.getEdges();
+		edges.forEach(edge -> edge.setBufferPooling(bufferPooling));
+		edges.forEach(edge -> edge.setTruncation(truncationWindow));
 	}
 
 	/**
@@ -458,6 +638,55 @@ public class Network {
 		graph.save(os);
 	}
 
+	/**
+	 * Set the buffer pooling flag. When active, edges reuse the vectors of unfolded
+	 * data, and the output values returned by <em>forward</em> and
+	 * <em>calculate</em> are stored in a vector owned by the network, valid only
+	 * until the next call, so that a steady-state training does not allocate.
+	 * 
+	 * @param bufferPooling A boolean.
+	 */
+	public void setBufferPooling(boolean bufferPooling) {
+		this.bufferPooling = bufferPooling;
+		if (edges != null) {
+			edges.forEach(edge -> edge.setBufferPooling(bufferPooling));
+		}
+	}
+
+	/**
+	 * Set the parameter vectors of all the nodes, in the order returned by
+	 * <em>getParameters</em>. The vectors are assigned by reference, thus setting
+	 * the parameters of another network with the same structure makes both share
+	 * them.
+	 * 
+	 * @param parameters The list of parameter vectors.
+	 */
+	public void setParameters(List<double[]> parameters) {
+		int index = 0;
+		for (int i = 0; i < nodes.size(); i++) {
+			Node node = nodes.get(i);
+			int count = node.getParameters().size();
+			if (index + count > parameters.size()) {
+				throw new IllegalArgumentException("Not enough parameters");
+			}
+			node.setParameters(new ArrayList<>(parameters.subList(index, index + count)));
+			index += count;
+		}
+		if (index != parameters.size()) {
+			throw new IllegalArgumentException("Too many parameters");
+		}
+	}
+
+	/**
+	 * Set the scale applied to the learning rates of all the nodes, driven by the
+	 * learning rate schedules of the trainer.
+	 * 
+	 * @param scale The scale, one by default.
+	 */
+	public void setLearningRateScale(double scale) {
+		nodes.forEach(node -> node.setLearningRateScale(scale));
+	}
+
 	/**
 	 * Set the network root name.
 	 * 
@@ -467,6 +696,74 @@ public class Network {
 		this.name = name;
 	}
 
+	/**
+	 * Set an optimizer to all the nodes that support it, each node with its own
+	 * instance.
+	 * 
+	 * @param optimizer The supplier of optimizer instances.
+	 */
+	public void setOptimizer(Supplier<Optimizer> optimizer) {
+		for (int i = 0; i < nodes.size(); i++) {
+			nodes.get(i).setOptimizer(optimizer.get());
+		}
+	}
+
+	/**
+	 * Set the precision of the saved parameters to all the nodes that support it.
+	 * 
+	 * @param precision The precision.
+	 */
+	public void setPrecision(Precision precision) {
+		if (precision == null) {
+			throw new IllegalArgumentException("Precision is null");
+		}
+		for (int i = 0; i < nodes.size(); i++) {
+			nodes.get(i).setPrecision(precision);
+		}
+	}
+
+	/**
+	 * Set the stateful flag. When stateful, the last values of recurrent edges,
+	 * the hidden state, are kept after a truncated backward pass and feed the next
+	 * forward pass, without keeping any gradient. Otherwise, the state is reset
+	 * when the window does not overlap the next one.
+	 * 
+	 * @param stateful A boolean.
+	 */
+	public void setStateful(boolean stateful) {
+		this.stateful = stateful;
+	}
+
+	/**
+	 * Set truncated back propagation through time. Every <em>stride</em> calls to
+	 * <em>backward</em>, the deltas of those steps are back propagated through the
+	 * last <em>window</em> steps, recurrent edges carrying the deltas of each step
+	 * to the previous one, and only the values of the <em>window - stride</em>
+	 * most recent steps, overlapped by the next window, are kept. Edges hold at
+	 * most <em>window</em> values, one more if recurrent, in a ring of reused
+	 * vectors, thus memory and time do not grow with the sequence length.
+	 * <p>
+	 * Branch nodes that feed a recurrent edge and other output edges must collect
+	 * their deltas backward by addition.
+	 * 
+	 * @param window The number of steps back propagated, zero to back propagate
+	 *               the history size as usual.
+	 * @param stride The number of steps between backward passes.
+	 */
+	public void setTruncation(int window, int stride) {
+		if (window < 0) {
+			throw new IllegalArgumentException("Invalid truncation window: " + window);
+		}
+		if (window > 0 && (stride < 1 || stride > window)) {
+			throw new IllegalArgumentException("Invalid truncation stride: " + stride);
+		}
+		this.truncationWindow = window;
+		this.truncationStride = (window > 0 ? stride : 0);
+		if (edges != null) {
+			edges.forEach(edge -> edge.setTruncation(truncationWindow));
+		}
+	}
+
 	/**
 	 * Set the parallel flag.
 	 * 
@@ -496,4 +793,44 @@ public class Network {
 			}
 		}
 	}
+
+	/**
+	 * Apply truncated backward unfolding. Nodes are processed backward once per
+	 * step of the window, from the most recent, the edges stepping back through
+	 * the values, that are then truncated to the overlap with the next window.
+	 * Steps older than the stride have no output deltas, only the deltas that
+	 * recurrent edges carry back, and parameter nodes without deltas skip the
+	 * update.
+	 */
+	private void unfoldTruncated() {
+		for (int i = 0; i < edges.size(); i++) {
+			edges.get(i).rewind();
+		}
+		int steps = Math.min(truncationWindow, inputEdge.getForwardQueueSize());
+		for (int step = 0; step < steps; step++) {
+			if (parallel) {
+				for (Concurrent concurrent : backwardConcurrents) {
+					concurrent.execute();
+				}
+			} else {
+				for (int i = nodes.size() - 1; i >= 0; i--) {
+					nodes.get(i).backward();
+				}
+			}
+			for (int i = 0; i < edges.size(); i++) {
+				edges.get(i).step();
+			}
+		}
+		int keep = truncationWindow - truncationStride;
+		for (int i = 0; i < edges.size(); i++) {
+			Edge edge = edges.get(i);
+			if (edge.isRecurrent()) {
+				/* One more value read one step back, or the state if stateful. */
+				edge.truncate(keep > 0 ? keep + 1 : (stateful ? 1 : 0));
+			} else {
+				edge.truncate(keep);
+			}
+		}
+	}
+
 }
@@ -29,7 +29,9 @@ import java.util.UUID;
 
 import com.mlt.ml.function.Activation;
 import com.mlt.ml.function.Collector;
+import com.mlt.ml.function.Optimizer;
 import com.mlt.util.IO;
+import com.mlt.util.Matrix;
 import com.mlt.util.Properties;
 import com.mlt.util.Strings;
 
@@ -102,6 +104,22 @@ public abstract class Node {
 	 */
 	public abstract void backward();
 
+	/**
+	 * Request a batch of deltas, apply any parameter update once for the whole
+	 * batch, and push the batch of deltas to input edges.
+	 */
+	public abstract void backwardBatch();
+
+	/**
+	 * Calculate the output values of the node given the list of input values, one
+	 * per input edge, without using nor modifying any internal state, thus safe to
+	 * be called concurrently by read-only evaluations.
+	 * 
+	 * @param inputValues The list of input values, in the order of input edges.
+	 * @return A new vector of output values.
+	 */
+	public abstract double[] calculate(List<double[]> inputValues);
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -120,6 +138,15 @@ public abstract class Node {
 	 */
 	public abstract void forward();
 
+	/**
+	 * Request a batch of values from input edges, apply node calculations and push
+	 * the batch of values to output edges.
+	 * 
+	 * @param batchSize The number of patterns in the batch, required by nodes
+	 *                  without input edges.
+	 */
+	public abstract void forwardBatch(int batchSize);
+
 	/**
 	 * @return The branch index of the branch, the order in which the branch was
 	 *         added.
@@ -235,6 +262,33 @@ public abstract class Node {
 	 */
 	public abstract int getOutputSize();
 
+	/**
+	 * Return the list of parameter vectors, like weights, that the node uses to
+	 * calculate. The vectors are returned by reference, not copied, so that they
+	 * can be shared or merged among replicas of a network. By default a node has
+	 * no parameters.
+	 * 
+	 * @return The list of parameter vectors.
+	 */
+	public List<double[]> getParameters() {
+		return new ArrayList<>();
+	}
+
+	/**
+	 * Return the checkpoint input stream that holds the tensors referenced by the
+	 * properties being restored.
+	 * 
+	 * @param is The input stream.
+	 * @return The checkpoint input stream.
+	 * @throws IOException If the stream is not a checkpoint stream.
+	 */
+	private static Checkpoint.TensorInputStream getTensorInput(InputStream is) throws IOException {
+		if (!(is instanceof Checkpoint.TensorInputStream)) {
+			throw new IOException("Tensor references require a checkpoint");
+		}
+		return (Checkpoint.TensorInputStream) is;
+	}
+
 	/**
 	 * Return the list of all siblings of this node, including it.
 	 * 
@@ -354,6 +408,18 @@ public abstract class Node {
 		}
 	}
 
+	/**
+	 * Helper to push backward the batch of input deltas as output deltas of input
+	 * edges.
+	 * 
+	 * @param inputDeltas The batch of input deltas.
+	 */
+	protected void pushBackwardBatch(double[][] inputDeltas) {
+		for (int i = 0; i < inputEdges.size(); i++) {
+			inputEdges.get(i).pushBackwardBatch(inputDeltas);
+		}
+	}
+
 	/**
 	 * Helper to push forward the output values as input values of output edges.
 	 * 
@@ -365,6 +431,26 @@ public abstract class Node {
 		}
 	}
 
+	/**
+	 * Prune the parameters of the node with the smallest magnitude, that are
+	 * fixed to zero afterwards. Nodes that do not support pruning ignore it.
+	 * 
+	 * @param fraction The fraction of parameters pruned, between 0 and 1.
+	 */
+	public void prune(double fraction) {}
+
+	/**
+	 * Helper to push forward the batch of output values as input values of output
+	 * edges.
+	 * 
+	 * @param outputValues The batch of output values.
+	 */
+	protected void pushForwardBatch(double[][] outputValues) {
+		for (int i = 0; i < outputEdges.size(); i++) {
+			outputEdges.get(i).pushForwardBatch(outputValues);
+		}
+	}
+
 	/**
 	 * Restore from an input stream.
 	 * 
@@ -414,11 +500,39 @@ public abstract class Node {
 				properties.setDouble2A(key, IO.readDouble2A(is));
 				continue;
 			}
+			/* Float1A. */
+			if (type.equals("Float1A")) {
+				properties.setFloat1A(key, IO.readFloat1A(is));
+				continue;
+			}
+			/* TensorF1A, a float vector stored in a checkpoint tensor block. */
+			if (type.equals("TensorF1A")) {
+				properties.setFloat1A(key, getTensorInput(is).getFloatTensor(IO.readInt(is)));
+				continue;
+			}
+			/* Tensor1A, a vector stored in a checkpoint tensor block. */
+			if (type.equals("Tensor1A")) {
+				properties.setDouble1A(key, getTensorInput(is).getTensor(IO.readInt(is)));
+				continue;
+			}
+			/* Tensor2A, a matrix stored in a checkpoint tensor block. */
+			if (type.equals("Tensor2A")) {
+				int rows = IO.readInt(is);
+				int columns = IO.readInt(is);
+				double[] tensor = getTensorInput(is).getTensor(IO.readInt(is));
+				properties.setDouble2A(key, Matrix.unflatten(tensor, rows, columns));
+				continue;
+			}
 			/* Integer. */
 			if (type.equals("Integer")) {
 				properties.setInteger(key, IO.readInt(is));
 				continue;
 			}
+			/* Integer1A. */
+			if (type.equals("Integer1A")) {
+				properties.setInteger1A(key, IO.readInt1A(is));
+				continue;
+			}
 			/* Long. */
 			if (type.equals("Long")) {
 				properties.setLong(key, IO.readLong(is));
@@ -453,6 +567,18 @@ public abstract class Node {
 				properties.setObject(key, collector);
 				continue;
 			}
+			/* Optimizer, its state is saved in other properties. */
+			if (type.equals("Optimizer")) {
+				String className = IO.readString(is);
+				Optimizer optimizer = null;
+				try {
+					optimizer = (Optimizer) Class.forName(className).newInstance();
+				} catch (Exception exc) {
+					throw new IOException(exc);
+				}
+				properties.setObject(key, optimizer);
+				continue;
+			}
 			/* Node. */
 			if (type.equals("Node")) {
 				String className = IO.readString(is);
@@ -522,16 +648,44 @@ public abstract class Node {
 				IO.writeDouble(os, (Double) value);
 				continue;
 			}
-			/* Double1A. */
+			/* Double1A, or Tensor1A in a checkpoint. */
 			if (value instanceof double[]) {
 				IO.writeString(os, key);
+				if (os instanceof Checkpoint.TensorOutputStream) {
+					Checkpoint.TensorOutputStream tos = (Checkpoint.TensorOutputStream) os;
+					IO.writeString(os, "Tensor1A");
+					IO.writeInt(os, tos.addTensor((double[]) value));
+					continue;
+				}
 				IO.writeString(os, "Double1A");
 				IO.writeDouble1A(os, (double[]) value);
 				continue;
 			}
-			/* Double2A. */
+			/* Float1A, or TensorF1A in a checkpoint. */
+			if (value instanceof float[]) {
+				IO.writeString(os, key);
+				if (os instanceof Checkpoint.TensorOutputStream) {
+					Checkpoint.TensorOutputStream tos = (Checkpoint.TensorOutputStream) os;
+					IO.writeString(os, "TensorF1A");
+					IO.writeInt(os, tos.addTensor((float[]) value));
+					continue;
+				}
+				IO.writeString(os, "Float1A");
+				IO.writeFloat1A(os, (float[]) value);
+				continue;
+			}
+			/* Double2A, or Tensor2A in a checkpoint if the matrix is not ragged. */
 			if (value instanceof double[][]) {
 				IO.writeString(os, key);
+				double[][] matrix = (double[][]) value;
+				if (os instanceof Checkpoint.TensorOutputStream && Matrix.isRectangular(matrix)) {
+					Checkpoint.TensorOutputStream tos = (Checkpoint.TensorOutputStream) os;
+					IO.writeString(os, "Tensor2A");
+					IO.writeInt(os, Matrix.rows(matrix));
+					IO.writeInt(os, Matrix.cols(matrix));
+					IO.writeInt(os, tos.addTensor(Matrix.flatten(matrix)));
+					continue;
+				}
 				IO.writeString(os, "Double2A");
 				IO.writeDouble2A(os, (double[][]) value);
 				continue;
@@ -543,6 +697,13 @@ public abstract class Node {
 				IO.writeInt(os, (Integer) value);
 				continue;
 			}
+			/* Integer1A. */
+			if (value instanceof int[]) {
+				IO.writeString(os, key);
+				IO.writeString(os, "Integer1A");
+				IO.writeInt1A(os, (int[]) value);
+				continue;
+			}
 			/* Long. */
 			if (value instanceof Long) {
 				IO.writeString(os, key);
@@ -571,6 +732,13 @@ public abstract class Node {
 				IO.writeString(os, value.getClass().getName());
 				continue;
 			}
+			/* Optimizer. */
+			if (value instanceof Optimizer) {
+				IO.writeString(os, key);
+				IO.writeString(os, "Optimizer");
+				IO.writeString(os, value.getClass().getName());
+				continue;
+			}
 			/* Node. */
 			if (value instanceof Node) {
 				Node node = (Node) value;
@@ -591,6 +759,22 @@ public abstract class Node {
 		properties.setInteger("branch-index", branchIndex);
 	}
 
+	/**
+	 * Set the scale applied to the learning rates of the node. Nodes without
+	 * parameters ignore it.
+	 * 
+	 * @param scale The scale, one by default.
+	 */
+	public void setLearningRateScale(double scale) {}
+
+	/**
+	 * Set the optimizer that updates the parameters of the node. Nodes without
+	 * parameters or that do not support optimizers ignore it.
+	 * 
+	 * @param optimizer The optimizer, an instance not shared with other nodes.
+	 */
+	public void setOptimizer(Optimizer optimizer) {}
+
 	/**
 	 * @param branchOrder The order of the node within the branch definition.
 	 */
@@ -598,6 +782,28 @@ public abstract class Node {
 		properties.setInteger("branch-order", branchOrder);
 	}
 
+	/**
+	 * Set the precision of the saved parameters. Nodes without parameters or that
+	 * do not support single precision ignore it.
+	 * 
+	 * @param precision The precision.
+	 */
+	public void setPrecision(Network.Precision precision) {}
+
+	/**
+	 * Set the list of parameter vectors, in the same order and with the same sizes
+	 * as returned by <em>getParameters</em>. The vectors are assigned by
+	 * reference, thus setting the parameters of another node makes both nodes
+	 * share them.
+	 * 
+	 * @param parameters The list of parameter vectors.
+	 */
+	public void setParameters(List<double[]> parameters) {
+		if (!parameters.isEmpty()) {
+			throw new IllegalArgumentException(getName() + " has no parameters");
+		}
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
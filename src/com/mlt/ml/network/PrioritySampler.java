@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2018 Miquel Sas
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mlt.ml.network;
+
+import java.util.Random;
+
+/**
+ * A sampler of indexes weighted by priorities, backed by a sum tree over a
+ * primitive array. Leaves hold the priorities and each inner node the sum of
+ * its children, so that updating a priority and drawing an index with
+ * probability proportional to its priority are both <em>O(log n)</em>.
+ * <p>
+ * Used by the trainer to draw the patterns of score epochs by their error,
+ * updating the priority of each pattern as soon as it is processed.
+ *
+ * @author Miquel Sas
+ */
+public class PrioritySampler {
+
+	/** Number of indexes. */
+	private int size;
+	/** Number of leaves, the power of two not less than the size. */
+	private int leaves;
+	/** Tree of sums, root at 1 and leaves from <em>leaves</em>. */
+	private double[] tree;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param size The number of indexes.
+	 */
+	public PrioritySampler(int size) {
+		super();
+		if (size < 1) {
+			throw new IllegalArgumentException("Invalid size: " + size);
+		}
+		this.size = size;
+		this.leaves = Integer.highestOneBit(size);
+		if (leaves < size) {
+			leaves <<= 1;
+		}
+		this.tree = new double[2 * leaves];
+	}
+
+	/**
+	 * Check that a priority is valid.
+	 *
+	 * @param priority The priority.
+	 */
+	private void checkPriority(double priority) {
+		if (!(priority >= 0) || Double.isInfinite(priority)) {
+			throw new IllegalArgumentException("Invalid priority: " + priority);
+		}
+	}
+
+	/**
+	 * Fill all priorities with the same value, making draws uniform.
+	 *
+	 * @param priority The priority.
+	 */
+	public void fill(double priority) {
+		checkPriority(priority);
+		for (int i = 0; i < size; i++) {
+			tree[leaves + i] = priority;
+		}
+		for (int node = leaves - 1; node >= 1; node--) {
+			tree[node] = tree[2 * node] + tree[2 * node + 1];
+		}
+	}
+
+	/**
+	 * Return the priority of an index.
+	 *
+	 * @param index The index.
+	 * @return The priority.
+	 */
+	public double getPriority(int index) {
+		return tree[leaves + index];
+	}
+
+	/**
+	 * @return The number of indexes.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Draw an index with probability proportional to its priority.
+	 *
+	 * @param random The random generator.
+	 * @return The index.
+	 */
+	public int sample(Random random) {
+		double total = tree[1];
+		if (total <= 0) {
+			return random.nextInt(size);
+		}
+		double value = random.nextDouble() * total;
+		int node = 1;
+		while (node < leaves) {
+			int left = 2 * node;
+			if (value < tree[left] || tree[left + 1] <= 0) {
+				node = left;
+			} else {
+				value -= tree[left];
+				node = left + 1;
+			}
+		}
+		return Math.min(node - leaves, size - 1);
+	}
+
+	/**
+	 * Draw a range of indexes with probability proportional to their priorities.
+	 *
+	 * @param indexes The destination array.
+	 * @param start   The start position in the destination.
+	 * @param count   The number of indexes to draw.
+	 * @param random  The random generator.
+	 */
+	public void sample(int[] indexes, int start, int count, Random random) {
+		for (int i = start; i < start + count; i++) {
+			indexes[i] = sample(random);
+		}
+	}
+
+	/**
+	 * @return The sum of all priorities.
+	 */
+	public double total() {
+		return tree[1];
+	}
+
+	/**
+	 * Update the priority of an index and the sums of its ancestors.
+	 *
+	 * @param index    The index.
+	 * @param priority The new priority, not negative.
+	 */
+	public void update(int index, double priority) {
+		checkPriority(priority);
+		if (index < 0 || index >= size) {
+			throw new IllegalArgumentException("Invalid index: " + index);
+		}
+		int node = leaves + index;
+		tree[node] = priority;
+		node >>= 1;
+		while (node >= 1) {
+			tree[node] = tree[2 * node] + tree[2 * node + 1];
+			node >>= 1;
+		}
+	}
+}
@@ -18,33 +18,34 @@
 package com.mlt.ml.network;
 
 import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.FileWriter;
-import java.io.IOException;
 import java.io.PrintWriter;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
-import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ThreadLocalRandom;
 
 import com.mlt.desktop.Alert;
 import com.mlt.desktop.FileChooser;
 import com.mlt.desktop.Option;
+import com.mlt.ml.data.Augmenter;
 import com.mlt.ml.data.Pattern;
 import com.mlt.ml.data.PatternSource;
+import com.mlt.ml.data.Prefetcher;
+import com.mlt.ml.function.ComputePool;
 import com.mlt.ml.function.Distance;
 import com.mlt.ml.function.Matcher;
 import com.mlt.ml.function.distance.DistanceEuclidean;
 import com.mlt.ml.function.match.CategoryMatcher;
 import com.mlt.task.Task;
-import com.mlt.util.Lists;
 import com.mlt.util.Numbers;
 import com.mlt.util.Strings;
 import com.mlt.util.Vector;
@@ -92,6 +93,31 @@ public class Trainer extends Task {
 		}
 	}
 
+	/**
+	 * Train metrics streamed during an epoch, and the test metrics calculated in
+	 * the background on a snapshot of the network at the end of the epoch.
+	 */
+	private static class Evaluation {
+		/** Epoch. */
+		private int epoch;
+		/** Train metrics. */
+		private Metrics trainMetrics;
+		/** Snapshot of the network. */
+		private Network snapshot;
+		/** Pending test metrics. */
+		private Future<Metrics> testMetrics;
+	}
+
+	/**
+	 * Enumerates the modes replicas of the network merge their parameters.
+	 */
+	public static enum ReplicaMode {
+		/** Replicas share the parameter vectors and update them without locks. */
+		HOGWILD,
+		/** Replicas parameters are averaged after each replica processes a batch. */
+		SYNCHRONOUS
+	}
+
 	/** Option new file. */
 	private static final String OPTION_NEW_FILE = "NEW-FILE";
 	/** Option use existing. */
@@ -106,6 +132,11 @@ public class Trainer extends Task {
 	/** Status key of additional processes. */
 	private static final String STATUS_PROCESSING = "STATUS-PROCESSING";
 
+	/** Minimum sampling priority of a pattern. */
+	private static final double MIN_PRIORITY = 0.01;
+	/** Number of last rows of the metrics summary printed to the console. */
+	private static final int CONSOLE_SUMMARY_ROWS = 50;
+
 	/** The network. */
 	private Network network;
 	/** The training pattern source. */
@@ -114,6 +145,20 @@ public class Trainer extends Task {
 	private PatternSource sourceTest;
 	/** The number of epochs or turns to the full list of patterns. */
 	private int epochs = 500;
+	/** The batch size, one means that patterns are processed one by one. */
+	private int batchSize = 1;
+	/** The number of patterns evaluated concurrently when calculating metrics. */
+	private int metricsBatchSize = 256;
+	/** The number of replicas of the network trained concurrently. */
+	private int replicas = 1;
+	/** The mode replicas merge their parameters. */
+	private ReplicaMode replicaMode = ReplicaMode.SYNCHRONOUS;
+	/** The list of replica networks, the first being the network itself. */
+	private List<Network> replicaNetworks;
+	/** Distance function used to score patterns. */
+	private Distance distanceFunction = new DistanceEuclidean();
+	/** Matcher function used to score patterns. */
+	private Matcher matcherFunction = new CategoryMatcher();
 	/** The file to save the network. */
 	private File file;
 	/** Shuffle flag indicator. */
@@ -125,6 +170,25 @@ public class Trainer extends Task {
 	/** Percentages decimals. */
 	private int percentageDecimals = 2;
 
+	/**
+	 * Stream metrics flag. When set, train metrics are accumulated from the
+	 * outputs of the training pass and test metrics are calculated in the
+	 * background, one epoch behind, instead of calculating both again after each
+	 * epoch.
+	 */
+	private boolean streamMetrics = false;
+	/** Executor of background test metrics. */
+	private ExecutorService evaluator;
+	/** Pending background evaluation. */
+	private Evaluation evaluation;
+	/** Best train metrics. */
+	private Metrics bestTrainMetrics;
+	/** Best test metrics. */
+	private Metrics bestTestMetrics;
+
+	/** Pending asynchronous checkpoint save. */
+	private Future<Void> checkpoint;
+
 	/** File path. */
 	private String filePath;
 	/** File root name. */
@@ -147,6 +211,18 @@ public class Trainer extends Task {
 	/** The name of the report file. */
 	private String reportFile;
 
+	/** Callbacks that control the training. */
+	private List<TrainerCallback> callbacks = new ArrayList<>();
+	/** Stop requested by a callback. */
+	private boolean stopRequested;
+
+	/** Number of rounds prepared ahead in the background, zero to disable. */
+	private int prefetchDepth = 0;
+	/** Number of threads that prepare the rounds ahead. */
+	private int prefetchThreads = 1;
+	/** Optional augmenter of the training patterns. */
+	private Augmenter augmenter;
+
 	/**
 	 * Constructor.
 	 */
@@ -166,9 +242,49 @@ public class Trainer extends Task {
 	}
 
 	/**
-	 * Calculate the metrics.
+	 * Add a callback that controls the training.
+	 * 
+	 * @param callback The callback.
+	 */
+	public void addCallback(TrainerCallback callback) {
+		callbacks.add(callback);
+	}
+
+	/**
+	 * Average the parameters of the replicas and assign the average to all of
+	 * them, in synchronous mode.
+	 */
+	private void averageParameters() {
+		List<double[]> parameters = network.getParameters();
+		double scale = 1.0 / replicaNetworks.size();
+		for (int r = 1; r < replicaNetworks.size(); r++) {
+			List<double[]> replicaParameters = replicaNetworks.get(r).getParameters();
+			for (int p = 0; p < parameters.size(); p++) {
+				double[] average = parameters.get(p);
+				Vector.axpy(1.0, replicaParameters.get(p), 0, average, 0, average.length);
+			}
+		}
+		for (int p = 0; p < parameters.size(); p++) {
+			double[] average = parameters.get(p);
+			for (int i = 0; i < average.length; i++) {
+				average[i] *= scale;
+			}
+		}
+		for (int r = 1; r < replicaNetworks.size(); r++) {
+			List<double[]> replicaParameters = replicaNetworks.get(r).getParameters();
+			for (int p = 0; p < parameters.size(); p++) {
+				double[] average = parameters.get(p);
+				System.arraycopy(average, 0, replicaParameters.get(p), 0, average.length);
+			}
+		}
+	}
+
+	/**
+	 * Calculate the metrics. Non recurrent networks are evaluated by batches of
+	 * patterns, concurrently, on a read-only inference snapshot.
 	 * 
-	 * @param train Train/test indicator.
+	 * @param label  The metrics label.
+	 * @param source The pattern source.
 	 * @return The metrics.
 	 */
 	private Metrics calculateMetrics(String label, PatternSource source) {
@@ -180,20 +296,33 @@ public class Trainer extends Task {
 		int size = source.size();
 		Metrics metrics = new Metrics(label, length, size);
 
-		for (int i = 0; i < size; i++) {
+		Inference inference = null;
+		int batchSize = 1;
+		if (!network.isRecurrent()) {
+			inference = network.compileForInference();
+			batchSize = metricsBatchSize;
+		}
+
+		for (int i = 0; i < size; i += batchSize) {
 
 			if (isCancelRequested()) {
 				setCancelled();
 				return metrics;
 			}
 
-			Pattern pattern = source.get(i);
-			double[] patternInput = pattern.getInputValues();
-			double[] patternOutput = pattern.getOutputValues();
-			double[] networkOutput = network.calculate(patternInput);
-			metrics.compute(patternOutput, networkOutput);
+			if (inference != null) {
+				List<Pattern> patterns = inference.getPatterns(source, i, batchSize);
+				double[][] networkOutputs = inference.calculate(inference.getInputValues(patterns));
+				inference.computeMetrics(metrics, patterns, networkOutputs);
+			} else {
+				Pattern pattern = source.get(i);
+				double[] patternInput = pattern.getInputValues();
+				double[] patternOutput = pattern.getOutputValues();
+				double[] networkOutput = network.calculate(patternInput);
+				metrics.compute(patternOutput, networkOutput);
+			}
 
-			int index = i + 1;
+			int index = Math.min(i + batchSize, size);
 			double percent = (double) (index * 100) / (double) size;
 			StringBuilder msg = new StringBuilder();
 			msg.append("Calculating ");
@@ -256,11 +385,15 @@ public class Trainer extends Task {
 		setTitle(file.getName());
 		updateStatusLabel(STATUS_PROCESSING, LABEL_PROCESSING, "Restoring the network data...");
 		if (file != null && file.exists() && file.length() != 0) {
-			FileInputStream fi = new FileInputStream(file);
-			BufferedInputStream bi = new BufferedInputStream(fi);
-			network.restore(bi);
-			bi.close();
-			fi.close();
+			if (Checkpoint.isCheckpoint(file)) {
+				Checkpoint.restore(network, file);
+			} else {
+				FileInputStream fi = new FileInputStream(file);
+				BufferedInputStream bi = new BufferedInputStream(fi);
+				network.restore(bi);
+				bi.close();
+				fi.close();
+			}
 		}
 		clearStatusLabel(STATUS_PROCESSING, LABEL_PROCESSING);
 		return true;
@@ -301,12 +434,26 @@ public class Trainer extends Task {
 		printMetrics();
 
 		/* Best metrics. */
-		Metrics bestTrainMetrics = trainMetrics;
-		Metrics bestTestMetrics = testMetrics;
+		bestTrainMetrics = trainMetrics;
+		bestTestMetrics = testMetrics;
+
+		/* Replicas, if any, are created once the network is restored. */
+		replicaNetworks = createReplicas();
 
-		Distance distanceFunction = new DistanceEuclidean();
-		Matcher matcherFunction = new CategoryMatcher();
-		TreeMap<Double, Integer> scoreMap = new TreeMap<>((a, b) -> (Double.compare(a, b) * -1));
+		/* Reset the callbacks. */
+		stopRequested = false;
+		callbacks.forEach(callback -> callback.onTrainBegin(this));
+
+		/* Sampler of score epochs, uniform until the first flat scan scores. */
+		PrioritySampler sampler = new PrioritySampler(sourceTrain.size());
+		sampler.fill(1.0);
+
+		/* Producers of the rounds ahead, if prefetching. */
+		Prefetcher prefetcher = null;
+		if (prefetchDepth > 0) {
+			prefetcher = new Prefetcher(sourceTrain, prefetchDepth, prefetchThreads);
+			prefetcher.setAugmenter(augmenter);
+		}
 
 		/* Iterate epochs. Start with a flat scan. */
 		calculateTotalWork();
@@ -321,69 +468,109 @@ public class Trainer extends Task {
 				break;
 			}
 
+			/* Notify the callbacks, check stop and apply the learning rate scale. */
+			for (TrainerCallback callback : callbacks) {
+				callback.onEpochBegin(this, epoch);
+			}
+			if (stopRequested) {
+				break;
+			}
+			double learningRateScale = getLearningRateScale(epoch);
+			replicaNetworks.forEach(replica -> replica.setLearningRateScale(learningRateScale));
+
 			/*
-			 * List of pattern indexes. To build the list of indexes, first decide whether
-			 * to scan flat the training source or to scan a fraction of the the worst
-			 * scored patterns.
+			 * List of pattern indexes. A flat scan processes the whole training source,
+			 * while a score scan draws the indexes of each round by the priorities of the
+			 * patterns, updated as soon as they are processed.
 			 */
 			int[] indexes = null;
 			if (scanFlat) {
 				indexes = getIndexesFlat(sourceTrain.size());
+				if (shuffle) {
+					Vector.shuffle(indexes);
+				}
 			} else {
-				indexes = getIndexesScore(sourceTrain.size(), scoreMap);
-			}
-			if (shuffle) {
-				Vector.shuffle(indexes);
+				indexes = new int[sourceTrain.size()];
 			}
 
 			int size = indexes.length;
+			double[] scores = new double[size];
+			List<Metrics> streamedMetrics = null;
+			if (streamMetrics) {
+				streamedMetrics = new ArrayList<>();
+				for (int r = 0; r < replicaNetworks.size(); r++) {
+					streamedMetrics.add(new Metrics(null, network.getOutputSize(), size));
+				}
+			}
+			int roundSize = getRoundSize(size);
+			int submitted = 0;
 			removeStatusProgress(STATUS_PROCESSING, PROGRESS_PROCESSING);
-			for (int i = 0; i < size; i++) {
+			for (int i = 0; i < size; i += roundSize) {
 
 				if (isCancelRequested()) {
 					setCancelled();
 					break;
 				}
 
-				workDone += 1;
+				int count = Math.min(roundSize, size - i);
+				workDone += count;
 
-				boolean update = checkUpdate(i + 1, size);
+				boolean update = (roundSize > 1 || checkUpdate(i + 1, size));
 				if (update) {
-					update(getMessage(epoch, i + 1, size), workDone, totalWork);
+					update(getMessage(epoch, i + count, size), workDone, totalWork);
 					
-					double percent = (double) ((i + 1) * 100) / (double) size;
+					double percent = (double) ((i + count) * 100) / (double) size;
 					
 					StringBuilder msg = new StringBuilder();
 					msg.append("Calculating ");
-					msg.append(i + 1);
+					msg.append(i + count);
 					msg.append(" of ");
 					msg.append(size);
 					msg.append(" (");
 					msg.append(Numbers.getBigDecimal(percent, percentageDecimals));
 					msg.append("%)");
 
-					updateStatusProgress(STATUS_PROCESSING, PROGRESS_PROCESSING, msg, i + 1, size);
+					updateStatusProgress(STATUS_PROCESSING, PROGRESS_PROCESSING, msg, i + count, size);
 				}
 
-				int index = indexes[i];
-				Pattern pattern = sourceTrain.get(index);
-				double[] patternOutput = pattern.getOutputValues();
-				double[] networkOutput = network.forward(pattern.getInputValues());
-				double[] networkDeltas = Vector.subtract(patternOutput, networkOutput);
-				network.backward(networkDeltas);
-
-				double distance = distanceFunction.distance(patternOutput, networkOutput);
-				boolean match = matcherFunction.match(patternOutput, networkOutput);
-				distance *= (match ? -1.0 : 1.0);
-				scoreMap.put(distance, index);
+				/*
+				 * When prefetching, keep the queue of rounds ahead full and take the current
+				 * one. Score epochs draw the indexes of a round when it is submitted, with the
+				 * priorities known at that moment.
+				 */
+				Prefetcher.Batch batch = null;
+				if (prefetcher != null) {
+					while (submitted < size && !prefetcher.isFull()) {
+						int submitCount = Math.min(roundSize, size - submitted);
+						if (!scanFlat) {
+							sampler.sample(indexes, submitted, submitCount, ThreadLocalRandom.current());
+						}
+						prefetcher.submit(indexes, submitted, submitCount);
+						submitted += submitCount;
+					}
+					batch = prefetcher.take();
+				} else if (!scanFlat) {
+					sampler.sample(indexes, i, count, ThreadLocalRandom.current());
+				}
+				if (replicaNetworks.size() == 1) {
+					Metrics metrics = (streamMetrics ? streamedMetrics.get(0) : null);
+					train(network, batch, indexes, scores, metrics, i, count);
+				} else {
+					trainReplicas(batch, indexes, scores, streamedMetrics, i, count);
+				}
 
-				/* Adjust internal per step. */
-				network.adjustStep();
+				/* Register the priorities of the patterns processed. */
+				for (int j = i; j < i + count; j++) {
+					sampler.update(indexes[j], getPriority(scores[j]));
+				}
 			}
 			removeStatusProgress(STATUS_PROCESSING, PROGRESS_PROCESSING);
+			if (prefetcher != null) {
+				prefetcher.clear();
+			}
 
 			/* Last network unfold if history size is not a multiple of the source size. */
-			network.unfold();
+			replicaNetworks.forEach(replica -> replica.unfold());
 
 			/* Check cancelled. */
 			if (isCancelled()) {
@@ -392,28 +579,50 @@ public class Trainer extends Task {
 
 			/* Calculate metrics. */
 			String label = scanFlat ? "FLAT" : "SCORE";
-			trainMetrics = calculateMetrics(label, sourceTrain);
-			testMetrics = calculateMetrics("TEST", sourceTest);
-			metricsMngr.add(trainMetrics, testMetrics);
-			printMetrics();
+			if (streamMetrics) {
+				trainMetrics = new Metrics(label, network.getOutputSize(), size);
+				for (Metrics metrics : streamedMetrics) {
+					trainMetrics.merge(metrics);
+				}
+				registerEvaluation();
+				evaluation = evaluate(epoch, trainMetrics);
+
+				/* Callbacks must decide on this epoch before the next one starts. */
+				if (!callbacks.isEmpty()) {
+					registerEvaluation();
+				}
+			} else {
+				trainMetrics = calculateMetrics(label, sourceTrain);
+				testMetrics = calculateMetrics("TEST", sourceTest);
+				registerMetrics(epoch, trainMetrics, testMetrics, network);
+			}
 
 			/* Adjust internals per iteration or batch. */
 			network.adjustBatch(false);
 
-			/* Save data if both metrics are better than the best metrics. */
-			if (saveNetworkData &&
-				trainMetrics.compareTo(bestTrainMetrics) > 0 &&
-				testMetrics.compareTo(bestTestMetrics) > 0) {
-
-				bestTrainMetrics = trainMetrics;
-				bestTestMetrics = testMetrics;
-
-				saveNetwork();
-			}
-
 			/* Change scan flag. */
 			scanFlat = score ? !scanFlat : true;
 		}
+		if (prefetcher != null) {
+			prefetcher.shutdown();
+		}
+
+		/* Register the last background evaluation, discard it if cancelled. */
+		if (isCancelled()) {
+			if (evaluation != null) {
+				evaluation.testMetrics.cancel(true);
+				evaluation = null;
+			}
+		} else {
+			registerEvaluation();
+		}
+		if (evaluator != null) {
+			evaluator.shutdown();
+			evaluator = null;
+		}
+
+		/* Wait for the last checkpoint to be written. */
+		waitCheckpoint();
 
 		/* Compute has finished, generate a report if required. */
 		if (!isCancelled() && generateReport) {
@@ -429,6 +638,65 @@ public class Trainer extends Task {
 		}
 	}
 
+	/**
+	 * Create the list of replica networks. The first replica is the network
+	 * itself, the rest are clones that, in hogwild mode, share its parameters.
+	 * 
+	 * @return The list of replicas.
+	 */
+	private List<Network> createReplicas() {
+		List<Network> replicaNetworks = new ArrayList<>();
+		replicaNetworks.add(network);
+		for (int r = 1; r < replicas; r++) {
+			Network replica = network.clone();
+			replica.setParallel(false);
+			if (replicaMode == ReplicaMode.HOGWILD) {
+				replica.setParameters(network.getParameters());
+			}
+			replicaNetworks.add(replica);
+		}
+		if (replicas > 1) {
+			network.setParallel(false);
+		}
+		return replicaNetworks;
+	}
+
+	/**
+	 * Take a snapshot of the network and calculate the test metrics on it in the
+	 * background.
+	 * 
+	 * @param epoch        The epoch.
+	 * @param trainMetrics The streamed train metrics.
+	 * @return The evaluation.
+	 */
+	private Evaluation evaluate(int epoch, Metrics trainMetrics) {
+		if (evaluator == null) {
+			evaluator = Executors.newSingleThreadExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "TEST-METRICS");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		Evaluation evaluation = new Evaluation();
+		evaluation.epoch = epoch;
+		evaluation.trainMetrics = trainMetrics;
+		evaluation.snapshot = network.clone();
+		Network snapshot = evaluation.snapshot;
+		evaluation.testMetrics = evaluator.submit(() -> {
+			if (snapshot.isRecurrent()) {
+				Metrics metrics = new Metrics("TEST", snapshot.getOutputSize(), sourceTest.size());
+				for (int i = 0; i < sourceTest.size(); i++) {
+					Pattern pattern = sourceTest.get(i);
+					metrics.compute(pattern.getOutputValues(), snapshot.calculate(pattern.getInputValues()));
+				}
+				return metrics;
+			}
+			Inference inference = new Inference(snapshot);
+			return inference.calculateMetrics("TEST", sourceTest, metricsBatchSize);
+		});
+		return evaluation;
+	}
+
 	/**
 	 * @return The file option.
 	 */
@@ -484,30 +752,6 @@ public class Trainer extends Task {
 		return indexes;
 	}
 
-	/**
-	 * @param size     The size or number of indexes.
-	 * @param scoreMap The score map.
-	 * @return The list of score indexes.
-	 */
-	private int[] getIndexesScore(int size, TreeMap<Double, Integer> scoreMap) {
-		int scoreSize = ThreadLocalRandom.current().nextInt(size / 2) + 1;
-		int[] scoreIndexes = new int[scoreSize];
-		Iterator<Integer> iter = scoreMap.values().iterator();
-		int index = 0;
-		while (iter.hasNext()) {
-			scoreIndexes[index++] = iter.next();
-			if (index >= scoreSize) {
-				break;
-			}
-		}
-		List<Integer> indexes = new ArrayList<>();
-		while (indexes.size() < size) {
-			int i = ThreadLocalRandom.current().nextInt(scoreSize);
-			indexes.add(scoreIndexes[i]);
-		}
-		return Lists.toIntegerArray(indexes);
-	}
-
 	/**
 	 * @param epoch The epoch.
 	 * @param index Index.
@@ -529,6 +773,87 @@ public class Trainer extends Task {
 		return msg.toString();
 	}
 
+	/**
+	 * Return the sampling priority of a pattern given its score. Mismatched
+	 * patterns rank above any matched one, by their distance, and matched patterns
+	 * keep a small priority growing with their distance to the target, so that
+	 * every pattern can still be drawn.
+	 * 
+	 * @param score The score, the distance negative if the outputs match.
+	 * @return The priority.
+	 */
+	private double getPriority(double score) {
+		if (score >= 0) {
+			return 1.0 + score;
+		}
+		return MIN_PRIORITY + Math.min(-score, 1.0 - MIN_PRIORITY);
+	}
+
+	/**
+	 * Return the scale of the learning rates for an epoch, the product of the
+	 * scales of the callbacks.
+	 * 
+	 * @param epoch The epoch.
+	 * @return The scale.
+	 */
+	private double getLearningRateScale(int epoch) {
+		double scale = 1.0;
+		for (TrainerCallback callback : callbacks) {
+			scale *= callback.getLearningRateScale(epoch);
+		}
+		return scale;
+	}
+
+	/**
+	 * Return the number of patterns processed in a round, between progress updates
+	 * and, in synchronous mode, parameters merges.
+	 * 
+	 * @param size The number of patterns of the epoch.
+	 * @return The round size.
+	 */
+	private int getRoundSize(int size) {
+		int roundSize = batchSize * replicas;
+		if (replicas > 1 && replicaMode == ReplicaMode.HOGWILD) {
+			/* Hogwild replicas run independently, rounds only to report progress. */
+			roundSize *= Math.max(1, size / (100 * roundSize));
+		}
+		return roundSize;
+	}
+
+	/**
+	 * Return the training pattern at a position of the indexes, from the prepared
+	 * batch if prefetching, or from the source and augmented if required.
+	 * 
+	 * @param batch    The prepared batch or null.
+	 * @param indexes  The indexes of the patterns of the epoch.
+	 * @param position The position in the indexes.
+	 * @return The pattern.
+	 */
+	private Pattern getPattern(Prefetcher.Batch batch, int[] indexes, int position) {
+		if (batch != null) {
+			return batch.getPattern(position);
+		}
+		Pattern pattern = sourceTrain.get(indexes[position]);
+		if (augmenter != null) {
+			pattern = augmenter.augment(pattern, ThreadLocalRandom.current());
+		}
+		return pattern;
+	}
+
+	/**
+	 * Return the score of a pattern, the distance between the pattern and the
+	 * network outputs, negative if they match.
+	 * 
+	 * @param patternOutput The pattern output.
+	 * @param networkOutput The network output.
+	 * @return The score.
+	 */
+	private double getScore(double[] patternOutput, double[] networkOutput) {
+		double distance = distanceFunction.distance(patternOutput, networkOutput);
+		boolean match = matcherFunction.match(patternOutput, networkOutput);
+		return distance * (match ? -1.0 : 1.0);
+	}
+
 	/**
 	 * Return a new valid file name.
 	 * 
@@ -555,40 +880,104 @@ public class Trainer extends Task {
 		return file;
 	}
 
+	/**
+	 * Wait for the pending background evaluation, if any, and register its
+	 * metrics.
+	 * 
+	 * @throws Exception If an error occurs calculating the test metrics.
+	 */
+	private void registerEvaluation() throws Exception {
+		if (evaluation != null) {
+			Evaluation pending = evaluation;
+			evaluation = null;
+			registerMetrics(pending.epoch, pending.trainMetrics, pending.testMetrics.get(), pending.snapshot);
+		}
+	}
+
+	/**
+	 * Add the metrics to the history and print them, and save the network data if
+	 * both metrics are better than the best metrics, and notify the callbacks.
+	 * 
+	 * @param epoch        The epoch.
+	 * @param trainMetrics The train metrics.
+	 * @param testMetrics  The test metrics.
+	 * @param network      The network or snapshot the metrics were calculated with.
+	 * @throws Exception If an error occurs in the previous save.
+	 */
+	private void registerMetrics(
+		int epoch,
+		Metrics trainMetrics,
+		Metrics testMetrics,
+		Network network) throws Exception {
+		metricsMngr.add(trainMetrics, testMetrics);
+		printMetrics();
+		if (saveNetworkData &&
+			trainMetrics.compareTo(bestTrainMetrics) > 0 &&
+			testMetrics.compareTo(bestTestMetrics) > 0) {
+
+			bestTrainMetrics = trainMetrics;
+			bestTestMetrics = testMetrics;
+
+			saveNetwork(network);
+		}
+		for (TrainerCallback callback : callbacks) {
+			callback.onEpochEnd(this, epoch, trainMetrics, testMetrics);
+		}
+	}
+
 	private void printMetrics() {
 		consoleClear();
-		consolePrint(metricsMngr.summary());
+		consolePrint(metricsMngr.summary(CONSOLE_SUMMARY_ROWS));
 	}
 
 	/**
-	 * Save the network data.
+	 * Save the network data as a checkpoint, in a background thread, after the
+	 * previous save has finished.
 	 * 
-	 * @throws IOException
+	 * @param network The network or snapshot to save.
+	 * @throws Exception If an error occurs in the previous save.
 	 */
-	private void saveNetwork() throws IOException {
+	private void saveNetwork(Network network) throws Exception {
 		if (file != null) {
-			String name = file.getName() + ".save";
-			File fileSave = new File(file.getParentFile(), name);
-			FileOutputStream fo = null;
-			BufferedOutputStream bo = null;
-			try {
-				fo = new FileOutputStream(fileSave);
-				bo = new BufferedOutputStream(fo);
-				network.save(bo);
-				bo.close();
-				fo.close();
-				if (file.exists()) {
-					file.delete();
-				}
-				fileSave.renameTo(file);
-			} finally {
-				bo.close();
-				fo.close();
-				if (fileSave.exists()) {
-					fileSave.delete();
-				}
-			}
+			waitCheckpoint();
+			checkpoint = Checkpoint.saveAsync(network, file);
+		}
+	}
+
+	/**
+	 * Return the network being trained.
+	 * 
+	 * @return The network.
+	 */
+	public Network getNetwork() {
+		return network;
+	}
+
+	/**
+	 * Request the training to stop at the begin of the next epoch.
+	 */
+	public void requestStop() {
+		stopRequested = true;
+	}
+
+	/**
+	 * @param augmenter The augmenter of the input values of the training patterns,
+	 *                  applied every time they are processed, or null.
+	 */
+	public void setAugmenter(Augmenter augmenter) {
+		this.augmenter = augmenter;
+	}
+
+	/**
+	 * @param batchSize The number of patterns processed at once in a forward and
+	 *                  backward pass. A batch size of one processes patterns one by
+	 *                  one, the network being able to keep a history.
+	 */
+	public void setBatchSize(int batchSize) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("Invalid batch size: " + batchSize);
 		}
+		this.batchSize = batchSize;
 	}
 
 	/**
@@ -628,6 +1017,17 @@ public class Trainer extends Task {
 		this.reportFile = reportFile;
 	}
 
+	/**
+	 * @param metricsBatchSize The number of patterns evaluated concurrently when
+	 *                         calculating metrics.
+	 */
+	public void setMetricsBatchSize(int metricsBatchSize) {
+		if (metricsBatchSize < 1) {
+			throw new IllegalArgumentException("Invalid metrics batch size: " + metricsBatchSize);
+		}
+		this.metricsBatchSize = metricsBatchSize;
+	}
+
 	/**
 	 * @param network The network.
 	 */
@@ -656,6 +1056,44 @@ public class Trainer extends Task {
 		this.percentageDecimals = percentageDecimals;
 	}
 
+	/**
+	 * Set the number of rounds of patterns prepared ahead in the background, and
+	 * the number of threads that prepare them, so that training does not wait for
+	 * patterns costly to build or augment.
+	 * 
+	 * @param depth   The number of rounds prepared ahead, zero to disable.
+	 * @param threads The number of threads that prepare the rounds.
+	 */
+	public void setPrefetch(int depth, int threads) {
+		if (depth < 0) {
+			throw new IllegalArgumentException("Invalid prefetch depth: " + depth);
+		}
+		if (threads < 1) {
+			throw new IllegalArgumentException("Invalid number of prefetch threads: " + threads);
+		}
+		this.prefetchDepth = depth;
+		this.prefetchThreads = threads;
+	}
+
+	/**
+	 * Set the number of replicas of the network trained concurrently, each on a
+	 * shard of the patterns of every round, and the mode they merge their
+	 * parameters.
+	 * 
+	 * @param replicas    The number of replicas, one to train only the network.
+	 * @param replicaMode The replica mode.
+	 */
+	public void setReplicas(int replicas, ReplicaMode replicaMode) {
+		if (replicas < 1) {
+			throw new IllegalArgumentException("Invalid number of replicas: " + replicas);
+		}
+		if (replicaMode == null) {
+			throw new IllegalArgumentException("Replica mode is null");
+		}
+		this.replicas = replicas;
+		this.replicaMode = replicaMode;
+	}
+
 	/**
 	 * @param saveNetworkData A boolean indicating whether to save the network.
 	 */
@@ -677,6 +1115,124 @@ public class Trainer extends Task {
 		this.shuffle = shuffle;
 	}
 
+	/**
+	 * @param streamMetrics A boolean indicating whether to stream train metrics
+	 *                      from the training pass and calculate test metrics in the
+	 *                      background, one epoch behind. Train metrics are then
+	 *                      those of the patterns of the epoch while the network
+	 *                      learns them. When callbacks are registered, the test
+	 *                      metrics of each epoch are waited for at its end, so
+	 *                      that callbacks can stop or adjust the next epoch.
+	 */
+	public void setStreamMetrics(boolean streamMetrics) {
+		this.streamMetrics = streamMetrics;
+	}
+
+	/**
+	 * Train a network with a range of the patterns, processing them one by one or
+	 * by batches, and store the score of each pattern.
+	 * 
+	 * @param network The network, either the main one or a replica.
+	 * @param batch   The prepared batch of the round or null.
+	 * @param indexes The indexes of the patterns of the epoch.
+	 * @param scores  The scores by position in the indexes.
+	 * @param metrics The metrics to accumulate the outputs, or null.
+	 * @param start   The start position in the indexes.
+	 * @param count   The number of patterns to process.
+	 */
+	private void train(
+		Network network,
+		Prefetcher.Batch batch,
+		int[] indexes,
+		double[] scores,
+		Metrics metrics,
+		int start,
+		int count) {
+		int end = start + count;
+		for (int i = start; i < end; i += batchSize) {
+			int size = Math.min(batchSize, end - i);
+			if (batchSize == 1) {
+				Pattern pattern = getPattern(batch, indexes, i);
+				double[] patternOutput = pattern.getOutputValues();
+				double[] networkOutput = network.forward(pattern.getInputValues());
+				double[] networkDeltas = Vector.subtract(patternOutput, networkOutput);
+				network.backward(networkDeltas);
+				scores[i] = getScore(patternOutput, networkOutput);
+				if (metrics != null) {
+					metrics.compute(patternOutput, networkOutput);
+				}
+			} else {
+				double[][] patternInputs = new double[size][];
+				double[][] patternOutputs = new double[size][];
+				for (int b = 0; b < size; b++) {
+					Pattern pattern = getPattern(batch, indexes, i + b);
+					patternInputs[b] = pattern.getInputValues();
+					patternOutputs[b] = pattern.getOutputValues();
+				}
+				double[][] networkOutputs = network.forwardBatch(patternInputs);
+				double[][] networkDeltas = new double[size][];
+				for (int b = 0; b < size; b++) {
+					networkDeltas[b] = Vector.subtract(patternOutputs[b], networkOutputs[b]);
+				}
+				network.backwardBatch(networkDeltas);
+				for (int b = 0; b < size; b++) {
+					scores[i + b] = getScore(patternOutputs[b], networkOutputs[b]);
+					if (metrics != null) {
+						metrics.compute(patternOutputs[b], networkOutputs[b]);
+					}
+				}
+			}
+
+			/* Adjust internal per step. */
+			network.adjustStep();
+		}
+	}
+
+	/**
+	 * Train the replicas concurrently, each with a shard of the range of patterns,
+	 * and average their parameters in synchronous mode.
+	 * 
+	 * @param batch   The prepared batch of the round or null.
+	 * @param indexes The indexes of the patterns of the epoch.
+	 * @param scores  The scores by position in the indexes.
+	 * @param metrics The metrics per replica to accumulate the outputs, or null.
+	 * @param start   The start position in the indexes.
+	 * @param count   The number of patterns to process.
+	 * @throws Exception If any replica fails.
+	 */
+	private void trainReplicas(
+		Prefetcher.Batch batch,
+		int[] indexes,
+		double[] scores,
+		List<Metrics> metrics,
+		int start,
+		int count) throws Exception {
+		int end = start + count;
+		int shard = (count + replicaNetworks.size() - 1) / replicaNetworks.size();
+		shard = ((shard + batchSize - 1) / batchSize) * batchSize;
+		List<Callable<Void>> calls = new ArrayList<>();
+		for (int r = 0; r < replicaNetworks.size(); r++) {
+			int shardStart = start + r * shard;
+			if (shardStart >= end) {
+				break;
+			}
+			int shardCount = Math.min(shard, end - shardStart);
+			Network replica = replicaNetworks.get(r);
+			Metrics replicaMetrics = (metrics != null ? metrics.get(r) : null);
+			calls.add(() -> {
+				train(replica, batch, indexes, scores, replicaMetrics, shardStart, shardCount);
+				return null;
+			});
+		}
+		List<Future<Void>> futures = ComputePool.get().invokeAll(calls);
+		for (Future<Void> future : futures) {
+			future.get();
+		}
+		if (replicaMode == ReplicaMode.SYNCHRONOUS) {
+			averageParameters();
+		}
+	}
+
 	/**
 	 * Validate the task after setting the network, the files and the sources.
 	 */
@@ -706,4 +1262,17 @@ public class Trainer extends Task {
 			}
 		}
 	}
+
+	/**
+	 * Wait for the pending checkpoint save, if any, to finish.
+	 * 
+	 * @throws Exception If an error occurs in the save.
+	 */
+	private void waitCheckpoint() throws Exception {
+		if (checkpoint != null) {
+			Future<Void> pending = checkpoint;
+			checkpoint = null;
+			pending.get();
+		}
+	}
 }
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2018 Miquel Sas
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mlt.ml.network;
+
+/**
+ * Callback that controls a training process. Callbacks are notified when the
+ * training begins and at the begin and end of each epoch, can request the
+ * trainer to stop and contribute a scale to the learning rates of the network.
+ * The scales of all the callbacks are multiplied and applied before each epoch.
+ * <p>
+ * When the trainer streams metrics and callbacks are registered, the trainer
+ * waits for the test metrics of each epoch at its end, so the end of an epoch
+ * is always notified before the next epoch begins.
+ *
+ * @author Miquel Sas
+ */
+public interface TrainerCallback {
+
+	/**
+	 * Return the scale of the learning rates for the epoch.
+	 * 
+	 * @param epoch The epoch, starting at one.
+	 * @return The scale.
+	 */
+	default double getLearningRateScale(int epoch) {
+		return 1.0;
+	}
+
+	/**
+	 * Notify that an epoch begins.
+	 * 
+	 * @param trainer The trainer.
+	 * @param epoch   The epoch, starting at one.
+	 */
+	default void onEpochBegin(Trainer trainer, int epoch) {}
+
+	/**
+	 * Notify that the metrics of an epoch have been calculated.
+	 * 
+	 * @param trainer      The trainer.
+	 * @param epoch        The epoch, starting at one.
+	 * @param trainMetrics The train metrics.
+	 * @param testMetrics  The test metrics.
+	 */
+	default void onEpochEnd(Trainer trainer, int epoch, Metrics trainMetrics, Metrics testMetrics) {}
+
+	/**
+	 * Notify that the training begins, to reset the state of the callback.
+	 * 
+	 * @param trainer The trainer.
+	 */
+	default void onTrainBegin(Trainer trainer) {}
+}
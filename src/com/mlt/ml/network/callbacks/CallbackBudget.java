@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2018 Miquel Sas
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mlt.ml.network.callbacks;
+
+import com.mlt.ml.network.Trainer;
+import com.mlt.ml.network.TrainerCallback;
+
+/**
+ * Stops the training when a budget of epochs or of elapsed time is exhausted,
+ * checked at the begin of each epoch.
+ *
+ * @author Miquel Sas
+ */
+public class CallbackBudget implements TrainerCallback {
+
+	/** Maximum number of epochs, zero for no limit. */
+	private int maxEpochs;
+	/** Maximum elapsed milliseconds, zero for no limit. */
+	private long maxMillis;
+	/** Start time. */
+	private long startTime;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param maxEpochs The maximum number of epochs, zero for no limit.
+	 * @param maxMillis The maximum elapsed milliseconds, zero for no limit.
+	 */
+	public CallbackBudget(int maxEpochs, long maxMillis) {
+		super();
+		if (maxEpochs < 0) {
+			throw new IllegalArgumentException("Invalid maximum epochs: " + maxEpochs);
+		}
+		if (maxMillis < 0) {
+			throw new IllegalArgumentException("Invalid maximum time: " + maxMillis);
+		}
+		this.maxEpochs = maxEpochs;
+		this.maxMillis = maxMillis;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void onEpochBegin(Trainer trainer, int epoch) {
+		if (maxEpochs > 0 && epoch > maxEpochs) {
+			trainer.requestStop();
+		}
+		if (maxMillis > 0 && System.currentTimeMillis() - startTime >= maxMillis) {
+			trainer.requestStop();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void onTrainBegin(Trainer trainer) {
+		startTime = System.currentTimeMillis();
+	}
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2018 Miquel Sas
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mlt.ml.network.callbacks;
+
+import com.mlt.ml.network.Metrics;
+import com.mlt.ml.network.Trainer;
+import com.mlt.ml.network.TrainerCallback;
+
+/**
+ * Stops the training when the test performance has not improved by a minimum
+ * delta for a number of epochs.
+ *
+ * @author Miquel Sas
+ */
+public class CallbackEarlyStopping implements TrainerCallback {
+
+	/** Number of epochs without improvement before stopping. */
+	private int patience;
+	/** Minimum increase of the performance considered an improvement. */
+	private double minDelta;
+	/** Best test performance. */
+	private double best;
+	/** Number of epochs since the best performance. */
+	private int wait;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param patience The number of epochs without improvement before stopping.
+	 * @param minDelta The minimum increase of the performance considered an
+	 *                 improvement.
+	 */
+	public CallbackEarlyStopping(int patience, double minDelta) {
+		super();
+		if (patience < 1) {
+			throw new IllegalArgumentException("Invalid patience: " + patience);
+		}
+		this.patience = patience;
+		this.minDelta = minDelta;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void onEpochEnd(Trainer trainer, int epoch, Metrics trainMetrics, Metrics testMetrics) {
+		double perf = testMetrics.getPerf();
+		if (perf > best + minDelta) {
+			best = perf;
+			wait = 0;
+			return;
+		}
+		wait++;
+		if (wait >= patience) {
+			trainer.requestStop();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void onTrainBegin(Trainer trainer) {
+		best = Double.NEGATIVE_INFINITY;
+		wait = 0;
+	}
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2018 Miquel Sas
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mlt.ml.network.callbacks;
+
+import com.mlt.ml.network.Metrics;
+import com.mlt.ml.network.Trainer;
+import com.mlt.ml.network.TrainerCallback;
+
+/**
+ * Reduces the learning rates by a factor when the test performance has not
+ * improved by a minimum delta for a number of epochs, down to a minimum scale.
+ *
+ * @author Miquel Sas
+ */
+public class CallbackReduceOnPlateau implements TrainerCallback {
+
+	/** Factor applied to the scale on each plateau. */
+	private double factor;
+	/** Number of epochs without improvement that make a plateau. */
+	private int patience;
+	/** Minimum increase of the performance considered an improvement. */
+	private double minDelta;
+	/** Minimum scale. */
+	private double minScale;
+	/** Current scale. */
+	private double scale;
+	/** Best test performance. */
+	private double best;
+	/** Number of epochs since the best performance or the last reduction. */
+	private int wait;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param factor   The factor applied to the scale on each plateau.
+	 * @param patience The number of epochs without improvement that make a
+	 *                 plateau.
+	 * @param minDelta The minimum increase of the performance considered an
+	 *                 improvement.
+	 * @param minScale The minimum scale.
+	 */
+	public CallbackReduceOnPlateau(double factor, int patience, double minDelta, double minScale) {
+		super();
+		if (factor <= 0 || factor >= 1) {
+			throw new IllegalArgumentException("Invalid factor: " + factor);
+		}
+		if (patience < 1) {
+			throw new IllegalArgumentException("Invalid patience: " + patience);
+		}
+		this.factor = factor;
+		this.patience = patience;
+		this.minDelta = minDelta;
+		this.minScale = minScale;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public double getLearningRateScale(int epoch) {
+		return scale;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void onEpochEnd(Trainer trainer, int epoch, Metrics trainMetrics, Metrics testMetrics) {
+		double perf = testMetrics.getPerf();
+		if (perf > best + minDelta) {
+			best = perf;
+			wait = 0;
+			return;
+		}
+		wait++;
+		if (wait >= patience) {
+			scale = Math.max(scale * factor, minScale);
+			wait = 0;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void onTrainBegin(Trainer trainer) {
+		scale = 1.0;
+		best = Double.NEGATIVE_INFINITY;
+		wait = 0;
+	}
+}
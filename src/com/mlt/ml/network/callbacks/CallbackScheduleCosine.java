@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2018 Miquel Sas
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mlt.ml.network.callbacks;
+
+import com.mlt.ml.network.TrainerCallback;
+
+/**
+ * Cosine annealing schedule, that decreases the scale of the learning rates
+ * from one to a minimum along a period of epochs, following half a cosine
+ * wave, and restarts at one after each period.
+ *
+ * @author Miquel Sas
+ */
+public class CallbackScheduleCosine implements TrainerCallback {
+
+	/** Number of epochs of a period. */
+	private int period;
+	/** Minimum scale at the end of a period. */
+	private double minScale;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param period   The number of epochs of a period.
+	 * @param minScale The minimum scale at the end of a period.
+	 */
+	public CallbackScheduleCosine(int period, double minScale) {
+		super();
+		if (period < 1) {
+			throw new IllegalArgumentException("Invalid period: " + period);
+		}
+		this.period = period;
+		this.minScale = minScale;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public double getLearningRateScale(int epoch) {
+		double phase = (double) ((epoch - 1) % period) / (double) period;
+		return minScale + (1 - minScale) * 0.5 * (1 + Math.cos(Math.PI * phase));
+	}
+}
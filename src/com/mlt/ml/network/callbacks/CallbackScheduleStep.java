@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2018 Miquel Sas
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mlt.ml.network.callbacks;
+
+import com.mlt.ml.network.TrainerCallback;
+
+/**
+ * Step schedule, that multiplies the scale of the learning rates by a factor
+ * every number of epochs.
+ *
+ * @author Miquel Sas
+ */
+public class CallbackScheduleStep implements TrainerCallback {
+
+	/** Number of epochs of each step. */
+	private int step;
+	/** Factor applied on each step. */
+	private double factor;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param step   The number of epochs of each step.
+	 * @param factor The factor applied on each step.
+	 */
+	public CallbackScheduleStep(int step, double factor) {
+		super();
+		if (step < 1) {
+			throw new IllegalArgumentException("Invalid step: " + step);
+		}
+		this.step = step;
+		this.factor = factor;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public double getLearningRateScale(int epoch) {
+		return Math.pow(factor, (epoch - 1) / step);
+	}
+}
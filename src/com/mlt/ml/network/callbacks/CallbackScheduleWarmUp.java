@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2018 Miquel Sas
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mlt.ml.network.callbacks;
+
+import com.mlt.ml.network.TrainerCallback;
+
+/**
+ * Warm-up schedule, that increases linearly the scale of the learning rates
+ * along the first epochs, up to one. Combined with other schedules, it
+ * multiplies their scale.
+ *
+ * @author Miquel Sas
+ */
+public class CallbackScheduleWarmUp implements TrainerCallback {
+
+	/** Number of warm-up epochs. */
+	private int epochs;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param epochs The number of warm-up epochs.
+	 */
+	public CallbackScheduleWarmUp(int epochs) {
+		super();
+		if (epochs < 1) {
+			throw new IllegalArgumentException("Invalid epochs: " + epochs);
+		}
+		this.epochs = epochs;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public double getLearningRateScale(int epoch) {
+		return Math.min(1.0, (double) epoch / (double) epochs);
+	}
+}
@@ -20,6 +20,7 @@ package com.mlt.ml.network.nodes;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.List;
 
 import com.mlt.ml.function.Activation;
 import com.mlt.ml.network.Edge;
@@ -39,6 +40,13 @@ public class ActivationNode extends Node {
 	/** Flat spot to avoid near zero derivatives. */
 	private double flatSpot = 0.01;
 
+	/** Reused vector of output values, copied by the edge when pushed. */
+	private double[] outputValues;
+	/** Reused vector of derivatives. */
+	private double[] derivatives;
+	/** Reused vector of input deltas, copied by the edge when pushed. */
+	private double[] inputDeltas;
+
 	/**
 	 * Constructor used for restore.
 	 */
@@ -95,15 +103,46 @@ public class ActivationNode extends Node {
 	public void backward() {
 		double[] deltas = outputEdges.get(0).getBackwardData();
 		double[] values = outputEdges.get(0).getForwardData();
-		double[] derivatives = activation.derivatives(values);
+		if (derivatives == null) {
+			derivatives = new double[size];
+			inputDeltas = new double[size];
+		}
+		activation.derivatives(values, derivatives);
 		/*
 		 * Apply derivatives to deltas including a flat spot to avoid near zero
 		 * derivatives.
 		 */
 		for (int i = 0; i < size; i++) {
-			deltas[i] = deltas[i] * (derivatives[i] + flatSpot);
+			inputDeltas[i] = deltas[i] * (derivatives[i] + flatSpot);
+		}
+		pushBackward(inputDeltas);
+	}
+
+	/**
+	 * Apply the derivatives to the batch of input deltas and push them.
+	 */
+	@Override
+	public void backwardBatch() {
+		double[][] deltasBatch = outputEdges.get(0).getBackwardBatch();
+		double[][] valuesBatch = outputEdges.get(0).getForwardBatch();
+		double[][] inputDeltas = new double[deltasBatch.length][];
+		for (int b = 0; b < deltasBatch.length; b++) {
+			double[] deltas = deltasBatch[b];
+			double[] derivatives = activation.derivatives(valuesBatch[b]);
+			for (int i = 0; i < size; i++) {
+				derivatives[i] = deltas[i] * (derivatives[i] + flatSpot);
+			}
+			inputDeltas[b] = derivatives;
 		}
-		pushBackward(deltas);
+		pushBackwardBatch(inputDeltas);
+	}
+
+	/**
+	 * Apply the activation function to the input values.
+	 */
+	@Override
+	public double[] calculate(List<double[]> inputValues) {
+		return activation.activations(inputValues.get(0));
 	}
 
 	/**
@@ -113,10 +152,34 @@ public class ActivationNode extends Node {
 	public void forward() {
 		Edge inputEdge = inputEdges.get(0);
 		double[] triggerValues = inputEdge.getForwardData();
-		double[] outputValues = activation.activations(triggerValues);
+		if (outputValues == null) {
+			outputValues = new double[size];
+		}
+		activation.activations(triggerValues, outputValues);
 		pushForward(outputValues);
 	}
 
+	/**
+	 * Apply the activation function to each pattern of the batch and push the
+	 * output values.
+	 */
+	@Override
+	public void forwardBatch(int batchSize) {
+		double[][] triggerBatch = inputEdges.get(0).getForwardBatch();
+		double[][] outputValues = new double[triggerBatch.length][];
+		for (int b = 0; b < triggerBatch.length; b++) {
+			outputValues[b] = activation.activations(triggerBatch[b]);
+		}
+		pushForwardBatch(outputValues);
+	}
+
+	/**
+	 * @return The activation function.
+	 */
+	public Activation getActivation() {
+		return activation;
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
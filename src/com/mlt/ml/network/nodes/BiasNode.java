@@ -20,13 +20,18 @@ package com.mlt.ml.network.nodes;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
+import com.mlt.ml.function.Optimizer;
 import com.mlt.ml.network.Edge;
 import com.mlt.ml.network.Node;
 
 /**
- * A bias node without weights adjustments. The backward process does nothing.
+ * A bias node. Without an optimizer the weights are not adjusted and the
+ * backward process does nothing, with an optimizer the weights are updated
+ * with the output deltas, that are their gradients.
  *
  * @author Miquel Sas
  */
@@ -34,6 +39,12 @@ public class BiasNode extends Node {
 
 	/** Bias weights. */
 	private double[] weights;
+	/** Optional optimizer that updates the weights. */
+	private Optimizer optimizer;
+	/** Scale of the learning rate of the optimizer. */
+	private double learningRateScale = 1.0;
+	/** Reused vector of gradients averaged over a batch. */
+	private double[] gradients;
 
 	/**
 	 * Constructor used for restore.
@@ -76,10 +87,50 @@ public class BiasNode extends Node {
 	}
 
 	/**
-	 * A bias node without weights adjustment does nothing in the backward process.
+	 * Update the weights with the output deltas if an optimizer is set.
 	 */
 	@Override
-	public void backward() {}
+	public void backward() {
+		if (optimizer == null || !outputEdges.get(0).hasBackwardData()) {
+			return;
+		}
+		optimizer.step();
+		optimizer.update(weights, outputEdges.get(0).getBackwardData(), 0, weights.length);
+	}
+
+	/**
+	 * Update the weights with the output deltas averaged over the batch if an
+	 * optimizer is set.
+	 */
+	@Override
+	public void backwardBatch() {
+		if (optimizer == null) {
+			return;
+		}
+		double[][] deltasBatch = outputEdges.get(0).getBackwardBatch();
+		if (gradients == null || gradients.length != weights.length) {
+			gradients = new double[weights.length];
+		}
+		Arrays.fill(gradients, 0);
+		for (double[] deltas : deltasBatch) {
+			for (int i = 0; i < weights.length; i++) {
+				gradients[i] += deltas[i];
+			}
+		}
+		for (int i = 0; i < weights.length; i++) {
+			gradients[i] /= deltasBatch.length;
+		}
+		optimizer.step();
+		optimizer.update(weights, gradients, 0, weights.length);
+	}
+
+	/**
+	 * A bias node just returns a copy of the weights.
+	 */
+	@Override
+	public double[] calculate(List<double[]> inputValues) {
+		return Arrays.copyOf(weights, weights.length);
+	}
 
 	/**
 	 * A bias node just pushes the weights as output values.
@@ -89,6 +140,27 @@ public class BiasNode extends Node {
 		pushForward(weights);
 	}
 
+	/**
+	 * A bias node just pushes the weights as output values of each pattern of the
+	 * batch.
+	 */
+	@Override
+	public void forwardBatch(int batchSize) {
+		double[][] outputValues = new double[batchSize][];
+		for (int i = 0; i < batchSize; i++) {
+			outputValues[i] = weights;
+		}
+		pushForwardBatch(outputValues);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String getExtendedDescription() {
+		return (optimizer != null ? "OP: " + optimizer.getId() : "");
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -113,6 +185,16 @@ public class BiasNode extends Node {
 		return weights.length;
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public List<double[]> getParameters() {
+		List<double[]> parameters = new ArrayList<>();
+		parameters.add(weights);
+		return parameters;
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -126,6 +208,9 @@ public class BiasNode extends Node {
 			"Invalid output edge size");
 		/* Initialize. */
 		Arrays.fill(weights, 1.0);
+		if (optimizer != null) {
+			optimizer.initialize(weights.length);
+		}
 	}
 
 	/**
@@ -135,6 +220,10 @@ public class BiasNode extends Node {
 	public void restore(InputStream is) throws IOException {
 		restoreProperties(is);
 		weights = properties.getDouble1A("weights");
+		optimizer = (Optimizer) properties.getObject("optimizer", null);
+		if (optimizer != null) {
+			optimizer.restore(properties);
+		}
 	}
 
 	/**
@@ -143,6 +232,48 @@ public class BiasNode extends Node {
 	@Override
 	public void save(OutputStream os) throws IOException {
 		properties.setDouble1A("weights", weights);
+		if (optimizer != null) {
+			properties.setObject("optimizer", optimizer);
+			optimizer.save(properties);
+		} else {
+			properties.remove("optimizer");
+		}
 		saveProperties(os);
 	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void setLearningRateScale(double scale) {
+		this.learningRateScale = scale;
+		if (optimizer != null) {
+			optimizer.setLearningRateScale(scale);
+		}
+	}
+
+	/**
+	 * Set the optimizer that updates the weights, or null to keep them fixed.
+	 * 
+	 * @param optimizer The optimizer.
+	 */
+	@Override
+	public void setOptimizer(Optimizer optimizer) {
+		this.optimizer = optimizer;
+		if (optimizer != null) {
+			optimizer.initialize(weights.length);
+			optimizer.setLearningRateScale(learningRateScale);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void setParameters(List<double[]> parameters) {
+		if (parameters.size() != 1 || parameters.get(0).length != weights.length) {
+			throw new IllegalArgumentException("Invalid bias parameters");
+		}
+		weights = parameters.get(0);
+	}
 }
@@ -21,6 +21,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import com.mlt.ml.function.Collector;
@@ -47,6 +48,13 @@ public class BranchNode extends Node {
 	/** Backward function. */
 	private Collector<double[]> backwardFunction;
 
+	/** Reused list of vectors to collect. */
+	private List<double[]> vectors = new ArrayList<>();
+	/** Reused vector where collectors store the result, copied when pushed. */
+	private double[] result;
+	/** Vector of zero deltas when no output edge pushes deltas. */
+	private double[] zeros;
+
 	/**
 	 * Constructor used for restore.
 	 */
@@ -100,31 +108,91 @@ public class BranchNode extends Node {
 	 */
 	@Override
 	public void backward() {
-		List<double[]> outputDeltas = new ArrayList<>();
+		vectors.clear();
 		for (int i = 0; i < outputEdges.size(); i++) {
 			Edge edge = outputEdges.get(i);
-			if (edge.isRecurrent()) continue;
-			outputDeltas.add(edge.getBackwardData());
+			if (edge.isRecurrent() && !edge.isThroughTime()) continue;
+			vectors.add(edge.getBackwardData());
 		}
-		if (outputDeltas.isEmpty()) {
-			outputDeltas.add(new double[size]);
+		if (vectors.isEmpty()) {
+			if (zeros == null) {
+				zeros = new double[size];
+			}
+			vectors.add(zeros);
 		}
-		double[] inputDeltas = backwardFunction.collect(outputDeltas);
+		double[] inputDeltas = backwardFunction.collect(vectors, getResult());
 		pushBackward(inputDeltas);
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void backwardBatch() {
+		List<double[][]> outputBatches = new ArrayList<>();
+		for (int i = 0; i < outputEdges.size(); i++) {
+			Edge edge = outputEdges.get(i);
+			if (edge.isRecurrent()) continue;
+			outputBatches.add(edge.getBackwardBatch());
+		}
+		int rows = inputEdges.get(0).getForwardBatch().length;
+		double[][] inputDeltas = new double[rows][];
+		for (int b = 0; b < rows; b++) {
+			List<double[]> outputDeltas = new ArrayList<>();
+			for (int i = 0; i < outputBatches.size(); i++) {
+				outputDeltas.add(outputBatches.get(i)[b]);
+			}
+			if (outputDeltas.isEmpty()) {
+				outputDeltas.add(new double[size]);
+			}
+			inputDeltas[b] = backwardFunction.collect(outputDeltas);
+		}
+		pushBackwardBatch(inputDeltas);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public double[] calculate(List<double[]> inputValues) {
+		double[] outputValues = forwardFunction.collect(inputValues);
+		/* Collectors that transfer the input must not share it. */
+		for (int i = 0; i < inputValues.size(); i++) {
+			if (outputValues == inputValues.get(i)) {
+				return Arrays.copyOf(outputValues, outputValues.length);
+			}
+		}
+		return outputValues;
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
 	@Override
 	public void forward() {
-		List<double[]> inputValues = new ArrayList<>();
+		vectors.clear();
 		for (int i = 0; i < inputEdges.size(); i++) {
-			inputValues.add(inputEdges.get(i).getForwardData());
+			vectors.add(inputEdges.get(i).getForwardData());
 		}
-		double[] outputValues = forwardFunction.collect(inputValues);
+		double[] outputValues = forwardFunction.collect(vectors, getResult());
 		pushForward(outputValues);
 	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void forwardBatch(int batchSize) {
+		double[][] outputValues = new double[batchSize][];
+		for (int b = 0; b < batchSize; b++) {
+			List<double[]> inputValues = new ArrayList<>();
+			for (int i = 0; i < inputEdges.size(); i++) {
+				inputValues.add(inputEdges.get(i).getForwardBatch()[b]);
+			}
+			outputValues[b] = forwardFunction.collect(inputValues);
+		}
+		pushForwardBatch(outputValues);
+	}
 	
 	/**
 	 * {@inheritDoc}
@@ -150,6 +218,18 @@ public class BranchNode extends Node {
 		return size;
 	}
 
+	/**
+	 * Return the reused result vector.
+	 * 
+	 * @return The result vector.
+	 */
+	private double[] getResult() {
+		if (result == null) {
+			result = new double[size];
+		}
+		return result;
+	}
+
 	/**
 	 * Return the size.
 	 * 
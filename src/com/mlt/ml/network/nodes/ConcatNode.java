@@ -20,6 +20,7 @@ package com.mlt.ml.network.nodes;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.List;
 
 import com.mlt.ml.network.Edge;
 import com.mlt.ml.network.Node;
@@ -85,12 +86,45 @@ public class ConcatNode extends Node {
 			double[] inputDeltas = new double[inputEdge.getSize()];
 			System.arraycopy(outputDeltas, index, inputDeltas, 0, inputDeltas.length);
 			index += inputDeltas.length;
-			if (!inputEdge.isRecurrent()) {
+			if (!inputEdge.isRecurrent() || inputEdge.isThroughTime()) {
 				inputEdge.pushBackward(inputDeltas);
 			}
 		}
 	}
 
+	/**
+	 * Split the batch of output deltas among the input edges.
+	 */
+	@Override
+	public void backwardBatch() {
+		double[][] outputDeltas = outputEdges.get(0).getBackwardBatch();
+		int index = 0;
+		for (int i = 0; i < inputEdges.size(); i++) {
+			Edge inputEdge = inputEdges.get(i);
+			double[][] inputDeltas = new double[outputDeltas.length][inputEdge.getSize()];
+			for (int b = 0; b < outputDeltas.length; b++) {
+				System.arraycopy(outputDeltas[b], index, inputDeltas[b], 0, inputEdge.getSize());
+			}
+			index += inputEdge.getSize();
+			inputEdge.pushBackwardBatch(inputDeltas);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public double[] calculate(List<double[]> inputValues) {
+		double[] outputValues = new double[getOutputSize()];
+		int index = 0;
+		for (int i = 0; i < inputValues.size(); i++) {
+			double[] values = inputValues.get(i);
+			System.arraycopy(values, 0, outputValues, index, values.length);
+			index += values.length;
+		}
+		return outputValues;
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -105,6 +139,24 @@ public class ConcatNode extends Node {
 		}
 		pushForward(outputValues);
 	}
+
+	/**
+	 * Concatenate the inputs of each pattern of the batch.
+	 */
+	@Override
+	public void forwardBatch(int batchSize) {
+		double[][] outputBatch = new double[batchSize][getOutputSize()];
+		int index = 0;
+		for (int i = 0; i < inputEdges.size(); i++) {
+			double[][] inputBatch = inputEdges.get(i).getForwardBatch();
+			int size = inputEdges.get(i).getSize();
+			for (int b = 0; b < batchSize; b++) {
+				System.arraycopy(inputBatch[b], 0, outputBatch[b], index, size);
+			}
+			index += size;
+		}
+		pushForwardBatch(outputBatch);
+	}
 	
 	/**
 	 * {@inheritDoc}
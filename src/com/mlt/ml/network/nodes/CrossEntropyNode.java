@@ -0,0 +1,302 @@
+/*
+ * Copyright (C) 2018 Miquel Sas
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mlt.ml.network.nodes;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+import com.mlt.ml.network.Edge;
+import com.mlt.ml.network.Node;
+
+/**
+ * An output node that fuses the soft-max or the sigmoid activation with the
+ * cross-entropy loss. It can have only one input edge and one output edge, and
+ * must be the last node of the network.
+ * <p>
+ * The forward pass is numerically stable: the soft-max shifts the triggers by
+ * their maximum, the log-sum-exp trick, and the sigmoid never evaluates the
+ * exponential of a positive number. Since the output deltas that the trainer
+ * pushes are the pattern output minus the network output, they are already the
+ * gradient of the cross-entropy with respect to the triggers, and the backward
+ * pass just pushes them, without derivatives nor flat spot.
+ *
+ * @author Miquel Sas
+ */
+public class CrossEntropyNode extends Node {
+
+	/**
+	 * Enumerates the activations fused with the cross-entropy.
+	 */
+	public static enum Mode {
+		/** Soft-max and categorical cross-entropy, for exclusive categories. */
+		SOFTMAX,
+		/** Sigmoid and binary cross-entropy, for multi-label outputs. */
+		SIGMOID
+	}
+
+	/**
+	 * Apply the soft-max to the triggers, shifted by their maximum so that no
+	 * exponential overflows.
+	 *
+	 * @param triggers The triggers.
+	 * @param outputs  The outputs, can be the triggers vector.
+	 */
+	public static void softmax(double[] triggers, double[] outputs) {
+		double max = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < triggers.length; i++) {
+			if (triggers[i] > max) {
+				max = triggers[i];
+			}
+		}
+		double sum = 0;
+		for (int i = 0; i < triggers.length; i++) {
+			double p = Math.exp(triggers[i] - max);
+			outputs[i] = p;
+			sum += p;
+		}
+		double scale = 1.0 / sum;
+		for (int i = 0; i < triggers.length; i++) {
+			outputs[i] *= scale;
+		}
+	}
+
+	/**
+	 * Apply the sigmoid to the triggers, evaluating only exponentials of negative
+	 * numbers.
+	 *
+	 * @param triggers The triggers.
+	 * @param outputs  The outputs, can be the triggers vector.
+	 */
+	public static void sigmoid(double[] triggers, double[] outputs) {
+		for (int i = 0; i < triggers.length; i++) {
+			double trigger = triggers[i];
+			if (trigger >= 0) {
+				outputs[i] = 1.0 / (1.0 + Math.exp(-trigger));
+			} else {
+				double e = Math.exp(trigger);
+				outputs[i] = e / (1.0 + e);
+			}
+		}
+	}
+
+	/** Size of values. */
+	private int size;
+	/** Fused activation. */
+	private Mode mode;
+
+	/** Reused vector of output values, copied by the edge when pushed. */
+	private double[] outputValues;
+
+	/**
+	 * Constructor used for restore.
+	 */
+	public CrossEntropyNode() {
+		super();
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param size The size of values that flow throw the node.
+	 * @param mode The fused activation.
+	 */
+	public CrossEntropyNode(int size, Mode mode) {
+		super();
+		this.size = size;
+		this.mode = mode;
+	}
+
+	/**
+	 * Apply the fused activation to a vector of triggers.
+	 *
+	 * @param triggers The triggers.
+	 * @param outputs  The outputs.
+	 */
+	private void activations(double[] triggers, double[] outputs) {
+		if (mode == Mode.SOFTMAX) {
+			softmax(triggers, outputs);
+		} else {
+			sigmoid(triggers, outputs);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void addInputEdge(Edge edge) throws IllegalStateException {
+		if (inputEdges.size() > 0) {
+			throw new IllegalStateException("More than one input edge");
+		}
+		if (edge.getSize() != size) {
+			throw new IllegalStateException("Invalid input edge size");
+		}
+		edge.setOutputNode(this);
+		inputEdges.add(edge);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void addOutputEdge(Edge edge) throws IllegalStateException {
+		if (outputEdges.size() > 0) {
+			throw new IllegalStateException("More than one output edge");
+		}
+		if (edge.getSize() != size) {
+			throw new IllegalStateException("Invalid output edge size");
+		}
+		edge.setInputNode(this);
+		outputEdges.add(edge);
+	}
+
+	/**
+	 * Push the output deltas, that are the gradient of the loss with respect to
+	 * the triggers.
+	 */
+	@Override
+	public void backward() {
+		pushBackward(outputEdges.get(0).getBackwardData());
+	}
+
+	/**
+	 * Push the batch of output deltas, that are the gradients of the loss with
+	 * respect to the triggers.
+	 */
+	@Override
+	public void backwardBatch() {
+		pushBackwardBatch(outputEdges.get(0).getBackwardBatch());
+	}
+
+	/**
+	 * Apply the fused activation to the input values.
+	 */
+	@Override
+	public double[] calculate(List<double[]> inputValues) {
+		double[] outputValues = new double[size];
+		activations(inputValues.get(0), outputValues);
+		return outputValues;
+	}
+
+	/**
+	 * Apply the fused activation and push the output values.
+	 */
+	@Override
+	public void forward() {
+		double[] triggerValues = inputEdges.get(0).getForwardData();
+		if (outputValues == null) {
+			outputValues = new double[size];
+		}
+		activations(triggerValues, outputValues);
+		pushForward(outputValues);
+	}
+
+	/**
+	 * Apply the fused activation to each pattern of the batch and push the output
+	 * values.
+	 */
+	@Override
+	public void forwardBatch(int batchSize) {
+		double[][] triggerBatch = inputEdges.get(0).getForwardBatch();
+		double[][] outputValues = new double[triggerBatch.length][size];
+		for (int b = 0; b < triggerBatch.length; b++) {
+			activations(triggerBatch[b], outputValues[b]);
+		}
+		pushForwardBatch(outputValues);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String getExtendedDescription() {
+		return mode.name();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String getId() {
+		return "CE";
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int getInputSize() {
+		return size;
+	}
+
+	/**
+	 * @return The fused activation.
+	 */
+	public Mode getMode() {
+		return mode;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int getOutputSize() {
+		return size;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void initialize() {
+		/* Validate. */
+		if (inputEdges.size() == 0) throw new IllegalStateException("Input edges empty");
+		if (inputEdges.size() > 1) throw new IllegalStateException("More than one input edge");
+		if (inputEdges
+			.get(0)
+			.getSize() != size) throw new IllegalStateException("Invalid input edge size");
+		if (outputEdges.size() == 0) throw new IllegalStateException("Output edges empty");
+		if (outputEdges.size() > 1) throw new IllegalStateException("More than one output edge");
+		if (outputEdges
+			.get(0)
+			.getSize() != size) throw new IllegalStateException("Invalid output edge size");
+		if (mode == null) throw new IllegalStateException("Mode is null");
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void restore(InputStream is) throws IOException {
+		restoreProperties(is);
+		size = properties.getInteger("size");
+		mode = Mode.valueOf(properties.getString("mode"));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void save(OutputStream os) throws IOException {
+		properties.setInteger("size", size);
+		properties.setString("mode", mode.name());
+		saveProperties(os);
+	}
+}
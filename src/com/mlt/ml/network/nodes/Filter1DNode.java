@@ -20,6 +20,8 @@ package com.mlt.ml.network.nodes;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
 
 import com.mlt.ml.function.RangeFunction;
 import com.mlt.ml.network.Edge;
@@ -93,7 +95,7 @@ public class Filter1DNode extends Node {
 		this.outputValues = new double[outputSize];
 
 		/* Initialize the function. */
-		forwardFunction = new RangeFunction(outputSize, (s, e) -> forward(s, e));
+		forwardFunction = new RangeFunction(outputSize, filterSize, (s, e) -> forward(inputValues, outputValues, s, e));
 	}
 
 	/**
@@ -138,6 +140,22 @@ public class Filter1DNode extends Node {
 	@Override
 	public void backward() {}
 
+	/**
+	 * Deltas are not propagated, as in the pattern by pattern backward.
+	 */
+	@Override
+	public void backwardBatch() {}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public double[] calculate(List<double[]> inputValues) {
+		double[] outputValues = new double[outputSize];
+		forward(inputValues.get(0), outputValues, 0, outputValues.length - 1);
+		return outputValues;
+	}
+
 	/**
 	 * {@inheritDocs}
 	 */
@@ -148,13 +166,34 @@ public class Filter1DNode extends Node {
 		pushForward(outputValues);
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void forwardBatch(int batchSize) {
+		double[][] inputBatch = inputEdges.get(0).getForwardBatch();
+		double[][] outputBatch = new double[inputBatch.length][];
+		for (int b = 0; b < inputBatch.length; b++) {
+			inputValues = inputBatch[b];
+			forwardFunction.process();
+			outputBatch[b] = Arrays.copyOf(outputValues, outputValues.length);
+		}
+		pushForwardBatch(outputBatch);
+	}
+
 	/**
 	 * Forward to process in parallel.
 	 * 
-	 * @param startIndex Start index in the result vector.
-	 * @param endIndex   End index in the result vector.
+	 * @param inputValues  The input values.
+	 * @param outputValues The output values.
+	 * @param startIndex   Start index in the result vector.
+	 * @param endIndex     End index in the result vector.
 	 */
-	private void forward(int startIndex, int endIndex) {
+	private void forward(
+		double[] inputValues,
+		double[] outputValues,
+		int startIndex,
+		int endIndex) {
 		for (int outputIndex = startIndex; outputIndex <= endIndex; outputIndex++) {
 			double outputValue = 0;
 			for (int filterIndex = 0; filterIndex < filterSize; filterIndex++) {
@@ -219,7 +258,7 @@ public class Filter1DNode extends Node {
 		outputValues = new double[outputSize];
 
 		/* Initialize the function. */
-		forwardFunction = new RangeFunction(outputSize, (s, e) -> forward(s, e));
+		forwardFunction = new RangeFunction(outputSize, filterSize, (s, e) -> forward(inputValues, outputValues, s, e));
 	}
 
 	/**
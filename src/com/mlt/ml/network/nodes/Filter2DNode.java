@@ -26,15 +26,23 @@ import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
 
 import com.mlt.ml.function.RangeFunction;
 import com.mlt.ml.network.Edge;
+import com.mlt.ml.network.Gaussian;
 import com.mlt.ml.network.Node;
 import com.mlt.util.Numbers;
+import com.mlt.util.Vector;
 
 /**
- * A 2D filter node.
+ * A 2D filter node, a convolution of a multi-channel input by a bank of
+ * filters, lowering the input patches to a matrix (im2col) to calculate the
+ * outputs of all the filters with a matrix product. Channels are stored one
+ * after the other, each as a row-major matrix.
  *
  * @author Miquel Sas
  */
@@ -146,22 +154,25 @@ public class Filter2DNode extends Node {
 	private int filterColumns;
 	/** Filter rows. */
 	private int filterRows;
-	/** Filter values. */
+	/** Number of filters of the bank, or output channels. */
+	private int filters;
+	/**
+	 * Filter values, the bank of filters as a flat row-major matrix with a row per
+	 * filter, and each row the input channels, filter rows and filter columns.
+	 */
 	private double[] filterValues;
-	/** Forward function. */
-	private RangeFunction forwardFunction;
+	/** Learning rate of the filter values, zero for fixed filters. */
+	private double learningRate;
+	/** Input channels. */
+	private int inputChannels;
 	/** Input columns. */
 	private int inputColumns;
 	/** Input rows. */
 	private int inputRows;
-	/** Input values cached for parallel process. */
-	private double[] inputValues;
 	/** Output columns. */
 	private int outputColumns;
 	/** Output rows. */
 	private int outputRows;
-	/** Output values cached to avoid GC stress. */
-	private double[] outputValues;
 	/** Padding. */
 	private boolean padding;
 	/** Pad columns. */
@@ -171,6 +182,32 @@ public class Filter2DNode extends Node {
 	/** Pad value. */
 	private double padValue;
 
+	/**
+	 * Map of patch indexes, a flat row-major matrix with a row per element of the
+	 * filter and a column per output pixel, that contains the index of the input
+	 * value, or -1 when the element falls in the padding.
+	 */
+	private int[] patchIndexes;
+	/** Forward function, by ranges of output pixels. */
+	private RangeFunction forwardFunction;
+	/** Backward function, by ranges of filter elements. */
+	private RangeFunction backwardFunction;
+
+	/** Input values cached for parallel process. */
+	private double[] inputValues;
+	/** Output values cached to avoid GC stress. */
+	private double[] outputValues;
+	/** Patches matrix (im2col) of the current input values. */
+	private double[] patches;
+	/** Output deltas cached for parallel process. */
+	private double[] outputDeltas;
+	/** Deltas of the patches matrix. */
+	private double[] patchDeltas;
+	/** Input deltas, accumulated from the patch deltas. */
+	private double[] inputDeltas;
+	/** Accumulated gradients of the filter values. */
+	private double[] gradients;
+
 	/**
 	 * Default constructor to restore.
 	 */
@@ -179,55 +216,75 @@ public class Filter2DNode extends Node {
 	}
 
 	/**
-	 * Constructor.
+	 * Constructor of a single channel node with a single fixed filter.
+	 * 
+	 * @param inputRows    Input rows.
+	 * @param inputColumns Input columns.
+	 * @param filter       Filter (2D).
+	 * @param padding      Padding flag.
+	 * @param padValue     Pad value.
+	 */
+	public Filter2DNode(int inputRows, int inputColumns, double[][] filter,
+		boolean padding,
+		double padValue) {
+		this(inputRows, inputColumns, 1, 1, filter.length, filter[0].length, padding, padValue);
+		this.filterValues = Filter2DNode.toVector(filter);
+		this.learningRate = 0;
+	}
+
+	/**
+	 * Constructor of a node with a bank of learnable filters, randomly initialized.
 	 * 
 	 * @param inputRows     Input rows.
 	 * @param inputColumns  Input columns.
+	 * @param inputChannels Input channels.
+	 * @param filters       Number of filters or output channels.
 	 * @param filterRows    Filter rows.
 	 * @param filterColumns Filter columns.
-	 * @param filter        Filter (2D).
 	 * @param padding       Padding flag.
 	 * @param padValue      Pad value.
 	 */
-	public Filter2DNode(int inputRows, int inputColumns, double[][] filter,
+	public Filter2DNode(
+		int inputRows,
+		int inputColumns,
+		int inputChannels,
+		int filters,
+		int filterRows,
+		int filterColumns,
 		boolean padding,
 		double padValue) {
 		super();
 
 		/* Rows and columns. */
-		this.filterRows = filter.length;
-		this.filterColumns = filter[0].length;
 		if (!Numbers
 			.isOdd(filterRows)) throw new IllegalArgumentException("Filter rows must be odd");
 		if (!Numbers
 			.isOdd(filterColumns)) throw new IllegalArgumentException("Filter columns must be odd");
 		if (filterRows > inputRows) throw new IllegalArgumentException(
 			"Filter rows greater than input rows");
-		if (filterRows > inputRows) throw new IllegalArgumentException(
-			"Filter rows greater than input rows");
 		if (filterColumns > inputColumns) throw new IllegalArgumentException(
 			"Filter columns greater than input columns");
-
-		/* Transform to 1D filter. */
-		this.filterValues = Filter2DNode.toVector(filter);
+		if (inputChannels < 1) throw new IllegalArgumentException("Invalid input channels");
+		if (filters < 1) throw new IllegalArgumentException("Invalid number of filters");
 
 		/* Register the rest of values. */
 		this.inputRows = inputRows;
 		this.inputColumns = inputColumns;
+		this.inputChannels = inputChannels;
+		this.filters = filters;
+		this.filterRows = filterRows;
+		this.filterColumns = filterColumns;
 		this.outputRows = (padding ? inputRows : inputRows - filterRows + 1);
 		this.outputColumns = (padding ? inputColumns : inputColumns - filterColumns + 1);
 		this.padding = padding;
 		this.padValue = padValue;
-		this.padRows = (padding ? filterRows / 2 : 0);
-		this.padColumns = (padding ? filterColumns / 2 : 0);
+		this.learningRate = 0.01;
 
-		this.outputValues = new double[outputRows * outputColumns];
-		/* Initialize the function. */
-		forwardFunction = new RangeFunction(outputRows * outputColumns, (s, e) -> forward(s, e));
+		initializeVectorsAndFunctions();
 	}
 
 	/**
-	 * {@inheritDocs}
+	 * {@inheritDoc}
 	 */
 	@Override
 	public void addInputEdge(Edge edge) throws IllegalStateException {
@@ -237,7 +294,7 @@ public class Filter2DNode extends Node {
 		if (inputEdges.size() > 0) {
 			throw new IllegalStateException("More than one input edge");
 		}
-		if (edge.getSize() != (inputRows * inputColumns)) {
+		if (edge.getSize() != getInputSize()) {
 			throw new IllegalStateException("Invalid input edge size");
 		}
 		edge.setOutputNode(this);
@@ -245,7 +302,7 @@ public class Filter2DNode extends Node {
 	}
 
 	/**
-	 * {@inheritDocs}
+	 * {@inheritDoc}
 	 */
 	@Override
 	public void addOutputEdge(Edge edge) throws IllegalStateException {
@@ -255,7 +312,7 @@ public class Filter2DNode extends Node {
 		if (outputEdges.size() > 0) {
 			throw new IllegalStateException("More than one output edge");
 		}
-		if (edge.getSize() != (outputRows * outputColumns)) {
+		if (edge.getSize() != getOutputSize()) {
 			throw new IllegalStateException("Invalid output edge size");
 		}
 		edge.setInputNode(this);
@@ -263,13 +320,98 @@ public class Filter2DNode extends Node {
 	}
 
 	/**
-	 * {@inheritDocs}
+	 * Calculate the input deltas, accumulate the gradients of the filter values
+	 * and update them when learnable.
 	 */
 	@Override
-	public void backward() {}
+	public void backward() {
+		Arrays.fill(gradients, 0);
+		backward(inputEdges.get(0).getForwardData(), outputEdges.get(0).getBackwardData());
+		update(1);
+		pushBackward(inputDeltas);
+	}
 
 	/**
-	 * {@inheritDocs}
+	 * Calculate the input deltas of each pattern of the batch, accumulating the
+	 * gradients of the filter values, and update them once.
+	 */
+	@Override
+	public void backwardBatch() {
+		double[][] inputBatch = inputEdges.get(0).getForwardBatch();
+		double[][] outputDeltasBatch = outputEdges.get(0).getBackwardBatch();
+		double[][] inputDeltasBatch = new double[inputBatch.length][];
+		Arrays.fill(gradients, 0);
+		for (int b = 0; b < inputBatch.length; b++) {
+			backward(inputBatch[b], outputDeltasBatch[b]);
+			inputDeltasBatch[b] = Arrays.copyOf(inputDeltas, inputDeltas.length);
+		}
+		update(inputBatch.length);
+		pushBackwardBatch(inputDeltasBatch);
+	}
+
+	/**
+	 * Backward a pattern, lowering the input values to the patches matrix,
+	 * calculating in parallel the patch deltas and the gradients, and finally
+	 * accumulating the patch deltas into the input deltas (col2im).
+	 * 
+	 * @param inputValues  The input values.
+	 * @param outputDeltas The output deltas.
+	 */
+	private void backward(double[] inputValues, double[] outputDeltas) {
+		lower(inputValues, patches, 0, getPatchColumns() - 1);
+		this.outputDeltas = outputDeltas;
+		backwardFunction.process();
+		Arrays.fill(inputDeltas, 0);
+		for (int i = 0; i < patchIndexes.length; i++) {
+			int inputIndex = patchIndexes[i];
+			if (inputIndex >= 0) {
+				inputDeltas[inputIndex] += patchDeltas[i];
+			}
+		}
+	}
+
+	/**
+	 * Backward to process in parallel, from filter element start to end. The patch
+	 * deltas are the product of the transposed filter bank by the output deltas,
+	 * and the gradients the product of the output deltas by the transposed
+	 * patches.
+	 * 
+	 * @param start Start filter element.
+	 * @param end   End filter element.
+	 */
+	private void backward(int start, int end) {
+		int size = getFilterSize();
+		int columns = getPatchColumns();
+		for (int element = start; element <= end; element++) {
+			int row = element * columns;
+			Arrays.fill(patchDeltas, row, row + columns, 0);
+			for (int filter = 0; filter < filters; filter++) {
+				int index = filter * size + element;
+				int filterRow = filter * columns;
+				double filterValue = filterValues[index];
+				if (filterValue != 0) {
+					Vector.axpy(filterValue, outputDeltas, filterRow, patchDeltas, row, columns);
+				}
+				gradients[index] += Vector.dot(outputDeltas, filterRow, patches, row, columns);
+			}
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public double[] calculate(List<double[]> inputValues) {
+		int columns = getPatchColumns();
+		double[] patches = new double[getFilterSize() * columns];
+		double[] outputValues = new double[getOutputSize()];
+		lower(inputValues.get(0), patches, 0, columns - 1);
+		multiply(patches, outputValues, 0, columns - 1);
+		return outputValues;
+	}
+
+	/**
+	 * {@inheritDoc}
 	 */
 	@Override
 	public void forward() {
@@ -279,38 +421,50 @@ public class Filter2DNode extends Node {
 	}
 
 	/**
-	 * Forward to process in parallel.
+	 * Forward to process in parallel, from output pixel start to end. Lowers the
+	 * input values to the patches matrix and multiplies the bank of filters by it.
 	 * 
-	 * @param startIndex Start index in the result vector.
-	 * @param endIndex   End index in the result vector.
-	 */
-	private void forward(int startIndex, int endIndex) {
-		for (int index = startIndex; index <= endIndex; index++) {
-			int outputRow = index / outputColumns;
-			int outputColumn = index % outputColumns;
-			double outputValue = 0;
-			for (int filterRow = 0; filterRow < filterRows; filterRow++) {
-				for (int filterColumn = 0; filterColumn < filterColumns; filterColumn++) {
-					int inputRow = outputRow + filterRow - padRows;
-					int inputColumn = outputColumn + filterColumn - padColumns;
-					double inputValue = 0;
-					if (inputRow < 0 || inputColumn < 0 || inputRow >= inputRows
-						|| inputColumn >= inputColumns) {
-						inputValue = padValue;
-					} else {
-						int inputIndex = inputRow * inputColumns + inputColumn;
-						inputValue = inputValues[inputIndex];
-					}
-					int filterIndex = filterRow * filterColumns + filterColumn;
-					double filterValue = filterValues[filterIndex];
-					outputValue += (inputValue * filterValue);
-				}
-			}
-			int outputIndex = outputRow * outputColumns + outputColumn;
-			outputValues[outputIndex] = outputValue;
+	 * @param start Start output pixel.
+	 * @param end   End output pixel.
+	 */
+	private void forward(int start, int end) {
+		lower(inputValues, patches, start, end);
+		multiply(patches, outputValues, start, end);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void forwardBatch(int batchSize) {
+		double[][] inputBatch = inputEdges.get(0).getForwardBatch();
+		double[][] outputBatch = new double[inputBatch.length][];
+		for (int b = 0; b < inputBatch.length; b++) {
+			inputValues = inputBatch[b];
+			forwardFunction.process();
+			outputBatch[b] = Arrays.copyOf(outputValues, outputValues.length);
 		}
+		pushForwardBatch(outputBatch);
 	}
-	
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String getExtendedDescription() {
+		StringBuilder b = new StringBuilder();
+		b.append(inputChannels);
+		b.append("x");
+		b.append(filters);
+		b.append(" ");
+		b.append(filterRows);
+		b.append("x");
+		b.append(filterColumns);
+		b.append(", LR: ");
+		b.append(learningRate);
+		return b.toString();
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -338,7 +492,25 @@ public class Filter2DNode extends Node {
 	}
 
 	/**
-	 * Return the filter values.
+	 * Return the number of filters, or output channels.
+	 * 
+	 * @return The number of filters.
+	 */
+	public int getFilters() {
+		return filters;
+	}
+
+	/**
+	 * Return the size of a filter, the number of elements of a row of the bank.
+	 * 
+	 * @return The filter size.
+	 */
+	private int getFilterSize() {
+		return inputChannels * filterRows * filterColumns;
+	}
+
+	/**
+	 * Return the filter values, the bank of filters, a row per filter.
 	 * 
 	 * @return The filter values.
 	 */
@@ -347,11 +519,20 @@ public class Filter2DNode extends Node {
 	}
 
 	/**
-	 * {@inheritDocs}
+	 * Return the input channels.
+	 * 
+	 * @return The input channels.
+	 */
+	public int getInputChannels() {
+		return inputChannels;
+	}
+
+	/**
+	 * {@inheritDoc}
 	 */
 	@Override
 	public int getInputSize() {
-		return inputRows * inputColumns;
+		return inputChannels * inputRows * inputColumns;
 	}
 
 	/**
@@ -373,58 +554,226 @@ public class Filter2DNode extends Node {
 	}
 
 	/**
-	 * {@inheritDocs}
+	 * {@inheritDoc}
 	 */
 	@Override
 	public int getOutputSize() {
+		return filters * outputRows * outputColumns;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public List<double[]> getParameters() {
+		List<double[]> parameters = new ArrayList<>();
+		parameters.add(filterValues);
+		return parameters;
+	}
+
+	/**
+	 * Return the number of columns of the patches matrix, the output pixels.
+	 * 
+	 * @return The number of columns.
+	 */
+	private int getPatchColumns() {
 		return outputRows * outputColumns;
 	}
 
 	/**
-	 * {@inheritDocs}
+	 * Initialize the filter values if the node was built with a bank of learnable
+	 * filters.
 	 */
 	@Override
-	public void initialize() {}
+	public void initialize() {
+		if (filterValues == null) {
+			initializeFilters();
+		}
+	}
+
+	/**
+	 * Initialize the bank of filters with gaussian values scaled by the square root
+	 * of the filter size, to keep the outputs in the range of the inputs.
+	 */
+	private void initializeFilters() {
+		int size = getFilterSize();
+		double scale = 1.0 / Math.sqrt(size);
+		filterValues = new double[filters * size];
+		Gaussian g = new Gaussian(true);
+		for (int i = 0; i < filterValues.length; i++) {
+			filterValues[i] = g.nextGaussian() * scale;
+		}
+		g.end();
+	}
 
 	/**
-	 * {@inheritDocs}
+	 * Initialize the map of patch indexes, the cached vectors and the parallel
+	 * functions.
+	 */
+	private void initializeVectorsAndFunctions() {
+		padRows = (padding ? filterRows / 2 : 0);
+		padColumns = (padding ? filterColumns / 2 : 0);
+
+		int size = getFilterSize();
+		int columns = getPatchColumns();
+		patchIndexes = new int[size * columns];
+		for (int channel = 0; channel < inputChannels; channel++) {
+			for (int filterRow = 0; filterRow < filterRows; filterRow++) {
+				for (int filterColumn = 0; filterColumn < filterColumns; filterColumn++) {
+					int element = (channel * filterRows + filterRow) * filterColumns + filterColumn;
+					for (int pixel = 0; pixel < columns; pixel++) {
+						int inputRow = pixel / outputColumns + filterRow - padRows;
+						int inputColumn = pixel % outputColumns + filterColumn - padColumns;
+						int inputIndex = -1;
+						if (inputRow >= 0 && inputColumn >= 0 && inputRow < inputRows
+							&& inputColumn < inputColumns) {
+							inputIndex = (channel * inputRows + inputRow) * inputColumns + inputColumn;
+						}
+						patchIndexes[element * columns + pixel] = inputIndex;
+					}
+				}
+			}
+		}
+
+		outputValues = new double[getOutputSize()];
+		patches = new double[size * columns];
+		patchDeltas = new double[size * columns];
+		inputDeltas = new double[getInputSize()];
+		gradients = new double[filters * size];
+
+		/* Functions with the estimated work per output pixel or filter element. */
+		forwardFunction = new RangeFunction(columns, (filters + 1) * size, (s, e) -> forward(s, e));
+		backwardFunction = new RangeFunction(size, 2 * filters * columns, (s, e) -> backward(s, e));
+	}
+
+	/**
+	 * Lower the input values to the patches matrix (im2col), for the output pixels
+	 * from start to end.
+	 * 
+	 * @param inputValues The input values.
+	 * @param patches     The patches matrix.
+	 * @param start       Start output pixel.
+	 * @param end         End output pixel.
+	 */
+	private void lower(double[] inputValues, double[] patches, int start, int end) {
+		int size = getFilterSize();
+		int columns = getPatchColumns();
+		for (int element = 0; element < size; element++) {
+			int row = element * columns;
+			for (int i = row + start; i <= row + end; i++) {
+				int inputIndex = patchIndexes[i];
+				patches[i] = (inputIndex < 0 ? padValue : inputValues[inputIndex]);
+			}
+		}
+	}
+
+	/**
+	 * Multiply the bank of filters by the patches matrix (GEMM), for the output
+	 * pixels from start to end. Each row of the bank is accumulated scanning the
+	 * patches matrix by rows.
+	 * 
+	 * @param patches      The patches matrix.
+	 * @param outputValues The output values, a row per filter.
+	 * @param start        Start output pixel.
+	 * @param end          End output pixel.
+	 */
+	private void multiply(double[] patches, double[] outputValues, int start, int end) {
+		int size = getFilterSize();
+		int columns = getPatchColumns();
+		int length = end - start + 1;
+		for (int filter = 0; filter < filters; filter++) {
+			int outputRow = filter * columns;
+			Arrays.fill(outputValues, outputRow + start, outputRow + end + 1, 0);
+			for (int element = 0; element < size; element++) {
+				double filterValue = filterValues[filter * size + element];
+				if (filterValue == 0) {
+					continue;
+				}
+				int row = element * columns;
+				Vector.axpy(filterValue, patches, row + start, outputValues, outputRow + start, length);
+			}
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
 	 */
 	@Override
 	public void restore(InputStream is) throws IOException {
 		restoreProperties(is);
 		inputRows = properties.getInteger("input-rows");
 		inputColumns = properties.getInteger("input-columns");
+		inputChannels = properties.getInteger("input-channels", 1);
+		filters = properties.getInteger("filters", 1);
 		filterRows = properties.getInteger("filter-rows");
 		filterColumns = properties.getInteger("filter-columns");
 		outputRows = properties.getInteger("output-rows");
 		outputColumns = properties.getInteger("output-columns");
 		filterValues = properties.getDouble1A("filter-values");
+		learningRate = properties.getDouble("learning-rate", 0);
 		padding = properties.getBoolean("padding");
 		padValue = properties.getDouble("pad-value");
-
-		padRows = (!padding ? 0 : filterRows / 2);
-		padColumns = (!padding ? 0 : filterColumns / 2);
-
-		outputValues = new double[outputRows * outputColumns];
-		/* Initialize the function. */
-		forwardFunction = new RangeFunction(outputRows * outputColumns, (s, e) -> forward(s, e));
+		initializeVectorsAndFunctions();
 	}
 
 	/**
-	 * {@inheritDocs}
+	 * {@inheritDoc}
 	 */
 	@Override
 	public void save(OutputStream os) throws IOException {
 		properties.setInteger("input-rows", inputRows);
 		properties.setInteger("input-columns", inputColumns);
+		properties.setInteger("input-channels", inputChannels);
+		properties.setInteger("filters", filters);
 		properties.setInteger("filter-rows", filterRows);
 		properties.setInteger("filter-columns", filterColumns);
 		properties.setInteger("output-rows", outputRows);
 		properties.setInteger("output-columns", outputColumns);
 		properties.setDouble1A("filter-values", filterValues);
+		properties.setDouble("learning-rate", learningRate);
 		properties.setBoolean("padding", padding);
 		properties.setDouble("pad-value", padValue);
 		saveProperties(os);
 	}
 
+	/**
+	 * Set the learning rate of the filter values, zero to keep them fixed.
+	 * 
+	 * @param learningRate The learning rate.
+	 */
+	public void setLearningRate(double learningRate) {
+		if (learningRate < 0) throw new IllegalArgumentException("Invalid learning rate");
+		this.learningRate = learningRate;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void setParameters(List<double[]> parameters) {
+		if (parameters.size() != 1) {
+			throw new IllegalArgumentException("Invalid number of parameters");
+		}
+		if (parameters.get(0).length != filters * getFilterSize()) {
+			throw new IllegalArgumentException("Invalid filter values size");
+		}
+		filterValues = parameters.get(0);
+	}
+
+	/**
+	 * Update the filter values with the accumulated gradients, averaged by the
+	 * number of patterns.
+	 * 
+	 * @param patterns The number of patterns accumulated.
+	 */
+	private void update(int patterns) {
+		if (learningRate == 0) {
+			return;
+		}
+		double rate = learningRate / patterns;
+		for (int i = 0; i < filterValues.length; i++) {
+			filterValues[i] += rate * gradients[i];
+		}
+	}
+
 }
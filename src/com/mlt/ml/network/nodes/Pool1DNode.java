@@ -20,6 +20,8 @@ package com.mlt.ml.network.nodes;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
 
 import com.mlt.ml.function.RangeFunction;
 import com.mlt.ml.network.Edge;
@@ -47,6 +49,13 @@ public class Pool1DNode extends Node {
 	/** Forward function. */
 	private RangeFunction forwardFunction;
 
+	/**
+	 * Constructor used for restore.
+	 */
+	public Pool1DNode() {
+		super();
+	}
+
 	/**
 	 * Constructor.
 	 * 
@@ -67,7 +76,7 @@ public class Pool1DNode extends Node {
 		this.outputValues = new double[outputSize];
 
 		/* Initialize the function. */
-		forwardFunction = new RangeFunction(outputSize, (s, e) -> forward(s, e));
+		forwardFunction = new RangeFunction(outputSize, poolSize, (s, e) -> forward(inputValues, outputValues, s, e));
 	}
 
 	/**
@@ -112,6 +121,22 @@ public class Pool1DNode extends Node {
 	@Override
 	public void backward() {}
 
+	/**
+	 * Deltas are not propagated, as in the pattern by pattern backward.
+	 */
+	@Override
+	public void backwardBatch() {}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public double[] calculate(List<double[]> inputValues) {
+		double[] outputValues = new double[outputSize];
+		forward(inputValues.get(0), outputValues, 0, outputValues.length - 1);
+		return outputValues;
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -122,13 +147,34 @@ public class Pool1DNode extends Node {
 		pushForward(outputValues);
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void forwardBatch(int batchSize) {
+		double[][] inputBatch = inputEdges.get(0).getForwardBatch();
+		double[][] outputBatch = new double[inputBatch.length][];
+		for (int b = 0; b < inputBatch.length; b++) {
+			inputValues = inputBatch[b];
+			forwardFunction.process();
+			outputBatch[b] = Arrays.copyOf(outputValues, outputValues.length);
+		}
+		pushForwardBatch(outputBatch);
+	}
+
 	/**
 	 * Forward to process in parallel.
 	 * 
-	 * @param startIndex Start index in the result vector.
-	 * @param endIndex   End index in the result vector.
+	 * @param inputValues  The input values.
+	 * @param outputValues The output values.
+	 * @param startIndex   Start index in the result vector.
+	 * @param endIndex     End index in the result vector.
 	 */
-	private void forward(int startIndex, int endIndex) {
+	private void forward(
+		double[] inputValues,
+		double[] outputValues,
+		int startIndex,
+		int endIndex) {
 		for (int outputIndex = startIndex; outputIndex <= endIndex; outputIndex++) {
 			double max = Double.NEGATIVE_INFINITY;
 			for (int poolIndex = 0; poolIndex < poolSize; poolIndex++) {
@@ -183,7 +229,7 @@ public class Pool1DNode extends Node {
 		outputSize = properties.getInteger("output-size");
 
 		this.outputValues = new double[outputSize];
-		forwardFunction = new RangeFunction(outputSize, (s, e) -> forward(s, e));
+		forwardFunction = new RangeFunction(outputSize, poolSize, (s, e) -> forward(inputValues, outputValues, s, e));
 	}
 
 	/**
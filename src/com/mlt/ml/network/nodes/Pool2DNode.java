@@ -20,13 +20,16 @@ package com.mlt.ml.network.nodes;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
 
 import com.mlt.ml.function.RangeFunction;
 import com.mlt.ml.network.Edge;
 import com.mlt.ml.network.Node;
 
 /**
- * A 2D pool node.
+ * A 2D max pool node, that pools independently each channel of the input.
+ * Channels are stored one after the other, each as a row-major matrix.
  *
  * @author Miquel Sas
  */
@@ -36,6 +39,8 @@ public class Pool2DNode extends Node {
 	private int inputRows;
 	/** Input columns. */
 	private int inputColumns;
+	/** Channels. */
+	private int channels;
 	/** Pool rows. */
 	private int poolRows;
 	/** Pool columns. */
@@ -45,13 +50,25 @@ public class Pool2DNode extends Node {
 	/** Output columns. */
 	private int outputColumns;
 
+	/**
+	 * Map of pool indexes, a flat row-major matrix with a row per output value and
+	 * a column per element of the pool, that contains the index of the input value.
+	 */
+	private int[] poolIndexes;
+
 	/** Input values cached for parallel process. */
 	private double[] inputValues;
 	/** Output values cached to avoid GC stress. */
 	private double[] outputValues;
+	/** Output deltas cached for parallel process. */
+	private double[] outputDeltas;
+	/** Input deltas cached to avoid GC stress. */
+	private double[] inputDeltas;
 
 	/** Forward function. */
 	private RangeFunction forwardFunction;
+	/** Backward function. */
+	private RangeFunction backwardFunction;
 
 	/**
 	 * Default constructor to restore.
@@ -61,7 +78,7 @@ public class Pool2DNode extends Node {
 	}
 
 	/**
-	 * Constructor.
+	 * Constructor of a single channel pool.
 	 * 
 	 * @param inputRows    Input rows.
 	 * @param inputColumns Input columns.
@@ -69,6 +86,24 @@ public class Pool2DNode extends Node {
 	 * @param poolColumns  Pool columns.
 	 */
 	public Pool2DNode(int inputRows, int inputColumns, int poolRows, int poolColumns) {
+		this(inputRows, inputColumns, 1, poolRows, poolColumns);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param inputRows    Input rows.
+	 * @param inputColumns Input columns.
+	 * @param channels     Channels.
+	 * @param poolRows     Pool rows.
+	 * @param poolColumns  Pool columns.
+	 */
+	public Pool2DNode(
+		int inputRows,
+		int inputColumns,
+		int channels,
+		int poolRows,
+		int poolColumns) {
 		super();
 
 		/* Pool rows must be a multiple of input rows. */
@@ -79,16 +114,19 @@ public class Pool2DNode extends Node {
 		if (inputColumns % poolColumns != 0) {
 			throw new IllegalArgumentException("Invalid pool columns");
 		}
+		if (channels < 1) {
+			throw new IllegalArgumentException("Invalid channels");
+		}
 
 		this.inputRows = inputRows;
 		this.inputColumns = inputColumns;
+		this.channels = channels;
 		this.poolRows = poolRows;
 		this.poolColumns = poolColumns;
 		this.outputRows = inputRows / poolRows;
 		this.outputColumns = inputColumns / poolColumns;
 
-		this.outputValues = new double[outputRows * outputColumns];
-		initializeFunction();
+		initializeVectorsAndFunctions();
 	}
 
 	/**
@@ -102,7 +140,7 @@ public class Pool2DNode extends Node {
 		if (inputEdges.size() > 0) {
 			throw new IllegalStateException("More than one input edge");
 		}
-		if (edge.getSize() != (inputRows * inputColumns)) {
+		if (edge.getSize() != getInputSize()) {
 			throw new IllegalStateException("Invalid input edge size");
 		}
 		edge.setOutputNode(this);
@@ -120,18 +158,75 @@ public class Pool2DNode extends Node {
 		if (outputEdges.size() > 0) {
 			throw new IllegalStateException("More than one output edge");
 		}
-		if (edge.getSize() != (outputRows * outputColumns)) {
+		if (edge.getSize() != getOutputSize()) {
 			throw new IllegalStateException("Invalid output edge size");
 		}
 		edge.setInputNode(this);
 		outputEdges.add(edge);
 	}
 
+	/**
+	 * Route the output deltas to the input values that were the maximum of each
+	 * pool, the rest of input deltas are zero.
+	 */
+	@Override
+	public void backward() {
+		inputValues = inputEdges.get(0).getForwardData();
+		outputDeltas = outputEdges.get(0).getBackwardData();
+		backwardFunction.process();
+		pushBackward(inputDeltas);
+	}
+
+	/**
+	 * Route the output deltas of each pattern of the batch to the input values that
+	 * were the maximum of each pool.
+	 */
+	@Override
+	public void backwardBatch() {
+		double[][] inputBatch = inputEdges.get(0).getForwardBatch();
+		double[][] outputDeltasBatch = outputEdges.get(0).getBackwardBatch();
+		double[][] inputDeltasBatch = new double[inputBatch.length][];
+		for (int b = 0; b < inputBatch.length; b++) {
+			inputValues = inputBatch[b];
+			outputDeltas = outputDeltasBatch[b];
+			backwardFunction.process();
+			inputDeltasBatch[b] = Arrays.copyOf(inputDeltas, inputDeltas.length);
+		}
+		pushBackwardBatch(inputDeltasBatch);
+	}
+
+	/**
+	 * Backward to process in parallel. Pools do not overlap, thus each range writes
+	 * its own input deltas.
+	 * 
+	 * @param startIndex Start index in the output vector.
+	 * @param endIndex   End index in the output vector.
+	 */
+	private void backward(int startIndex, int endIndex) {
+		int poolSize = poolRows * poolColumns;
+		for (int outputIndex = startIndex; outputIndex <= endIndex; outputIndex++) {
+			int row = outputIndex * poolSize;
+			int maxIndex = poolIndexes[row];
+			for (int i = row; i < row + poolSize; i++) {
+				int inputIndex = poolIndexes[i];
+				inputDeltas[inputIndex] = 0;
+				if (inputValues[inputIndex] > inputValues[maxIndex]) {
+					maxIndex = inputIndex;
+				}
+			}
+			inputDeltas[maxIndex] = outputDeltas[outputIndex];
+		}
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
 	@Override
-	public void backward() {}
+	public double[] calculate(List<double[]> inputValues) {
+		double[] outputValues = new double[getOutputSize()];
+		forward(inputValues.get(0), outputValues, 0, outputValues.length - 1);
+		return outputValues;
+	}
 
 	/**
 	 * {@inheritDoc}
@@ -146,30 +241,54 @@ public class Pool2DNode extends Node {
 	/**
 	 * Forward to process in parallel.
 	 * 
-	 * @param startIndex Start index in the result vector.
-	 * @param endIndex   End index in the result vector.
+	 * @param inputValues  The input values.
+	 * @param outputValues The output values.
+	 * @param startIndex   Start index in the result vector.
+	 * @param endIndex     End index in the result vector.
 	 */
-	private void forward(int startIndex, int endIndex) {
-		for (int index = startIndex; index <= endIndex; index++) {
-			int outputRow = index / outputColumns;
-			int outputColumn = index % outputColumns;
+	private void forward(
+		double[] inputValues,
+		double[] outputValues,
+		int startIndex,
+		int endIndex) {
+		int poolSize = poolRows * poolColumns;
+		for (int outputIndex = startIndex; outputIndex <= endIndex; outputIndex++) {
+			int row = outputIndex * poolSize;
 			double max = Double.NEGATIVE_INFINITY;
-			for (int poolRow = 0; poolRow < poolRows; poolRow++) {
-				for (int poolColumn = 0; poolColumn < poolColumns; poolColumn++) {
-					int inputRow = outputRow * poolRows + poolRow;
-					int inputColumn = outputColumn * poolColumns + poolColumn;
-					int inputIndex = inputRow * inputColumns + inputColumn;
-					double inputValue = inputValues[inputIndex];
-					if (inputValue > max) {
-						max = inputValue;
-					}
+			for (int i = row; i < row + poolSize; i++) {
+				double inputValue = inputValues[poolIndexes[i]];
+				if (inputValue > max) {
+					max = inputValue;
 				}
 			}
-			int outputIndex = outputRow * outputColumns + outputColumn;
 			outputValues[outputIndex] = max;
 		}
 	}
-	
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void forwardBatch(int batchSize) {
+		double[][] inputBatch = inputEdges.get(0).getForwardBatch();
+		double[][] outputBatch = new double[inputBatch.length][];
+		for (int b = 0; b < inputBatch.length; b++) {
+			inputValues = inputBatch[b];
+			forwardFunction.process();
+			outputBatch[b] = Arrays.copyOf(outputValues, outputValues.length);
+		}
+		pushForwardBatch(outputBatch);
+	}
+
+	/**
+	 * Return the number of channels.
+	 * 
+	 * @return The number of channels.
+	 */
+	public int getChannels() {
+		return channels;
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -183,7 +302,7 @@ public class Pool2DNode extends Node {
 	 */
 	@Override
 	public int getInputSize() {
-		return inputRows * inputColumns;
+		return channels * inputRows * inputColumns;
 	}
 
 	/**
@@ -209,7 +328,7 @@ public class Pool2DNode extends Node {
 	 */
 	@Override
 	public int getOutputSize() {
-		return outputRows * outputColumns;
+		return channels * outputRows * outputColumns;
 	}
 
 	/**
@@ -219,10 +338,35 @@ public class Pool2DNode extends Node {
 	public void initialize() {}
 
 	/**
-	 * Initialize the forward parallel function.
+	 * Initialize the map of pool indexes, the cached vectors and the parallel
+	 * functions.
 	 */
-	private void initializeFunction() {
-		forwardFunction = new RangeFunction(outputRows * outputColumns, (s, e) -> forward(s, e));
+	private void initializeVectorsAndFunctions() {
+		int outputSize = getOutputSize();
+		int poolSize = poolRows * poolColumns;
+		poolIndexes = new int[outputSize * poolSize];
+		for (int outputIndex = 0; outputIndex < outputSize; outputIndex++) {
+			int channel = outputIndex / (outputRows * outputColumns);
+			int outputRow = (outputIndex / outputColumns) % outputRows;
+			int outputColumn = outputIndex % outputColumns;
+			for (int poolRow = 0; poolRow < poolRows; poolRow++) {
+				for (int poolColumn = 0; poolColumn < poolColumns; poolColumn++) {
+					int inputRow = outputRow * poolRows + poolRow;
+					int inputColumn = outputColumn * poolColumns + poolColumn;
+					int inputIndex = (channel * inputRows + inputRow) * inputColumns + inputColumn;
+					poolIndexes[outputIndex * poolSize + poolRow * poolColumns + poolColumn] = inputIndex;
+				}
+			}
+		}
+
+		outputValues = new double[outputSize];
+		inputDeltas = new double[getInputSize()];
+
+		forwardFunction = new RangeFunction(
+			outputSize,
+			poolSize,
+			(s, e) -> forward(inputValues, outputValues, s, e));
+		backwardFunction = new RangeFunction(outputSize, poolSize, (s, e) -> backward(s, e));
 	}
 
 	/**
@@ -233,13 +377,12 @@ public class Pool2DNode extends Node {
 		restoreProperties(is);
 		inputRows = properties.getInteger("input-rows");
 		inputColumns = properties.getInteger("input-columns");
+		channels = properties.getInteger("channels", 1);
 		poolRows = properties.getInteger("pool-rows");
 		poolColumns = properties.getInteger("pool-columns");
 		outputRows = properties.getInteger("output-rows");
 		outputColumns = properties.getInteger("output-columns");
-
-		outputValues = new double[outputRows * outputColumns];
-		initializeFunction();
+		initializeVectorsAndFunctions();
 	}
 
 	/**
@@ -249,6 +392,7 @@ public class Pool2DNode extends Node {
 	public void save(OutputStream os) throws IOException {
 		properties.setInteger("input-rows", inputRows);
 		properties.setInteger("input-columns", inputColumns);
+		properties.setInteger("channels", channels);
 		properties.setInteger("pool-rows", poolRows);
 		properties.setInteger("pool-columns", poolColumns);
 		properties.setInteger("output-rows", outputRows);
@@ -20,19 +20,47 @@ package com.mlt.ml.network.nodes;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 
+import com.mlt.ml.function.Optimizer;
 import com.mlt.ml.function.RangeFunction;
 import com.mlt.ml.network.Edge;
 import com.mlt.ml.network.Gaussian;
+import com.mlt.ml.network.Network;
 import com.mlt.ml.network.Node;
+import com.mlt.util.ArrayQueue;
 import com.mlt.util.BlockQueue;
 import com.mlt.util.Matrix;
 import com.mlt.util.Queue;
+import com.mlt.util.Vector;
 
 /**
  * Weights node with adaptative optimizers using stochastic gradient descent
  * back propagation.
+ * <p>
+ * By default, gradients are softened averaging a queue of the last raw
+ * gradients and applied with momentum. When an optimizer is set, the raw
+ * gradients are passed to the optimizer, that updates the weights in place
+ * holding its own state, and the queues are not used.
+ * <p>
+ * Weights, learning rates, momentums and gradients are stored in flat row-major
+ * vectors of size <em>inputSize * outputSize</em>, the element (in, out) being
+ * at index <em>in * outputSize + out</em>. Forward and backward kernels walk
+ * these vectors by rows, that is, sequentially in memory. They are also saved
+ * flat, their shape given by the input and output sizes.
+ * <p>
+ * In single precision the weights are only saved as floats, halving their
+ * size in streams and checkpoints. They are still held, computed and updated
+ * in double precision.
+ * <p>
+ * Once pruned, the weights with the smallest magnitude are fixed to zero and
+ * the kept ones are indexed by rows (CSR) and by columns (CSC), so that the
+ * kernels only visit them: forward kernels walk the columns and backward
+ * kernels the rows. The optimizer only updates the kept weights and holds
+ * state for them. Pruned nodes are saved in the sparse form.
  *
  * @author Miquel Sas
  */
@@ -44,9 +72,38 @@ public class WeightsNode extends Node {
 	class Gradients {
 		GradientSoftener softener = GradientSoftener.WMA;
 		RangeFunction inputFunction;
+		RangeFunction inputBatchFunction;
 		RangeFunction outputFunction;
-		Queue<double[][]> inputQueue;
-		Queue<double[][]> outputQueue;
+		Queue<double[]> inputQueue;
+		Queue<double[]> outputQueue;
+		Queue<double[]> spareQueue;
+		double[] optimizerGradients;
+
+		/**
+		 * Add raw gradients to the input queue. The evicted gradients are kept to be
+		 * reused, unless they are shared with the output queue.
+		 * 
+		 * @param gradients The raw gradients.
+		 */
+		void addInput(double[] gradients) {
+			if (inputQueue.size() == queueSize && softener != GradientSoftener.NONE) {
+				spareQueue.addLast(inputQueue.getFirst());
+			}
+			inputQueue.addLast(gradients);
+		}
+
+		/**
+		 * Add softened gradients to the output queue, keeping the evicted gradients
+		 * to be reused.
+		 * 
+		 * @param gradients The softened gradients.
+		 */
+		void addOutput(double[] gradients) {
+			if (outputQueue.size() == queueSize) {
+				spareQueue.addLast(outputQueue.getFirst());
+			}
+			outputQueue.addLast(gradients);
+		}
 
 		/**
 		 * @param start Start input index.
@@ -54,8 +111,73 @@ public class WeightsNode extends Node {
 		 */
 		void gradients(int start, int end) {
 			for (int in = start; in <= end; in++) {
+				double inputValue = t.inputValues[in];
+				int row = in * outputSize;
+				if (s != null) {
+					for (int k = s.rowPointers[in]; k < s.rowPointers[in + 1]; k++) {
+						int out = s.columns[k];
+						t.gradients[row + out] = inputValue * t.outputDeltas[out];
+					}
+					continue;
+				}
 				for (int out = 0; out < outputSize; out++) {
-					t.matrix[in][out] = t.inputValues[in] * t.outputDeltas[out];
+					t.gradients[row + out] = inputValue * t.outputDeltas[out];
+				}
+			}
+		}
+
+		/**
+		 * Return a cleared gradients vector, reused if available.
+		 * 
+		 * @return The gradients vector.
+		 */
+		double[] newGradients() {
+			if (spareQueue.isEmpty()) {
+				return new double[inputSize * outputSize];
+			}
+			double[] gradients = spareQueue.removeLast();
+			Vector.fill(gradients, 0);
+			return gradients;
+		}
+
+		/**
+		 * Return the cleared gradients vector reused with an optimizer.
+		 * 
+		 * @return The gradients vector.
+		 */
+		double[] newOptimizerGradients() {
+			if (optimizerGradients == null) {
+				optimizerGradients = new double[inputSize * outputSize];
+			} else {
+				Vector.fill(optimizerGradients, 0);
+			}
+			return optimizerGradients;
+		}
+
+		/**
+		 * Calculates the gradients averaged over the patterns of the batch.
+		 * 
+		 * @param start Start input index.
+		 * @param end   End input index.
+		 */
+		void gradientsBatch(int start, int end) {
+			int rows = t.inputBatch.length;
+			for (int in = start; in <= end; in++) {
+				int row = in * outputSize;
+				for (int b = 0; b < rows; b++) {
+					double inputValue = t.inputBatch[b][in];
+					double[] outputDeltas = t.outputDeltasBatch[b];
+					if (s != null) {
+						for (int k = s.rowPointers[in]; k < s.rowPointers[in + 1]; k++) {
+							int out = s.columns[k];
+							t.gradients[row + out] += inputValue * outputDeltas[out];
+						}
+						continue;
+					}
+					Vector.axpy(inputValue, outputDeltas, 0, t.gradients, row, outputSize);
+				}
+				for (int out = 0; out < outputSize; out++) {
+					t.gradients[row + out] /= rows;
 				}
 			}
 		}
@@ -70,20 +192,16 @@ public class WeightsNode extends Node {
 			if (g.inputQueue.isEmpty()) {
 				return;
 			}
-			Iterator<double[][]> iter = g.inputQueue.iterator();
+			int from = start * outputSize;
+			int length = (end - start + 1) * outputSize;
+			Iterator<double[]> iter = g.inputQueue.iterator();
 			while (iter.hasNext()) {
-				double[][] gradients = iter.next();
-				for (int in = start; in <= end; in++) {
-					for (int out = 0; out < outputSize; out++) {
-						t.matrix[in][out] += gradients[in][out];
-					}
-				}
+				double[] gradients = iter.next();
+				Vector.axpy(1.0, gradients, from, t.gradients, from, length);
 			}
 			double size = ((double) g.inputQueue.size());
-			for (int in = start; in <= end; in++) {
-				for (int out = 0; out < outputSize; out++) {
-					t.matrix[in][out] /= size;
-				}
+			for (int i = from; i < from + length; i++) {
+				t.gradients[i] /= size;
 			}
 		}
 
@@ -97,23 +215,19 @@ public class WeightsNode extends Node {
 			if (g.inputQueue.isEmpty()) {
 				return;
 			}
-			Iterator<double[][]> iter = g.inputQueue.iterator();
+			int from = start * outputSize;
+			int length = (end - start + 1) * outputSize;
+			Iterator<double[]> iter = g.inputQueue.iterator();
 			double weight = 1;
 			double total = 0;
 			while (iter.hasNext()) {
-				double[][] gradients = iter.next();
-				for (int in = start; in <= end; in++) {
-					for (int out = 0; out < outputSize; out++) {
-						t.matrix[in][out] += (gradients[in][out] * weight);
-					}
-				}
+				double[] gradients = iter.next();
+				Vector.axpy(weight, gradients, from, t.gradients, from, length);
 				total += weight;
 				weight += 1;
 			}
-			for (int in = start; in <= end; in++) {
-				for (int out = 0; out < outputSize; out++) {
-					t.matrix[in][out] /= total;
-				}
+			for (int i = from; i < from + length; i++) {
+				t.gradients[i] /= total;
 			}
 		}
 	}
@@ -134,7 +248,7 @@ public class WeightsNode extends Node {
 	 */
 	class Momentum {
 
-		double[][] momentums;
+		double[] momentums;
 		MomentumStrategy strategy = MomentumStrategy.FIXED;
 		double increase = 1.2;
 		double decrease = 0.8;
@@ -188,15 +302,19 @@ public class WeightsNode extends Node {
 		 * Initialize momentums.
 		 */
 		void initialize() {
-			momentums = new double[inputSize][outputSize];
-			Matrix.fill(momentums, initialValue);
+			momentums = new double[inputSize * outputSize];
+			Vector.fill(momentums, initialValue);
 		}
 
 		/**
 		 * Restore parameters from properties.
 		 */
 		void restoreProperties() {
-			momentums = properties.getDouble2A("momentums");
+			if (s != null) {
+				momentums = s.scatter(properties.getDouble1A("momentums-sparse"));
+			} else {
+				momentums = getFlat("momentums");
+			}
 			increase = properties.getDouble("momentum-increase");
 			decrease = properties.getDouble("momentum-decrease");
 			maximum = properties.getDouble("momentum-maximum");
@@ -207,7 +325,13 @@ public class WeightsNode extends Node {
 		 * Save parameters to properties.
 		 */
 		void saveProperties() {
-			properties.setDouble2A("momentums", momentums);
+			if (s != null) {
+				properties.remove("momentums");
+				properties.setDouble1A("momentums-sparse", s.gather(momentums));
+			} else {
+				properties.remove("momentums-sparse");
+				properties.setDouble1A("momentums", momentums);
+			}
 			properties.setDouble("momentum-increase", increase);
 			properties.setDouble("momentum-decrease", decrease);
 			properties.setDouble("momentum-maximum", maximum);
@@ -268,6 +392,111 @@ public class WeightsNode extends Node {
 		FIXED, GRADIENTS
 	}
 
+	/**
+	 * Sparse structure of the kept weights after pruning.
+	 */
+	class Sparse {
+		/** Per input row, the index of its first kept weight, plus the total. */
+		int[] rowPointers;
+		/** Per kept weight by rows, its output column. */
+		int[] columns;
+		/** Per output column, the index of its first kept weight, plus the total. */
+		int[] columnPointers;
+		/** Per kept weight by columns, its input row. */
+		int[] rows;
+
+		/**
+		 * Constructor, that builds the columns index from the rows index.
+		 * 
+		 * @param rowPointers Row pointers.
+		 * @param columns     Columns of kept weights by rows.
+		 */
+		Sparse(int[] rowPointers, int[] columns) {
+			this.rowPointers = rowPointers;
+			this.columns = columns;
+			columnPointers = new int[outputSize + 1];
+			for (int k = 0; k < columns.length; k++) {
+				columnPointers[columns[k] + 1]++;
+			}
+			for (int out = 0; out < outputSize; out++) {
+				columnPointers[out + 1] += columnPointers[out];
+			}
+			rows = new int[columns.length];
+			int[] next = Arrays.copyOf(columnPointers, outputSize);
+			for (int in = 0; in < inputSize; in++) {
+				for (int k = rowPointers[in]; k < rowPointers[in + 1]; k++) {
+					rows[next[columns[k]]++] = in;
+				}
+			}
+		}
+
+		/**
+		 * Return the column dot product of the input values and the kept weights.
+		 * 
+		 * @param inputValues The input values.
+		 * @param out         The output column.
+		 * @return The dot product.
+		 */
+		double dotColumn(double[] inputValues, int out) {
+			double sum = 0;
+			for (int k = columnPointers[out]; k < columnPointers[out + 1]; k++) {
+				int in = rows[k];
+				sum += inputValues[in] * weights[in * outputSize + out];
+			}
+			return sum;
+		}
+
+		/**
+		 * Return the row dot product of the kept weights and the output deltas.
+		 * 
+		 * @param in           The input row.
+		 * @param outputDeltas The output deltas.
+		 * @return The dot product.
+		 */
+		double dotRow(int in, double[] outputDeltas) {
+			int row = in * outputSize;
+			double sum = 0;
+			for (int k = rowPointers[in]; k < rowPointers[in + 1]; k++) {
+				sum += weights[row + columns[k]] * outputDeltas[columns[k]];
+			}
+			return sum;
+		}
+
+		/**
+		 * Return the kept values of a dense vector, by rows.
+		 * 
+		 * @param dense The dense vector.
+		 * @return The kept values.
+		 */
+		double[] gather(double[] dense) {
+			double[] values = new double[columns.length];
+			for (int in = 0; in < inputSize; in++) {
+				int row = in * outputSize;
+				for (int k = rowPointers[in]; k < rowPointers[in + 1]; k++) {
+					values[k] = dense[row + columns[k]];
+				}
+			}
+			return values;
+		}
+
+		/**
+		 * Return the dense vector of kept values by rows, with zeros elsewhere.
+		 * 
+		 * @param values The kept values.
+		 * @return The dense vector.
+		 */
+		double[] scatter(double[] values) {
+			double[] dense = new double[inputSize * outputSize];
+			for (int in = 0; in < inputSize; in++) {
+				int row = in * outputSize;
+				for (int k = rowPointers[in]; k < rowPointers[in + 1]; k++) {
+					dense[row + columns[k]] = values[k];
+				}
+			}
+			return dense;
+		}
+	}
+
 	/**
 	 * Transient cache data structure.
 	 */
@@ -276,28 +505,44 @@ public class WeightsNode extends Node {
 		double[] inputValues;
 		double[] outputDeltas;
 		double[] outputValues;
-		double[][] matrix;
+		double[] gradients;
+		double[][] inputBatch;
+		double[][] inputDeltasBatch;
+		double[][] outputDeltasBatch;
+		double[][] outputBatch;
 	}
 
 	/** Input size. */
 	private int inputSize;
 	/** Output size. */
 	private int outputSize;
-	/** Matrix of weights (in-out). */
-	private double[][] weights;
+	/** Flat row-major matrix of weights (in-out). */
+	private double[] weights;
+	/** Precision of the saved weights. */
+	private Network.Precision precision = Network.Precision.DOUBLE;
 
 	/** Learning rates. */
-	private double[][] learningRates;
+	private double[] learningRates;
+	/** Scale applied to the learning rates, driven by the trainer schedules. */
+	private double learningRateScale = 1.0;
 
 	/** Backward function. */
 	private RangeFunction backwardFunction;
+	/** Backward batch function. */
+	private RangeFunction backwardBatchFunction;
 	/** Forward function. */
 	private RangeFunction forwardFunction;
+	/** Forward batch function. */
+	private RangeFunction forwardBatchFunction;
 
 	/** Gradients data structure. */
 	private Gradients g;
 	/** Momentum data structure. */
 	private Momentum m;
+	/** Sparse structure, null if not pruned. */
+	private Sparse s;
+	/** Optional optimizer that replaces the gradients softener and the momentum. */
+	private Optimizer optimizer;
 	/** Transient cached vectors and matrices. */
 	private Transient t;
 
@@ -308,6 +553,8 @@ public class WeightsNode extends Node {
 	private double minimumEqual = 1.0e-12;
 	/** Default size for all queues. */
 	private int queueSize = 5;
+	/** Number of input rows of a block processed at once by the batch kernels. */
+	private int blockSize = 64;
 
 	/**
 	 * Constructor used to restore.
@@ -366,16 +613,17 @@ public class WeightsNode extends Node {
 	 */
 	@Override
 	public void adjustStep() {
+		if (optimizer != null) {
+			return;
+		}
 		if (m.strategy == MomentumStrategy.GRADIENTS) {
-			double[][] prevGradients = g.outputQueue.getLast(1);
-			double[][] nextGradients = g.outputQueue.getLast(0);
-			for (int in = 0; in < inputSize; in++) {
-				for (int out = 0; out < outputSize; out++) {
-					double prevGrad = prevGradients[in][out];
-					double nextGrad = nextGradients[in][out];
-					double momentum = m.momentums[in][out];
-					m.momentums[in][out] = m.gradients(momentum, prevGrad, nextGrad);
-				}
+			double[] prevGradients = g.outputQueue.getLast(1);
+			double[] nextGradients = g.outputQueue.getLast(0);
+			for (int i = 0; i < m.momentums.length; i++) {
+				double prevGrad = prevGradients[i];
+				double nextGrad = nextGradients[i];
+				double momentum = m.momentums[i];
+				m.momentums[i] = m.gradients(momentum, prevGrad, nextGrad);
 			}
 		}
 	}
@@ -385,7 +633,11 @@ public class WeightsNode extends Node {
 	 */
 	@Override
 	public void backward() {
-		if (inputEdges.get(0).isRecurrent()) {
+		if (inputEdges.get(0).isRecurrent() && !inputEdges.get(0).isThroughTime()) {
+			return;
+		}
+		/* Steps of a truncated window without deltas do not update. */
+		if (!outputEdges.get(0).hasBackwardData()) {
 			return;
 		}
 
@@ -393,19 +645,14 @@ public class WeightsNode extends Node {
 		t.inputValues = inputEdges.get(0).getForwardData();
 		t.outputDeltas = outputEdges.get(0).getBackwardData();
 
-		/* Calculate and add gradients to the input queue. */
-		t.matrix = new double[inputSize][outputSize];
+		/* Calculate and add gradients to the input queue, or step the optimizer. */
+		t.gradients = (optimizer != null ? g.newOptimizerGradients() : g.newGradients());
 		g.inputFunction.process();
-		g.inputQueue.addLast(t.matrix);
-
-		/* Process (collector) the input queue and add to the output queue. */
-		if (g.softener == GradientSoftener.NONE) {
-			t.matrix = g.inputQueue.getLast();
+		if (optimizer != null) {
+			optimizer.step();
 		} else {
-			t.matrix = new double[inputSize][outputSize];
-			g.outputFunction.process();
+			queueGradients();
 		}
-		g.outputQueue.addLast(t.matrix);
 
 		/* Process the main bacward function. */
 		backwardFunction.process();
@@ -414,6 +661,57 @@ public class WeightsNode extends Node {
 		pushBackward(t.inputDeltas);
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void backwardBatch() {
+		if (inputEdges.get(0).isRecurrent()) {
+			return;
+		}
+
+		/* Retrieve the batches of input values and output deltas. */
+		t.inputBatch = inputEdges.get(0).getForwardBatch();
+		t.outputDeltasBatch = outputEdges.get(0).getBackwardBatch();
+		t.inputDeltasBatch = new double[t.inputBatch.length][inputSize];
+
+		/* Calculate the batch averaged gradients and queue them or step the optimizer. */
+		t.gradients = (optimizer != null ? g.newOptimizerGradients() : g.newGradients());
+		g.inputBatchFunction.setWorkPerIndex(outputSize * t.inputBatch.length);
+		g.inputBatchFunction.process();
+		if (optimizer != null) {
+			optimizer.step();
+		} else {
+			queueGradients();
+		}
+
+		/* Process the bacward batch function. */
+		backwardBatchFunction.setWorkPerIndex(outputSize * (t.inputBatch.length + 1));
+		backwardBatchFunction.process();
+
+		/* Push backward the resulting batch of input deltas. */
+		pushBackwardBatch(t.inputDeltasBatch);
+	}
+
+	/**
+	 * Backward batch process from input indexes start to end. The input deltas of
+	 * every pattern are calculated before the weights are updated once.
+	 * 
+	 * @param start Start input index.
+	 * @param end   End input index.
+	 */
+	private void backwardBatch(int start, int end) {
+		int rows = t.inputBatch.length;
+		for (int in = start; in <= end; in++) {
+			int row = in * outputSize;
+			for (int b = 0; b < rows; b++) {
+				double[] outputDeltas = t.outputDeltasBatch[b];
+				t.inputDeltasBatch[b][in] = dot(in, outputDeltas);
+			}
+			update(row);
+		}
+	}
+
 	/**
 	 * Backward process from input indexes start to end.
 	 * 
@@ -421,32 +719,49 @@ public class WeightsNode extends Node {
 	 * @param end   End input index.
 	 */
 	private void backward(int start, int end) {
-
-		double[][] prevGradients = g.outputQueue.getLast(1);
-		double[][] nextGradients = g.outputQueue.getLast(0);
-
 		for (int in = start; in <= end; in++) {
+			int row = in * outputSize;
+			t.inputDeltas[in] = dot(in, t.outputDeltas);
+			update(row);
+		}
+	}
 
-			double inputDelta = 0;
-
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public double[] calculate(List<double[]> inputValues) {
+		double[] input = inputValues.get(0);
+		double[] outputValues = new double[outputSize];
+		if (s != null) {
 			for (int out = 0; out < outputSize; out++) {
-
-				double weight = weights[in][out];
-				double outputDelta = t.outputDeltas[out];
-				inputDelta += (weight * outputDelta);
-
-				double prevGrad = prevGradients[in][out];
-				double nextGrad = nextGradients[in][out];
-				double momentum = m.momentums[in][out];
-				double gradient = momentum * prevGrad + (1 - momentum) * nextGrad;
-
-				double learningRate = learningRates[in][out];
-				double weightDelta = learningRate * gradient;
-				weights[in][out] += weightDelta;
+				outputValues[out] = s.dotColumn(input, out);
 			}
+			return outputValues;
+		}
+		for (int in = 0; in < inputSize; in++) {
+			if (input[in] == 0) {
+				continue;
+			}
+			Vector.axpy(input[in], weights, in * outputSize, outputValues, 0, outputSize);
+		}
+		return outputValues;
+	}
 
-			t.inputDeltas[in] = inputDelta;
+	/**
+	 * Return the dot product of a row of weights and the output deltas, only of
+	 * the kept weights if pruned.
+	 * 
+	 * @param in           The input index of the row.
+	 * @param outputDeltas The output deltas.
+	 * @return The dot product.
+	 */
+	private double dot(int in, double[] outputDeltas) {
+		if (s != null) {
+			return s.dotRow(in, outputDeltas);
 		}
+		int row = in * outputSize;
+		return Vector.dot(weights, row, outputDeltas, 0, outputSize);
 	}
 
 	/**
@@ -460,20 +775,76 @@ public class WeightsNode extends Node {
 	}
 
 	/**
-	 * Forward process from output indexes start to end.
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void forwardBatch(int batchSize) {
+		t.inputBatch = inputEdges.get(0).getForwardBatch();
+		t.outputBatch = new double[t.inputBatch.length][outputSize];
+		forwardBatchFunction.setWorkPerIndex(inputSize * t.inputBatch.length);
+		forwardBatchFunction.process();
+		pushForwardBatch(t.outputBatch);
+	}
+
+	/**
+	 * Forward batch process from output indexes start to end. The weights are
+	 * scanned by blocks of rows, and each block is applied to all the patterns of
+	 * the batch while it remains in the cache.
+	 * 
+	 * @param start Start output index.
+	 * @param end   End output index.
+	 */
+	private void forwardBatch(int start, int end) {
+		int rows = t.inputBatch.length;
+		int length = end - start + 1;
+		if (s != null) {
+			for (int b = 0; b < rows; b++) {
+				for (int out = start; out <= end; out++) {
+					t.outputBatch[b][out] = s.dotColumn(t.inputBatch[b], out);
+				}
+			}
+			return;
+		}
+		for (int block = 0; block < inputSize; block += blockSize) {
+			int blockEnd = Math.min(block + blockSize, inputSize);
+			for (int b = 0; b < rows; b++) {
+				double[] inputValues = t.inputBatch[b];
+				double[] outputValues = t.outputBatch[b];
+				for (int in = block; in < blockEnd; in++) {
+					double input = inputValues[in];
+					if (input == 0) {
+						continue;
+					}
+					Vector.axpy(input, weights, in * outputSize + start, outputValues, start, length);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Forward process from output indexes start to end. The output segment is
+	 * accumulated scanning the weights by rows.
 	 * 
 	 * @param start Start output index.
 	 * @param end   End output index.
 	 */
 	private void forward(int start, int end) {
+		if (s != null) {
+			for (int out = start; out <= end; out++) {
+				t.outputValues[out] = s.dotColumn(t.inputValues, out);
+			}
+			return;
+		}
+		int length = end - start + 1;
 		for (int out = start; out <= end; out++) {
-			double signal = 0;
-			for (int in = 0; in < inputSize; in++) {
-				double input = t.inputValues[in];
-				double weight = weights[in][out];
-				signal += (input * weight);
+			t.outputValues[out] = 0;
+		}
+		for (int in = 0; in < inputSize; in++) {
+			double input = t.inputValues[in];
+			if (input == 0) {
+				continue;
 			}
-			t.outputValues[out] = signal;
+			Vector.axpy(input, weights, in * outputSize + start, t.outputValues, start, length);
 		}
 	}
 
@@ -482,6 +853,9 @@ public class WeightsNode extends Node {
 	 */
 	@Override
 	public String getExtendedDescription() {
+		if (optimizer != null) {
+			return "OP: " + optimizer.getId();
+		}
 		StringBuilder b = new StringBuilder();
 		b.append("GS: ");
 		b.append(g.softener);
@@ -492,6 +866,21 @@ public class WeightsNode extends Node {
 		return b.toString();
 	}
 
+	/**
+	 * Return a flat row-major matrix property, saved flat with the shape given by
+	 * the input and output sizes, or as a matrix by previous versions.
+	 * 
+	 * @param key The key.
+	 * @return The flat matrix.
+	 */
+	private double[] getFlat(String key) {
+		Object value = properties.getObject(key);
+		if (value instanceof double[][]) {
+			return Matrix.flatten((double[][]) value);
+		}
+		return (double[]) value;
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -516,6 +905,46 @@ public class WeightsNode extends Node {
 		return outputSize;
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public List<double[]> getParameters() {
+		List<double[]> parameters = new ArrayList<>();
+		parameters.add(weights);
+		return parameters;
+	}
+
+	/**
+	 * @return The fraction of weights kept after pruning, one if not pruned.
+	 */
+	public double getDensity() {
+		return (s == null ? 1.0 : ((double) s.columns.length) / (inputSize * outputSize));
+	}
+
+	/**
+	 * @return The precision of the saved weights.
+	 */
+	public Network.Precision getPrecision() {
+		return precision;
+	}
+
+	/**
+	 * @return The output columns of the kept weights by rows, or null if not
+	 *         pruned.
+	 */
+	public int[] getSparseColumns() {
+		return (s == null ? null : s.columns);
+	}
+
+	/**
+	 * @return Per input row, the index of its first kept weight in the sparse
+	 *         columns plus the total, or null if not pruned.
+	 */
+	public int[] getSparseRowPointers() {
+		return (s == null ? null : s.rowPointers);
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -525,6 +954,9 @@ public class WeightsNode extends Node {
 		initializeLearningRates();
 		m.initialize();
 		initializeWeights();
+		if (optimizer != null) {
+			optimizer.initialize(weights.length);
+		}
 		initializeVectorsAndFunctions();
 	}
 
@@ -532,20 +964,18 @@ public class WeightsNode extends Node {
 	 * Initialize learning rates.
 	 */
 	private void initializeLearningRates() {
-		learningRates = new double[inputSize][outputSize];
-		Matrix.fill(learningRates, 0.01);
+		learningRates = new double[inputSize * outputSize];
+		Vector.fill(learningRates, 0.01);
 	}
 
 	/**
 	 * Initialize weights.
 	 */
 	private void initializeWeights() {
-		weights = new double[inputSize][outputSize];
+		weights = new double[inputSize * outputSize];
 		Gaussian g = new Gaussian(true);
-		for (int in = 0; in < inputSize; in++) {
-			for (int out = 0; out < outputSize; out++) {
-				weights[in][out] = g.nextGaussian();
-			}
+		for (int i = 0; i < weights.length; i++) {
+			weights[i] = g.nextGaussian();
 		}
 		g.end();
 	}
@@ -559,36 +989,141 @@ public class WeightsNode extends Node {
 		t.inputDeltas = new double[inputSize];
 		t.outputValues = new double[outputSize];
 
+		/*
+		 * Functions with the estimated work per index, an output index in forward
+		 * functions and an input index in backward and gradients functions. The work
+		 * of batch functions is set by batch.
+		 */
+
 		/* Forward function. */
-		forwardFunction = new RangeFunction(outputSize, (start, end) -> forward(start, end));
+		forwardFunction =
+			new RangeFunction(outputSize, inputSize, (start, end) -> forward(start, end));
 
 		/* Backward function. */
-		backwardFunction = new RangeFunction(inputSize, (start, end) -> backward(start, end));
+		backwardFunction =
+			new RangeFunction(inputSize, 2 * outputSize, (start, end) -> backward(start, end));
+
+		/* Batch functions. */
+		forwardBatchFunction =
+			new RangeFunction(outputSize, inputSize, (start, end) -> forwardBatch(start, end));
+		backwardBatchFunction =
+			new RangeFunction(inputSize, outputSize, (start, end) -> backwardBatch(start, end));
 
 		/* Gradients input function. */
 		g.inputFunction =
 			new RangeFunction(
 				inputSize,
+				outputSize,
 				(start, end) -> g.gradients(start, end));
+		g.inputBatchFunction =
+			new RangeFunction(
+				inputSize,
+				outputSize,
+				(start, end) -> g.gradientsBatch(start, end));
 
 		/* Gradients output function only if softener is not NONE. */
 		if (g.softener == GradientSoftener.SMA) {
 			g.outputFunction =
 				new RangeFunction(
 					inputSize,
+					outputSize * queueSize,
 					(start, end) -> g.gradientsSMA(start, end));
 		}
 		if (g.softener == GradientSoftener.WMA) {
 			g.outputFunction =
 				new RangeFunction(
 					inputSize,
+					outputSize * queueSize,
 					(start, end) -> g.gradientsWMA(start, end));
 		}
 
 		/* Clear queues and initialize output queue with the last gradients. */
 		g.inputQueue = new BlockQueue<>(queueSize);
 		g.outputQueue = new BlockQueue<>(queueSize);
-		g.outputQueue.addLast(new double[inputSize][outputSize]);
+		if (optimizer == null) {
+			g.outputQueue.addLast(new double[inputSize * outputSize]);
+		}
+		g.spareQueue = new ArrayQueue<>();
+		g.optimizerGradients = null;
+	}
+
+	/**
+	 * Prune the weights with the smallest magnitude, that are fixed to zero and
+	 * no longer visited by the kernels. Already pruned weights count in the
+	 * fraction, thus pruning gradually with increasing fractions, fine tuning in
+	 * between, keeps the previously pruned weights. The state of the optimizer is
+	 * restarted for the kept weights only.
+	 * 
+	 * @param fraction The fraction of weights pruned, between 0 and 1.
+	 */
+	@Override
+	public void prune(double fraction) {
+		if (fraction < 0 || fraction >= 1) {
+			throw new IllegalArgumentException("Invalid pruning fraction: " + fraction);
+		}
+		int count = (int) Math.round(fraction * weights.length);
+		if (count == 0) {
+			return;
+		}
+		double[] magnitudes = new double[weights.length];
+		for (int i = 0; i < weights.length; i++) {
+			magnitudes[i] = Math.abs(weights[i]);
+		}
+		Arrays.sort(magnitudes);
+		double threshold = magnitudes[count - 1];
+
+		/* Rows index of kept weights, zero the pruned ones. */
+		int[] rowPointers = new int[inputSize + 1];
+		int[] columns = new int[weights.length];
+		int kept = 0;
+		for (int in = 0; in < inputSize; in++) {
+			int row = in * outputSize;
+			for (int out = 0; out < outputSize; out++) {
+				if (Math.abs(weights[row + out]) > threshold) {
+					columns[kept++] = out;
+				} else {
+					weights[row + out] = 0;
+				}
+			}
+			rowPointers[in + 1] = kept;
+		}
+		s = new Sparse(rowPointers, Arrays.copyOf(columns, kept));
+		if (optimizer != null) {
+			optimizer.initialize(kept);
+		}
+	}
+
+	/**
+	 * Add the raw gradients in the transient matrix to the input queue, and add
+	 * the softened gradients to the output queue.
+	 */
+	private void queueGradients() {
+		g.addInput(t.gradients);
+
+		/* Process (collector) the input queue and add to the output queue. */
+		if (g.softener == GradientSoftener.NONE) {
+			t.gradients = g.inputQueue.getLast();
+		} else {
+			t.gradients = g.newGradients();
+			g.outputFunction.process();
+		}
+		g.addOutput(t.gradients);
+	}
+
+	/**
+	 * Remove from the properties the copies of the parameters, only needed while
+	 * the node is saved or restored, so that they do not stay on the heap.
+	 */
+	private void removeParameterProperties() {
+		properties.remove("weights");
+		properties.remove("weights-single");
+		properties.remove("weights-sparse");
+		properties.remove("sparse-row-pointers");
+		properties.remove("sparse-columns");
+		properties.remove("learning-rates");
+		properties.remove("learning-rates-sparse");
+		properties.remove("momentums");
+		properties.remove("momentums-sparse");
 	}
 
 	/**
@@ -599,11 +1134,34 @@ public class WeightsNode extends Node {
 		restoreProperties(is);
 		inputSize = properties.getInteger("input-size");
 		outputSize = properties.getInteger("output-size");
-		weights = properties.getDouble2A("weights");
+		precision = Network.Precision.valueOf(properties.getString("precision", "DOUBLE"));
+		s = null;
+		if (properties.getInteger1A("sparse-columns") != null) {
+			int[] rowPointers = properties.getInteger1A("sparse-row-pointers");
+			s = new Sparse(rowPointers, properties.getInteger1A("sparse-columns"));
+			weights = s.scatter(properties.getDouble1A("weights-sparse"));
+		} else if (precision == Network.Precision.SINGLE) {
+			float[] single = properties.getFloat1A("weights-single");
+			weights = new double[single.length];
+			for (int i = 0; i < single.length; i++) {
+				weights[i] = single[i];
+			}
+		} else {
+			weights = getFlat("weights");
+		}
 		g.softener = GradientSoftener.valueOf(properties.getString("gradients-softener"));
-		learningRates = properties.getDouble2A("learning-rates");
+		if (s != null) {
+			learningRates = s.scatter(properties.getDouble1A("learning-rates-sparse"));
+		} else {
+			learningRates = getFlat("learning-rates");
+		}
 		minimumEqual = properties.getDouble("minimum-equal");
 		m.restoreProperties();
+		optimizer = (Optimizer) properties.getObject("optimizer", null);
+		if (optimizer != null) {
+			optimizer.restore(properties);
+		}
+		removeParameterProperties();
 
 		/* Initialize cached vectors and functions. */
 		initializeVectorsAndFunctions();
@@ -616,12 +1174,36 @@ public class WeightsNode extends Node {
 	public void save(OutputStream os) throws IOException {
 		properties.setInteger("input-size", inputSize);
 		properties.setInteger("output-size", outputSize);
-		properties.setDouble2A("weights", weights);
+		properties.setString("precision", precision.name());
+		removeParameterProperties();
+		if (s != null) {
+			properties.setInteger1A("sparse-row-pointers", s.rowPointers);
+			properties.setInteger1A("sparse-columns", s.columns);
+			properties.setDouble1A("weights-sparse", s.gather(weights));
+			properties.setDouble1A("learning-rates-sparse", s.gather(learningRates));
+		} else {
+			if (precision == Network.Precision.SINGLE) {
+				float[] single = new float[weights.length];
+				for (int i = 0; i < weights.length; i++) {
+					single[i] = (float) weights[i];
+				}
+				properties.setFloat1A("weights-single", single);
+			} else {
+				properties.setDouble1A("weights", weights);
+			}
+			properties.setDouble1A("learning-rates", learningRates);
+		}
 		properties.setString("gradients-softener", g.softener.name());
-		properties.setDouble2A("learning-rates", learningRates);
 		properties.setDouble("minimum-equal", minimumEqual);
 		m.saveProperties();
+		if (optimizer != null) {
+			properties.setObject("optimizer", optimizer);
+			optimizer.save(properties);
+		} else {
+			properties.remove("optimizer");
+		}
 		saveProperties(os);
+		removeParameterProperties();
 	}
 
 	/**
@@ -682,6 +1264,68 @@ public class WeightsNode extends Node {
 		m.setStrategy(MomentumStrategy.FIXED, value);
 	}
 
+	/**
+	 * @param blockSize The number of input rows of a block processed at once by
+	 *                  the batch kernels.
+	 */
+	public void setBlockSize(int blockSize) {
+		if (blockSize < 1) {
+			throw new IllegalArgumentException("Invalid block size: " + blockSize);
+		}
+		this.blockSize = blockSize;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void setLearningRateScale(double scale) {
+		this.learningRateScale = scale;
+		if (optimizer != null) {
+			optimizer.setLearningRateScale(scale);
+		}
+	}
+
+	/**
+	 * Set the optimizer that updates the weights, replacing the gradients softener
+	 * and the momentum, or null to use them.
+	 * 
+	 * @param optimizer The optimizer.
+	 */
+	@Override
+	public void setOptimizer(Optimizer optimizer) {
+		this.optimizer = optimizer;
+		if (optimizer != null && weights != null) {
+			optimizer.initialize(s != null ? s.columns.length : weights.length);
+		}
+		if (optimizer != null) {
+			optimizer.setLearningRateScale(learningRateScale);
+		}
+		initializeVectorsAndFunctions();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void setParameters(List<double[]> parameters) {
+		if (parameters.size() != 1 || parameters.get(0).length != inputSize * outputSize) {
+			throw new IllegalArgumentException("Invalid weights parameters");
+		}
+		weights = parameters.get(0);
+	}
+
+	/**
+	 * Set the precision of the saved weights. In single precision the weights are
+	 * saved as floats, and still computed in double precision.
+	 * 
+	 * @param precision The precision.
+	 */
+	@Override
+	public void setPrecision(Network.Precision precision) {
+		this.precision = precision;
+	}
+
 	/**
 	 * @param queueSize The common size of queues.
 	 */
@@ -690,6 +1334,39 @@ public class WeightsNode extends Node {
 		initializeVectorsAndFunctions();
 	}
 
+	/**
+	 * Update the weights of an input row applying the momentum to the previous and
+	 * next softened gradients, or with the optimizer if set.
+	 * 
+	 * @param row The index of the first element of the row.
+	 */
+	private void update(int row) {
+		if (optimizer != null && s != null) {
+			int in = row / outputSize;
+			optimizer.update(weights, t.gradients, row, s.columns, s.rowPointers[in], s.rowPointers[in + 1]);
+		} else if (optimizer != null) {
+			optimizer.update(weights, t.gradients, row, outputSize);
+		} else if (s != null) {
+			double[] prevGradients = g.outputQueue.getLast(1);
+			double[] nextGradients = g.outputQueue.getLast(0);
+			int in = row / outputSize;
+			for (int k = s.rowPointers[in]; k < s.rowPointers[in + 1]; k++) {
+				int i = row + s.columns[k];
+				double momentum = m.momentums[i];
+				double gradient = momentum * prevGradients[i] + (1 - momentum) * nextGradients[i];
+				weights[i] += learningRateScale * learningRates[i] * gradient;
+			}
+		} else {
+			double[] prevGradients = g.outputQueue.getLast(1);
+			double[] nextGradients = g.outputQueue.getLast(0);
+			for (int i = row; i < row + outputSize; i++) {
+				double momentum = m.momentums[i];
+				double gradient = momentum * prevGradients[i] + (1 - momentum) * nextGradients[i];
+				weights[i] += learningRateScale * learningRates[i] * gradient;
+			}
+		}
+	}
+
 	/**
 	 * Validate initil state.
 	 */
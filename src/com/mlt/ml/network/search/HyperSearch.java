@@ -0,0 +1,572 @@
+/*
+ * Copyright (C) 2018 Miquel Sas
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mlt.ml.network.search;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import com.mlt.db.Field;
+import com.mlt.db.Persistor;
+import com.mlt.db.PersistorException;
+import com.mlt.db.Record;
+import com.mlt.db.Table;
+import com.mlt.db.Types;
+import com.mlt.ml.data.PatternSource;
+import com.mlt.ml.network.Metrics;
+import com.mlt.ml.network.Network;
+import com.mlt.ml.network.Trainer;
+import com.mlt.ml.network.TrainerCallback;
+import com.mlt.task.Task;
+import com.mlt.util.Numbers;
+import com.mlt.util.Strings;
+
+/**
+ * Hyper-parameter search. Trials are added from a grid or from random samples
+ * of a search space, and each trial trains the network that the factory builds
+ * with its parameters. Trials run concurrently, at most a number of threads at
+ * a time, and share the training and test sources through clones that share
+ * the patterns.
+ * <p>
+ * Poor trials are pruned early from their partial test metrics, either when
+ * they are below the median of the trials that reached the same epoch, or with
+ * asynchronous successive halving, where at each rung of epochs, the minimum
+ * times a power of the reduction factor, only the top fraction of one in
+ * reduction of the trials that reached the rung continue. Successive halving
+ * with a low minimum of epochs explores many trials with a small budget.
+ * <p>
+ * Results can be saved to a table of the database.
+ *
+ * @author Miquel Sas
+ */
+public class HyperSearch extends Task {
+
+	/**
+	 * Enumerates the pruning modes.
+	 */
+	public static enum Pruning {
+		/** Trials train all the epochs. */
+		NONE,
+		/** Prune trials below the median of the same epoch. */
+		MEDIAN,
+		/** Asynchronous successive halving. */
+		HALVING
+	}
+
+	/**
+	 * Callback that registers the metrics of a trial and prunes it.
+	 */
+	class TrialCallback implements TrainerCallback {
+
+		/** The trial. */
+		Trial trial;
+
+		/**
+		 * Constructor.
+		 * 
+		 * @param trial The trial.
+		 */
+		TrialCallback(Trial trial) {
+			super();
+			this.trial = trial;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void onEpochEnd(Trainer trainer, int epoch, Metrics trainMetrics, Metrics testMetrics) {
+			double perf = testMetrics.getPerf();
+			trial.testPerfs.add(perf);
+			trial.bestTrainPerf = Math.max(trial.bestTrainPerf, trainMetrics.getPerf());
+			trial.bestTestPerf = Math.max(trial.bestTestPerf, perf);
+			epochsDone.incrementAndGet();
+			if (prune(epoch, perf)) {
+				trial.state = Trial.State.PRUNED;
+				trainer.requestStop();
+			}
+		}
+	}
+
+	/** Field search. */
+	public static final String FIELD_SEARCH = "search";
+	/** Field trial. */
+	public static final String FIELD_TRIAL = "trial";
+	/** Field parameters. */
+	public static final String FIELD_PARAMETERS = "parameters";
+	/** Field state. */
+	public static final String FIELD_STATE = "state";
+	/** Field epochs. */
+	public static final String FIELD_EPOCHS = "epochs";
+	/** Field train performance. */
+	public static final String FIELD_TRAIN_PERF = "train_perf";
+	/** Field test performance. */
+	public static final String FIELD_TEST_PERF = "test_perf";
+	/** Field elapsed milliseconds. */
+	public static final String FIELD_ELAPSED = "elapsed";
+
+	/** Length of the parameters field. */
+	private static final int PARAMETERS_LENGTH = 512;
+	/** Minimum number of trials at an epoch to prune by the median. */
+	private static final int MEDIAN_MINIMUM_TRIALS = 3;
+
+	/**
+	 * Return the definition of the table of results. The persistor must be set
+	 * before saving results.
+	 * 
+	 * @param schema The schema.
+	 * @param name   The table name.
+	 * @return The table.
+	 */
+	public static Table getResultsTable(String schema, String name) {
+		Table table = new Table();
+		table.setName(name);
+		table.setSchema(schema);
+		table.addField(field(FIELD_SEARCH, Types.STRING, 60, "Search"));
+		table.addField(field(FIELD_TRIAL, Types.INTEGER, 0, "Trial"));
+		table.addField(field(FIELD_PARAMETERS, Types.STRING, PARAMETERS_LENGTH, "Parameters"));
+		table.addField(field(FIELD_STATE, Types.STRING, 10, "State"));
+		table.addField(field(FIELD_EPOCHS, Types.INTEGER, 0, "Epochs"));
+		table.addField(field(FIELD_TRAIN_PERF, Types.DOUBLE, 0, "Train performance"));
+		table.addField(field(FIELD_TEST_PERF, Types.DOUBLE, 0, "Test performance"));
+		table.addField(field(FIELD_ELAPSED, Types.LONG, 0, "Elapsed"));
+		table.getField(FIELD_SEARCH).setPrimaryKey(true);
+		table.getField(FIELD_TRIAL).setPrimaryKey(true);
+		return table;
+	}
+
+	/**
+	 * Return a field definition.
+	 * 
+	 * @param name   The name.
+	 * @param type   The type.
+	 * @param length The length, for strings.
+	 * @param label  The label.
+	 * @return The field.
+	 */
+	private static Field field(String name, Types type, int length, String label) {
+		Field field = new Field();
+		field.setName(name);
+		field.setAlias(name);
+		field.setType(type);
+		if (type == Types.STRING) {
+			field.setLength(length);
+		}
+		field.setHeader(label);
+		field.setLabel(label);
+		field.setTitle(label);
+		return field;
+	}
+
+	/** Factory of the network of a trial. */
+	private Function<Trial, Network> factory;
+	/** Optional configurator of the trainer of a trial. */
+	private BiConsumer<Trial, Trainer> configurator;
+	/** Training source. */
+	private PatternSource sourceTrain;
+	/** Test source. */
+	private PatternSource sourceTest;
+	/** List of trials. */
+	private List<Trial> trials = new ArrayList<>();
+	/** Maximum number of epochs of a trial. */
+	private int epochs = 20;
+	/** Number of trials trained concurrently. */
+	private int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+	/** Pruning mode. */
+	private Pruning pruning = Pruning.NONE;
+	/** Minimum number of epochs before pruning. */
+	private int minEpochs = 1;
+	/** Reduction factor of successive halving. */
+	private int reduction = 3;
+
+	/** Test performances reported by epoch. */
+	private Map<Integer, List<Double>> reports = new HashMap<>();
+	/** Trainers running. */
+	private Map<Trial, Trainer> running = new ConcurrentHashMap<>();
+	/** Number of epochs done by all the trials. */
+	private AtomicLong epochsDone = new AtomicLong();
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param factory The factory of the network of a trial.
+	 */
+	public HyperSearch(Function<Trial, Network> factory) {
+		this(Locale.getDefault(), factory);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param locale  The locale.
+	 * @param factory The factory of the network of a trial.
+	 */
+	public HyperSearch(Locale locale, Function<Trial, Network> factory) {
+		super(locale);
+		this.factory = factory;
+		setConsoleRequired(true);
+	}
+
+	/**
+	 * Add a trial for each point of the grid of the space.
+	 * 
+	 * @param space The search space.
+	 */
+	public void addGrid(SearchSpace space) {
+		for (Map<String, Object> parameters : space.grid()) {
+			trials.add(new Trial(trials.size() + 1, parameters));
+		}
+	}
+
+	/**
+	 * Add a number of trials sampled at random from the space.
+	 * 
+	 * @param space The search space.
+	 * @param count The number of trials.
+	 * @param seed  The seed of the random generator.
+	 */
+	public void addRandom(SearchSpace space, int count, long seed) {
+		Random random = new Random(seed);
+		for (int i = 0; i < count; i++) {
+			trials.add(new Trial(trials.size() + 1, space.sample(random)));
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected long calculateTotalWork() throws Throwable {
+		setTotalWork((long) trials.size() * epochs);
+		return getTotalWork();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected void compute() throws Throwable {
+
+		/* Validate. */
+		if (sourceTrain == null) {
+			throw new IllegalStateException("The training pattern source must be set");
+		}
+		if (sourceTest == null) {
+			throw new IllegalStateException("The test pattern source must be set");
+		}
+		if (trials.isEmpty()) {
+			throw new IllegalStateException("No trials to search");
+		}
+
+		reports.clear();
+		epochsDone.set(0);
+		calculateTotalWork();
+		long totalWork = getTotalWork();
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads, runnable -> {
+			Thread thread = new Thread(runnable, "TRIAL");
+			thread.setDaemon(true);
+			return thread;
+		});
+		ExecutorCompletionService<Trial> service = new ExecutorCompletionService<>(pool);
+		for (Trial trial : trials) {
+			service.submit(() -> train(trial), trial);
+		}
+
+		/* Wait for the trials, reporting progress and checking cancel. */
+		int done = 0;
+		while (done < trials.size()) {
+			if (isCancelRequested()) {
+				pool.shutdownNow();
+				running.values().forEach(trainer -> trainer.cancel());
+				pool.awaitTermination(1, TimeUnit.MINUTES);
+				setCancelled();
+				return;
+			}
+			if (service.poll(1, TimeUnit.SECONDS) != null) {
+				done++;
+			}
+			StringBuilder msg = new StringBuilder();
+			msg.append("Trials ");
+			msg.append(done);
+			msg.append(" of ");
+			msg.append(trials.size());
+			msg.append(", running ");
+			msg.append(running.size());
+			update(msg.toString(), Math.min(epochsDone.get(), totalWork), totalWork);
+		}
+		pool.shutdown();
+
+		consoleClear();
+		consolePrint(getSummary());
+	}
+
+	/**
+	 * @return The list of trials sorted by descending best test performance.
+	 */
+	public List<Trial> getResults() {
+		List<Trial> results = new ArrayList<>(trials);
+		results.sort((a, b) -> Double.compare(b.getBestTestPerf(), a.getBestTestPerf()));
+		return results;
+	}
+
+	/**
+	 * @return The name of the search, the title if set.
+	 */
+	private String getSearchName() {
+		return (getTitle() != null ? getTitle() : "SEARCH");
+	}
+
+	/**
+	 * @return A text table of the results.
+	 */
+	public String getSummary() {
+		StringBuilder b = new StringBuilder();
+		for (Trial trial : getResults()) {
+			b.append(Strings.leftPad(Integer.toString(trial.getId()), 4));
+			b.append(" ");
+			b.append(Strings.rightPad(trial.getState().name(), 10));
+			b.append(Strings.leftPad(Integer.toString(trial.getEpochs()), 4));
+			b.append(" ");
+			b.append(Strings.leftPad(perf(trial.getBestTrainPerf()), 10));
+			b.append(" ");
+			b.append(Strings.leftPad(perf(trial.getBestTestPerf()), 10));
+			b.append("  ");
+			b.append(trial.toString());
+			b.append("\n");
+			if (trial.getException() != null) {
+				b.append("     ");
+				b.append(trial.getException().toString());
+				b.append("\n");
+			}
+		}
+		return b.toString();
+	}
+
+	/**
+	 * @return The list of trials in the order they were added.
+	 */
+	public List<Trial> getTrials() {
+		return Collections.unmodifiableList(trials);
+	}
+
+	/**
+	 * Check whether a rung of successive halving is at the epoch.
+	 * 
+	 * @param epoch The epoch.
+	 * @return A boolean.
+	 */
+	private boolean isRung(int epoch) {
+		long rung = minEpochs;
+		while (rung < epoch) {
+			rung *= reduction;
+		}
+		return rung == epoch;
+	}
+
+	/**
+	 * Format a performance.
+	 * 
+	 * @param perf The performance.
+	 * @return The formatted string.
+	 */
+	private String perf(double perf) {
+		if (Double.isInfinite(perf)) {
+			return "";
+		}
+		return Numbers.getBigDecimal(perf, 4).toPlainString();
+	}
+
+	/**
+	 * Register the test performance of a trial at an epoch and decide whether to
+	 * prune it.
+	 * 
+	 * @param epoch The epoch.
+	 * @param perf  The test performance.
+	 * @return A boolean indicating whether to prune the trial.
+	 */
+	private synchronized boolean prune(int epoch, double perf) {
+		if (pruning == Pruning.NONE || epoch < minEpochs || epoch >= epochs) {
+			return false;
+		}
+		if (pruning == Pruning.HALVING && !isRung(epoch)) {
+			return false;
+		}
+		List<Double> perfs = reports.computeIfAbsent(epoch, e -> new ArrayList<>());
+		perfs.add(perf);
+		List<Double> sorted = new ArrayList<>(perfs);
+		sorted.sort(Collections.reverseOrder());
+		if (pruning == Pruning.MEDIAN) {
+			if (sorted.size() < MEDIAN_MINIMUM_TRIALS) {
+				return false;
+			}
+			int middle = sorted.size() / 2;
+			double median = sorted.get(middle);
+			if (sorted.size() % 2 == 0) {
+				median = (median + sorted.get(middle - 1)) / 2;
+			}
+			return perf < median;
+		}
+		int keep = Math.max(1, sorted.size() / reduction);
+		return perf < sorted.get(keep - 1);
+	}
+
+	/**
+	 * Save the results to a table, that must have the fields of the results table.
+	 * 
+	 * @param persistor The persistor of the table.
+	 * @throws PersistorException If a database error occurs.
+	 */
+	public void saveResults(Persistor persistor) throws PersistorException {
+		String search = getSearchName();
+		for (Trial trial : trials) {
+			Record record = persistor.getDefaultRecord();
+			record.setValue(FIELD_SEARCH, search);
+			record.setValue(FIELD_TRIAL, trial.getId());
+			String parameters = trial.toString();
+			if (parameters.length() > PARAMETERS_LENGTH) {
+				parameters = parameters.substring(0, PARAMETERS_LENGTH);
+			}
+			record.setValue(FIELD_PARAMETERS, parameters);
+			record.setValue(FIELD_STATE, trial.getState().name());
+			record.setValue(FIELD_EPOCHS, trial.getEpochs());
+			record.setValue(FIELD_TRAIN_PERF, trial.getBestTrainPerf());
+			record.setValue(FIELD_TEST_PERF, trial.getBestTestPerf());
+			record.setValue(FIELD_ELAPSED, trial.getElapsed());
+			persistor.insert(record);
+		}
+	}
+
+	/**
+	 * @param configurator The configurator of the trainer of each trial, called
+	 *                     before training, to set for instance the batch size or
+	 *                     the callbacks.
+	 */
+	public void setConfigurator(BiConsumer<Trial, Trainer> configurator) {
+		this.configurator = configurator;
+	}
+
+	/**
+	 * @param epochs The maximum number of epochs of a trial.
+	 */
+	public void setEpochs(int epochs) {
+		if (epochs < 1) {
+			throw new IllegalArgumentException("Invalid epochs: " + epochs);
+		}
+		this.epochs = epochs;
+	}
+
+	/**
+	 * @param patternSource The test pattern source, required since trials are
+	 *                      ranked by their test performance.
+	 */
+	public void setPatternSourceTest(PatternSource patternSource) {
+		this.sourceTest = patternSource;
+	}
+
+	/**
+	 * @param patternSource The training pattern source.
+	 */
+	public void setPatternSourceTraining(PatternSource patternSource) {
+		this.sourceTrain = patternSource;
+	}
+
+	/**
+	 * Set the pruning of poor trials.
+	 * 
+	 * @param pruning   The pruning mode.
+	 * @param minEpochs The minimum number of epochs before pruning, the first rung
+	 *                  of successive halving.
+	 * @param reduction The reduction factor of successive halving.
+	 */
+	public void setPruning(Pruning pruning, int minEpochs, int reduction) {
+		if (minEpochs < 1) {
+			throw new IllegalArgumentException("Invalid minimum epochs: " + minEpochs);
+		}
+		if (reduction < 2) {
+			throw new IllegalArgumentException("Invalid reduction: " + reduction);
+		}
+		this.pruning = pruning;
+		this.minEpochs = minEpochs;
+		this.reduction = reduction;
+	}
+
+	/**
+	 * @param threads The number of trials trained concurrently.
+	 */
+	public void setThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Invalid threads: " + threads);
+		}
+		this.threads = threads;
+	}
+
+	/**
+	 * Train a trial.
+	 * 
+	 * @param trial The trial.
+	 */
+	private void train(Trial trial) {
+		long time = System.currentTimeMillis();
+		trial.state = Trial.State.RUNNING;
+		try {
+			Network network = factory.apply(trial);
+			Trainer trainer = new Trainer(getLocale());
+			trainer.setTitle(getSearchName() + "-" + trial.getId());
+			trainer.setNetwork(network);
+			trainer.setPatternSourceTraining(sourceTrain.clone());
+			trainer.setPatternSourceTest(sourceTest.clone());
+			trainer.setSaveNetworkData(false);
+			trainer.setEpochs(epochs);
+			if (configurator != null) {
+				configurator.accept(trial, trainer);
+			}
+			trainer.addCallback(new TrialCallback(trial));
+			running.put(trial, trainer);
+			try {
+				trainer.call();
+			} finally {
+				running.remove(trial);
+			}
+			if (trainer.getException() != null) {
+				throw trainer.getException();
+			}
+			if (trainer.isCancelled()) {
+				trial.state = Trial.State.CANCELLED;
+			} else if (trial.state == Trial.State.RUNNING) {
+				trial.state = Trial.State.COMPLETED;
+			}
+		} catch (Throwable exc) {
+			trial.exception = exc;
+			trial.state = Trial.State.FAILED;
+		}
+		trial.elapsed = System.currentTimeMillis() - time;
+	}
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2018 Miquel Sas
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mlt.ml.network.search;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * The space of hyper-parameters of a search, a list of named dimensions, either
+ * choices of values or ranges of doubles. A grid combines all the choices and
+ * a number of steps of each range, while a random sample draws a choice and a
+ * value uniformly, in logarithmic scale if so defined, from each range.
+ *
+ * @author Miquel Sas
+ */
+public class SearchSpace {
+
+	/**
+	 * A dimension of the space.
+	 */
+	static class Dimension {
+		/** Name. */
+		String name;
+		/** Choices, null for a range. */
+		Object[] choices;
+		/** Minimum of a range. */
+		double minimum;
+		/** Maximum of a range. */
+		double maximum;
+		/** Number of steps of a range in a grid. */
+		int steps;
+		/** Logarithmic scale of a range. */
+		boolean logarithmic;
+
+		/**
+		 * Return the value of a range at a position between 0 and 1.
+		 * 
+		 * @param position The position.
+		 * @return The value.
+		 */
+		double value(double position) {
+			if (logarithmic) {
+				double log = Math.log(minimum) + position * (Math.log(maximum) - Math.log(minimum));
+				return Math.exp(log);
+			}
+			return minimum + position * (maximum - minimum);
+		}
+
+		/**
+		 * Return the values of the dimension in a grid.
+		 * 
+		 * @return The values.
+		 */
+		Object[] values() {
+			if (choices != null) {
+				return choices;
+			}
+			Object[] values = new Object[steps];
+			for (int i = 0; i < steps; i++) {
+				values[i] = value(steps == 1 ? 0 : (double) i / (double) (steps - 1));
+			}
+			return values;
+		}
+	}
+
+	/** List of dimensions. */
+	private List<Dimension> dimensions = new ArrayList<>();
+
+	/**
+	 * Constructor.
+	 */
+	public SearchSpace() {
+		super();
+	}
+
+	/**
+	 * Add a dimension with a list of choices.
+	 * 
+	 * @param name    The name of the parameter.
+	 * @param choices The choices.
+	 * @return This space.
+	 */
+	public SearchSpace addChoice(String name, Object... choices) {
+		if (choices.length == 0) {
+			throw new IllegalArgumentException("Empty choices: " + name);
+		}
+		Dimension dimension = new Dimension();
+		dimension.name = name;
+		dimension.choices = choices;
+		dimensions.add(dimension);
+		return this;
+	}
+
+	/**
+	 * Add a dimension with a range of doubles.
+	 * 
+	 * @param name        The name of the parameter.
+	 * @param minimum     The minimum.
+	 * @param maximum     The maximum.
+	 * @param steps       The number of steps in a grid.
+	 * @param logarithmic A boolean to use a logarithmic scale.
+	 * @return This space.
+	 */
+	public SearchSpace addRange(
+		String name,
+		double minimum,
+		double maximum,
+		int steps,
+		boolean logarithmic) {
+		if (minimum > maximum || steps < 1) {
+			throw new IllegalArgumentException("Invalid range: " + name);
+		}
+		if (logarithmic && minimum <= 0) {
+			throw new IllegalArgumentException("Invalid logarithmic range: " + name);
+		}
+		Dimension dimension = new Dimension();
+		dimension.name = name;
+		dimension.minimum = minimum;
+		dimension.maximum = maximum;
+		dimension.steps = steps;
+		dimension.logarithmic = logarithmic;
+		dimensions.add(dimension);
+		return this;
+	}
+
+	/**
+	 * Return the parameters of all the points of the grid.
+	 * 
+	 * @return The list of parameters.
+	 */
+	public List<Map<String, Object>> grid() {
+		List<Map<String, Object>> grid = new ArrayList<>();
+		grid.add(new LinkedHashMap<>());
+		for (Dimension dimension : dimensions) {
+			List<Map<String, Object>> next = new ArrayList<>();
+			for (Map<String, Object> parameters : grid) {
+				for (Object value : dimension.values()) {
+					Map<String, Object> point = new LinkedHashMap<>(parameters);
+					point.put(dimension.name, value);
+					next.add(point);
+				}
+			}
+			grid = next;
+		}
+		return grid;
+	}
+
+	/**
+	 * Return the parameters of a random point.
+	 * 
+	 * @param random The random generator.
+	 * @return The parameters.
+	 */
+	public Map<String, Object> sample(Random random) {
+		Map<String, Object> parameters = new LinkedHashMap<>();
+		for (Dimension dimension : dimensions) {
+			if (dimension.choices != null) {
+				Object[] choices = dimension.choices;
+				parameters.put(dimension.name, choices[random.nextInt(choices.length)]);
+			} else {
+				parameters.put(dimension.name, dimension.value(random.nextDouble()));
+			}
+		}
+		return parameters;
+	}
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2018 Miquel Sas
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mlt.ml.network.search;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A trial of a search, a set of hyper-parameters and the results of training a
+ * network built with them.
+ *
+ * @author Miquel Sas
+ */
+public class Trial {
+
+	/**
+	 * Enumerates the states of a trial.
+	 */
+	public static enum State {
+		/** Not started. */
+		PENDING,
+		/** Being trained. */
+		RUNNING,
+		/** Trained all the epochs or stopped by a callback. */
+		COMPLETED,
+		/** Stopped early because of poor partial metrics. */
+		PRUNED,
+		/** Failed with an exception. */
+		FAILED,
+		/** Cancelled. */
+		CANCELLED
+	}
+
+	/** Identifier. */
+	private int id;
+	/** Hyper-parameters. */
+	private Map<String, Object> parameters;
+	/** State. */
+	volatile State state = State.PENDING;
+	/** Test performance of each epoch. */
+	List<Double> testPerfs = Collections.synchronizedList(new ArrayList<>());
+	/** Best train performance. */
+	volatile double bestTrainPerf = Double.NEGATIVE_INFINITY;
+	/** Best test performance. */
+	volatile double bestTestPerf = Double.NEGATIVE_INFINITY;
+	/** Elapsed milliseconds. */
+	volatile long elapsed;
+	/** Exception if failed. */
+	volatile Throwable exception;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param id         The identifier.
+	 * @param parameters The hyper-parameters.
+	 */
+	public Trial(int id, Map<String, Object> parameters) {
+		super();
+		this.id = id;
+		this.parameters = parameters;
+	}
+
+	/**
+	 * @return The best test performance.
+	 */
+	public double getBestTestPerf() {
+		return bestTestPerf;
+	}
+
+	/**
+	 * @return The best train performance.
+	 */
+	public double getBestTrainPerf() {
+		return bestTrainPerf;
+	}
+
+	/**
+	 * Return a parameter as a double.
+	 * 
+	 * @param name The name.
+	 * @return The value.
+	 */
+	public double getDouble(String name) {
+		return ((Number) getValue(name)).doubleValue();
+	}
+
+	/**
+	 * @return The elapsed milliseconds.
+	 */
+	public long getElapsed() {
+		return elapsed;
+	}
+
+	/**
+	 * @return The number of epochs trained.
+	 */
+	public int getEpochs() {
+		return testPerfs.size();
+	}
+
+	/**
+	 * @return The exception if failed.
+	 */
+	public Throwable getException() {
+		return exception;
+	}
+
+	/**
+	 * @return The identifier.
+	 */
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * Return a parameter as an integer.
+	 * 
+	 * @param name The name.
+	 * @return The value.
+	 */
+	public int getInteger(String name) {
+		return ((Number) getValue(name)).intValue();
+	}
+
+	/**
+	 * @return The hyper-parameters.
+	 */
+	public Map<String, Object> getParameters() {
+		return parameters;
+	}
+
+	/**
+	 * @return The state.
+	 */
+	public State getState() {
+		return state;
+	}
+
+	/**
+	 * Return a parameter as a string.
+	 * 
+	 * @param name The name.
+	 * @return The value.
+	 */
+	public String getString(String name) {
+		return getValue(name).toString();
+	}
+
+	/**
+	 * Return a parameter.
+	 * 
+	 * @param name The name.
+	 * @return The value.
+	 */
+	public Object getValue(String name) {
+		if (!parameters.containsKey(name)) {
+			throw new IllegalArgumentException("Invalid parameter: " + name);
+		}
+		return parameters.get(name);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		StringBuilder b = new StringBuilder();
+		for (Map.Entry<String, Object> entry : parameters.entrySet()) {
+			if (b.length() > 0) {
+				b.append(", ");
+			}
+			b.append(entry.getKey());
+			b.append("=");
+			b.append(entry.getValue());
+		}
+		return b.toString();
+	}
+}
@@ -133,6 +133,33 @@ public interface IO {
 		return value;
 	}
 
+	/**
+	 * Read a float.
+	 * 
+	 * @param is The input stream.
+	 * @return A float
+	 * @throws IOException
+	 */
+	public static float readFloat(InputStream is) throws IOException {
+		return readBuffer(is, Float.BYTES).getFloat(0);
+	}
+
+	/**
+	 * Read a float one dimensional array.
+	 * 
+	 * @param is The input stream.
+	 * @return The float one dimensional array.
+	 * @throws IOException
+	 */
+	public static float[] readFloat1A(InputStream is) throws IOException {
+		int length = readInt(is);
+		float[] value = new float[length];
+		for (int i = 0; i < length; i++) {
+			value[i] = readFloat(is);
+		}
+		return value;
+	}
+
 	/**
 	 * Read a double two dimensional array.
 	 * 
@@ -185,6 +212,20 @@ public interface IO {
 		return readBuffer(is, Short.BYTES).getShort(0);
 	}
 
+	/**
+	 * Read an integer one dimensional array.
+	 * 
+	 * @param is The input stream.
+	 * @return The integer one dimensional array.
+	 * @throws IOException
+	 */
+	public static int[] readInt1A(InputStream is) throws IOException {
+		int length = readInt(is);
+		int[] value = new int[length];
+		readBuffer(is, length * Integer.BYTES).asIntBuffer().get(value);
+		return value;
+	}
+
 	/**
 	 * Read a string in UTF-16 character set.
 	 * 
@@ -273,6 +314,31 @@ public interface IO {
 		}
 	}
 
+	/**
+	 * Write a float.
+	 * 
+	 * @param os    The output steam.
+	 * @param value The float.
+	 * @throws IOException
+	 */
+	public static void writeFloat(OutputStream os, float value) throws IOException {
+		writeBytes(os, ByteBuffer.allocate(Float.BYTES).putFloat(value).array());
+	}
+
+	/**
+	 * Write a one dimensional array of floats
+	 * 
+	 * @param os    The output stream
+	 * @param value The one dimensional array of floats.
+	 * @throws IOException
+	 */
+	public static void writeFloat1A(OutputStream os, float[] value) throws IOException {
+		writeInt(os, value.length);
+		for (int i = 0; i < value.length; i++) {
+			writeFloat(os, value[i]);
+		}
+	}
+
 	/**
 	 * Write a two dimensional array of doubles
 	 * 
@@ -303,6 +369,20 @@ public interface IO {
 		writeBytes(os, ByteBuffer.allocate(Integer.BYTES).putInt(value).array());
 	}
 
+	/**
+	 * Write a one dimensional array of integers.
+	 * 
+	 * @param os    The output stream
+	 * @param value The one dimensional array of integers.
+	 * @throws IOException
+	 */
+	public static void writeInt1A(OutputStream os, int[] value) throws IOException {
+		writeInt(os, value.length);
+		ByteBuffer buffer = ByteBuffer.allocate(value.length * Integer.BYTES);
+		buffer.asIntBuffer().put(value);
+		writeBytes(os, buffer.array());
+	}
+
 	/**
 	 * Write an long.
 	 * 
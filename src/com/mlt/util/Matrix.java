@@ -141,6 +141,22 @@ public class Matrix {
 		}
 	}
 
+	/**
+	 * Return a flat row-major copy of the matrix.
+	 *
+	 * @param matrix The matrix.
+	 * @return The flat vector of size rows * cols.
+	 */
+	public static double[] flatten(double[][] matrix) {
+		int rows = rows(matrix);
+		int cols = cols(matrix);
+		double[] flat = new double[rows * cols];
+		for (int row = 0; row < rows; row++) {
+			System.arraycopy(matrix[row], 0, flat, row * cols, cols);
+		}
+		return flat;
+	}
+
 	/**
 	 * Calculate the Hadamard product of matrices a and b.
 	 *
@@ -193,6 +209,22 @@ public class Matrix {
 		return mean;
 	}
 
+	/**
+	 * Check whether all the rows of the matrix have the same number of columns.
+	 *
+	 * @param matrix The matrix.
+	 * @return A boolean.
+	 */
+	public static boolean isRectangular(double[][] matrix) {
+		int cols = cols(matrix);
+		for (int row = 1; row < rows(matrix); row++) {
+			if (matrix[row].length != cols) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	/**
 	 * Returns the number of rows of a matrix.
 	 *
@@ -221,4 +253,23 @@ public class Matrix {
 		return transposed;
 	}
 
+	/**
+	 * Returns the matrix of a flat row-major vector.
+	 *
+	 * @param flat The flat vector.
+	 * @param rows The number of rows.
+	 * @param cols The number of columns.
+	 * @return The matrix.
+	 */
+	public static double[][] unflatten(double[] flat, int rows, int cols) {
+		if (flat.length != rows * cols) {
+			throw new IllegalArgumentException("Invalid flat vector length");
+		}
+		double[][] matrix = new double[rows][cols];
+		for (int row = 0; row < rows; row++) {
+			System.arraycopy(flat, row * cols, matrix[row], 0, cols);
+		}
+		return matrix;
+	}
+
 }
@@ -175,6 +175,16 @@ public class Properties {
 		return (double[]) properties.get(key);
 	}
 
+	/**
+	 * Return a stored float vector.
+	 * 
+	 * @param key The key.
+	 * @return The float vector.
+	 */
+	public float[] getFloat1A(Object key) {
+		return (float[]) properties.get(key);
+	}
+
 	/**
 	 * Returns a stored integer value, returning <code>0</code> if not set.
 	 * 
@@ -197,6 +207,16 @@ public class Properties {
 		return (value == null ? defaultValue : value);
 	}
 
+	/**
+	 * Return a stored integer vector.
+	 * 
+	 * @param key The key.
+	 * @return The integer vector.
+	 */
+	public int[] getInteger1A(Object key) {
+		return (int[]) properties.get(key);
+	}
+
 	/**
 	 * Returns a stored long value, returning <code>0</code> if not set.
 	 * 
@@ -336,6 +356,16 @@ public class Properties {
 		properties.put(key, v);
 	}
 
+	/**
+	 * Set the float vector.
+	 * 
+	 * @param key The key.
+	 * @param v   The vector.
+	 */
+	public void setFloat1A(Object key, float[] v) {
+		properties.put(key, v);
+	}
+
 	/**
 	 * Store an integer value.
 	 * 
@@ -346,6 +376,16 @@ public class Properties {
 		properties.put(key, value);
 	}
 
+	/**
+	 * Set the integer vector.
+	 * 
+	 * @param key The key.
+	 * @param v   The vector.
+	 */
+	public void setInteger1A(Object key, int[] v) {
+		properties.put(key, v);
+	}
+
 	/**
 	 * Store an long value.
 	 * 
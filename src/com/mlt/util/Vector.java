@@ -184,6 +184,32 @@ public class Vector {
 		return averages;
 	}
 
+	/**
+	 * Adds the scaled source vector segment to the destination vector segment,
+	 * <em>y = y + a * x</em>. The loop is unrolled by four to let the JIT compiler
+	 * vectorize it.
+	 * 
+	 * @param a      The scale factor.
+	 * @param x      The source vector.
+	 * @param xPos   The start position in the source vector.
+	 * @param y      The destination vector.
+	 * @param yPos   The start position in the destination vector.
+	 * @param length The number of elements.
+	 */
+	public static void axpy(double a, double[] x, int xPos, double[] y, int yPos, int length) {
+		int i = 0;
+		int unroll = length - (length % 4);
+		for (; i < unroll; i += 4) {
+			y[yPos + i] += a * x[xPos + i];
+			y[yPos + i + 1] += a * x[xPos + i + 1];
+			y[yPos + i + 2] += a * x[xPos + i + 2];
+			y[yPos + i + 3] += a * x[xPos + i + 3];
+		}
+		for (; i < length; i++) {
+			y[yPos + i] += a * x[xPos + i];
+		}
+	}
+
 	/**
 	 * Check that two vectors have the same length. Throws an
 	 * IllegalArgumentException.
@@ -409,6 +435,36 @@ public class Vector {
 		}
 	}
 
+	/**
+	 * Returns the dot product of two vector segments. The loop is unrolled by four
+	 * with independent accumulators to let the JIT compiler vectorize it.
+	 * 
+	 * @param x      The first vector.
+	 * @param xPos   The start position in the first vector.
+	 * @param y      The second vector.
+	 * @param yPos   The start position in the second vector.
+	 * @param length The number of elements.
+	 * @return The dot product.
+	 */
+	public static double dot(double[] x, int xPos, double[] y, int yPos, int length) {
+		double s0 = 0;
+		double s1 = 0;
+		double s2 = 0;
+		double s3 = 0;
+		int i = 0;
+		int unroll = length - (length % 4);
+		for (; i < unroll; i += 4) {
+			s0 += x[xPos + i] * y[yPos + i];
+			s1 += x[xPos + i + 1] * y[yPos + i + 1];
+			s2 += x[xPos + i + 2] * y[yPos + i + 2];
+			s3 += x[xPos + i + 3] * y[yPos + i + 3];
+		}
+		for (; i < length; i++) {
+			s0 += x[xPos + i] * y[yPos + i];
+		}
+		return (s0 + s1) + (s2 + s3);
+	}
+
 	/**
 	 * Fill the array.
 	 * 
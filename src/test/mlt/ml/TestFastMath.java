@@ -0,0 +1,105 @@
+package test.mlt.ml;
+
+import java.util.Random;
+
+import com.mlt.ml.function.Activation;
+import com.mlt.ml.function.activation.ActivationBipolarSigmoid;
+import com.mlt.ml.function.activation.ActivationSigmoid;
+import com.mlt.ml.function.activation.ActivationSoftMax;
+import com.mlt.ml.function.activation.ActivationTANH;
+import com.mlt.ml.function.activation.FastMath;
+
+/**
+ * Accuracy and speed of the fast activation kernels against the scalar code.
+ * Fails if the errors exceed the tolerances.
+ */
+public class TestFastMath {
+
+	/** Maximum relative error of the exponential. */
+	private static final double EXP_TOLERANCE = 1.0e-14;
+	/** Maximum absolute error of activations and derivatives. */
+	private static final double TOLERANCE = 1.0e-12;
+
+	public static void main(String[] args) {
+		boolean enabled = FastMath.isEnabled();
+		try {
+			test();
+		} finally {
+			FastMath.setEnabled(enabled);
+		}
+	}
+
+	private static void check(String name, double error, double tolerance) {
+		if (!(error <= tolerance)) {
+			throw new IllegalStateException(name + " error " + error + " exceeds " + tolerance);
+		}
+	}
+
+	private static void test() {
+		Random random = new Random(1);
+
+		/* Exponential, relative error. */
+		double maxExp = 0;
+		for (int i = 0; i < 1000000; i++) {
+			double x = (random.nextDouble() * 2 - 1) * 700;
+			double e = Math.exp(x);
+			maxExp = Math.max(maxExp, Math.abs(FastMath.exp(x) - e) / e);
+		}
+		System.out.println("exp max relative error " + maxExp);
+		check("exp", maxExp, EXP_TOLERANCE);
+
+		/* Activations and derivatives from their outputs, absolute error. */
+		Activation[] activations = new Activation[] {
+			new ActivationSigmoid(),
+			new ActivationBipolarSigmoid(),
+			new ActivationTANH(),
+			new ActivationSoftMax()
+		};
+		int size = 1024;
+		double[] triggers = new double[size];
+		double[] scalar = new double[size];
+		double[] fast = new double[size];
+		double[] scalarDerivatives = new double[size];
+		double[] fastDerivatives = new double[size];
+		for (Activation activation : activations) {
+			double maxError = 0;
+			double maxDerivativeError = 0;
+			for (int r = 0; r < 1000; r++) {
+				for (int i = 0; i < size; i++) {
+					triggers[i] = random.nextGaussian() * 10;
+				}
+				FastMath.setEnabled(false);
+				activation.activations(triggers, scalar);
+				activation.derivatives(scalar, scalarDerivatives);
+				FastMath.setEnabled(true);
+				activation.activations(triggers, fast);
+				activation.derivatives(fast, fastDerivatives);
+				for (int i = 0; i < size; i++) {
+					maxError = Math.max(maxError, Math.abs(fast[i] - scalar[i]));
+					maxDerivativeError =
+						Math.max(maxDerivativeError, Math.abs(fastDerivatives[i] - scalarDerivatives[i]));
+				}
+			}
+			long timeScalar = time(activation, triggers, fast, false);
+			long timeFast = time(activation, triggers, fast, true);
+			System.out.println(
+				activation.getId() + " max error " + maxError +
+					" derivatives " + maxDerivativeError +
+					" scalar " + timeScalar + " ms fast " + timeFast + " ms");
+			check(activation.getId(), maxError, TOLERANCE);
+			check(activation.getId() + " derivatives", maxDerivativeError, TOLERANCE);
+		}
+	}
+
+	private static long time(Activation activation, double[] triggers, double[] outputs, boolean fast) {
+		FastMath.setEnabled(fast);
+		for (int r = 0; r < 5000; r++) {
+			activation.activations(triggers, outputs);
+		}
+		long time = System.currentTimeMillis();
+		for (int r = 0; r < 20000; r++) {
+			activation.activations(triggers, outputs);
+		}
+		return System.currentTimeMillis() - time;
+	}
+}
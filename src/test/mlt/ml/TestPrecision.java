@@ -0,0 +1,110 @@
+package test.mlt.ml;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.mlt.ml.data.Pattern;
+import com.mlt.ml.data.PatternSource;
+import com.mlt.ml.data.mnist.MNIST;
+import com.mlt.ml.function.activation.ActivationSigmoid;
+import com.mlt.ml.function.optimizer.OptimizerAdam;
+import com.mlt.ml.network.Builder;
+import com.mlt.ml.network.Checkpoint;
+import com.mlt.ml.network.Metrics;
+import com.mlt.ml.network.Network;
+import com.mlt.ml.network.nodes.CrossEntropyNode.Mode;
+
+public class TestPrecision {
+
+	/** Maximum accuracy difference between precisions and after restoring. */
+	private static final double TOLERANCE = 0.002;
+
+	public static void main(String[] args) throws Exception {
+		PatternSource srcTrain = MNIST.getSourceTrain();
+		PatternSource srcTest = MNIST.getSourceTest();
+		int epochs = 2;
+		int batchSize = 50;
+		List<double[]> initial = null;
+		double accuracyDouble = 0;
+		for (Network.Precision precision : Network.Precision.values()) {
+			Network network = new Network();
+			network.addBranch(Builder.branchPerceptron(MNIST.INPUT_SIZE, 256, new ActivationSigmoid()));
+			network.addBranch(Builder.branchCrossEntropy(256, 10, Mode.SOFTMAX));
+			network.initialize();
+			network.setOptimizer(OptimizerAdam::new);
+			network.setPrecision(precision);
+
+			/* Both precisions start from the same weights. */
+			if (initial == null) {
+				initial = new ArrayList<>();
+				for (double[] parameter : network.getParameters()) {
+					initial.add(parameter.clone());
+				}
+			} else {
+				List<double[]> parameters = new ArrayList<>();
+				for (double[] parameter : initial) {
+					parameters.add(parameter.clone());
+				}
+				network.setParameters(parameters);
+			}
+
+			long time = System.currentTimeMillis();
+			for (int epoch = 0; epoch < epochs; epoch++) {
+				train(network, srcTrain, batchSize);
+			}
+			time = System.currentTimeMillis() - time;
+			Metrics metrics = network.compileForInference().calculateMetrics("Test", srcTest, 1000);
+			double accuracy = metrics.getPerf();
+			System.out.println(precision + " accuracy " + accuracy + " train " + time + " ms");
+
+			File file = File.createTempFile("precision", ".ckpt");
+			Checkpoint.save(network, file);
+			Network restored = new Network();
+			Checkpoint.restore(restored, file);
+			metrics = restored.compileForInference().calculateMetrics("Test", srcTest, 1000);
+			double accuracyRestored = metrics.getPerf();
+			System.out.println(
+				precision + " restored accuracy " + accuracyRestored + " file " + file.length() + " bytes");
+			file.delete();
+
+			check(precision + " restored", accuracy, accuracyRestored);
+			if (precision == Network.Precision.DOUBLE) {
+				accuracyDouble = accuracy;
+			} else {
+				check(precision + " against DOUBLE", accuracyDouble, accuracy);
+			}
+		}
+	}
+
+	private static void check(String name, double expected, double actual) {
+		if (Math.abs(expected - actual) > TOLERANCE) {
+			throw new IllegalStateException(
+				name + " accuracy " + actual + " differs from " + expected + " more than " + TOLERANCE);
+		}
+	}
+
+	private static void train(Network network, PatternSource source, int batchSize) {
+		for (int start = 0; start < source.size(); start += batchSize) {
+			int end = Math.min(start + batchSize, source.size());
+			List<Pattern> patterns = new ArrayList<>();
+			for (int i = start; i < end; i++) {
+				patterns.add(source.get(i));
+			}
+			double[][] inputValues = new double[patterns.size()][];
+			for (int i = 0; i < patterns.size(); i++) {
+				inputValues[i] = patterns.get(i).getInputValues();
+			}
+			double[][] outputValues = network.forwardBatch(inputValues);
+			double[][] outputDeltas = new double[patterns.size()][];
+			for (int i = 0; i < patterns.size(); i++) {
+				double[] patternOutput = patterns.get(i).getOutputValues();
+				outputDeltas[i] = new double[patternOutput.length];
+				for (int j = 0; j < patternOutput.length; j++) {
+					outputDeltas[i][j] = patternOutput[j] - outputValues[i][j];
+				}
+			}
+			network.backwardBatch(outputDeltas);
+		}
+	}
+}